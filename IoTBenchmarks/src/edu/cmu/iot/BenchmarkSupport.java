@@ -0,0 +1,147 @@
+package edu.cmu.iot;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Helpers shared by the benchmarks
+ *
+ * Project: LG Exec Ed Program
+ * Copyright: Copyright (c) 2015 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 October 2026 - initial version
+ */
+final class BenchmarkSupport {
+
+    /** A view that shows nothing */
+    static final IoTControlView NO_VIEW = new IoTControlView() {
+        @Override
+        public void updateState(HouseState newState) {
+        }
+
+        @Override
+        public void updateLog(String logEntry) {
+        }
+
+        @Override
+        public void updateLog(List<String> log) {
+        }
+
+        @Override
+        public void enableControls() {
+        }
+
+        @Override
+        public void disableControls() {
+        }
+    };
+
+    /** A connection that answers every request with OK without touching the network */
+    static class StubConnection extends IoTConnection {
+        StubConnection() {
+            super("bench");
+        }
+
+        @Override
+        public Boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public IoTRequest sendMessageAsync(CharSequence msg) {
+            return IoTRequest.completed(IoTValues.OK);
+        }
+
+        @Override
+        public void disconnect() {
+        }
+    }
+
+    private static PrintStream console = null;
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * Silence the controller's console tracing, which would otherwise be most of what is measured
+     */
+    static synchronized void quiet() {
+        if (console == null) {
+            console = System.out;
+            System.setOut(new PrintStream(new OutputStream() {
+                @Override
+                public void write(int b) {
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                }
+            }));
+        }
+    }
+
+    /**
+     * Make a controller that is not connected to any house
+     * @return the controller
+     */
+    static IoTControlManager newController() {
+        IoTControlManager mgr = new IoTControlManager(NO_VIEW, System.getProperty("java.io.tmpdir"));
+        Hashtable<String, Object> settings = new Hashtable<String, Object>();
+        // long enough that no away timer expires during a run
+        settings.put(IoTValues.ALARM_DELAY, 3600);
+        mgr.updateSettings(settings);
+        return mgr;
+    }
+
+    /**
+     * Make random states. Each field is known or not, on or off at random, so every rule gets its turn.
+     * @param count the number of states
+     * @param seed the random seed
+     * @return the states
+     */
+    static HouseState[] randomStates(int count, long seed) {
+        Random rnd = new Random(seed);
+        HouseState[] states = new HouseState[count];
+        for (int i = 0; i < count; i++) {
+            HouseState s = new HouseState();
+            for (int f = 1; f <= HouseState.FLAGS; f <<= 1) {
+                if (rnd.nextInt(4) != 0) {
+                    s.set(f, rnd.nextBoolean());
+                }
+            }
+            if (rnd.nextInt(4) != 0) {
+                s.setTempReading(60 + rnd.nextInt(25));
+            }
+            if (rnd.nextInt(4) != 0) {
+                s.setHumidityReading(20 + rnd.nextInt(60));
+            }
+            if (rnd.nextInt(4) != 0) {
+                s.setTargetTemp(65 + rnd.nextInt(10));
+            }
+            if (rnd.nextInt(8) == 0) {
+                s.setPassCode(rnd.nextBoolean() ? "passcode" : "guess");
+            }
+            states[i] = s;
+        }
+        return states;
+    }
+
+    /**
+     * Make state update frames like the ones a house reports
+     * @param count the number of frames
+     * @param seed the random seed
+     * @return the frames
+     */
+    static String[] randomFrames(int count, long seed) {
+        Random rnd = new Random(seed);
+        String[] frames = new String[count];
+        for (int i = 0; i < count; i++) {
+            frames[i] = "SU:DS=" + rnd.nextInt(2) + ";TR=" + (60 + rnd.nextInt(25)) + ";HR=" + (20 + rnd.nextInt(60))
+                    + ";LS=" + rnd.nextInt(2) + ";AS=" + rnd.nextInt(2) + ";PS=" + rnd.nextInt(2) + ".";
+        }
+        return frames;
+    }
+}
@@ -0,0 +1,60 @@
+package edu.cmu.iot;
+
+import java.util.Hashtable;
+import java.util.StringTokenizer;
+
+/**
+ * The state update parser the controller used before the state codec, kept as a baseline for the codec
+ * benchmark. It splits the message into strings and boxes every value into a Hashtable.
+ *
+ * Project: LG Exec Ed Program
+ * Copyright: Copyright (c) 2015 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 October 2026 - initial version
+ */
+final class LegacyStateParser {
+
+    private LegacyStateParser() {
+    }
+
+    /**
+     * Parse a state update
+     * @param stateUpdateMsg the message
+     * @return the state, or null if the message is not a state update
+     */
+    static Hashtable<String, Object> parse(String stateUpdateMsg) {
+        if (stateUpdateMsg == null || stateUpdateMsg.length() == 0) {
+            return null;
+        }
+        Hashtable<String, Object> state = new Hashtable<String, Object>();
+
+        String[] req = stateUpdateMsg.split(IoTValues.MSG_DELIM);
+        if (req.length != 2) {
+            return null;
+        }
+        String cmd = req[0];
+        String body = req[1];
+        if (!cmd.equals(IoTValues.STATE_UPDATE)) {
+            return null;
+        }
+        if (String.valueOf(body.charAt(body.length() - 1)).equals(IoTValues.MSG_END)) {
+            body = body.substring(0, body.length() - 1);
+        }
+
+        StringTokenizer pt = new StringTokenizer(body, IoTValues.PARAM_DELIM);
+        while (pt.hasMoreTokens()) {
+            String param = pt.nextToken();
+            String data[] = param.split(IoTValues.PARAM_EQ);
+            Integer val = Integer.parseInt(data[1]);
+
+            if (data[0].equals(IoTValues.TEMP_READING) || data[0].equals(IoTValues.HUMIDITY_READING)) {
+                state.put(data[0], val);
+            } else if (data[0].equals(IoTValues.HVAC_MODE)) {
+                state.put(IoTValues.HVAC_MODE, val == 1 ? "Heater" : "Chiller");
+            } else {
+                state.put(data[0], val == 1);
+            }
+        }
+        return state;
+    }
+}
@@ -0,0 +1,100 @@
+package edu.cmu.iot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures whole poll cycles against a simulated house on the loopback interface: the request goes through the
+ * selector transport, the house answers, and the controller decodes the answer. The second benchmark also
+ * evaluates the reported state and waits for the house to accept the result, as a state change does.
+ *
+ * Project: LG Exec Ed Program
+ * Copyright: Copyright (c) 2015 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 October 2026 - initial version
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PollCycleBenchmark {
+
+    private IoTHouseSimulator house;
+    private String address;
+    private IoTConnectManager connMgr;
+    private IoTControlManager controller;
+    private boolean light = false;
+
+    @Setup
+    public void setUp() throws IOException {
+        BenchmarkSupport.quiet();
+
+        // find a free port for the house
+        ServerSocket probe = new ServerSocket(0);
+        int port = probe.getLocalPort();
+        probe.close();
+
+        IoTHouseSimulator.Config cfg = new IoTHouseSimulator.Config();
+        cfg.usePorts = true;
+        cfg.port = port;
+        cfg.proximityRate = 0;
+        house = new IoTHouseSimulator(cfg);
+        Thread t = new Thread(house, "simulated house");
+        t.setDaemon(true);
+        t.start();
+
+        address = "127.0.0.1:" + port;
+        IoTConnection connection = IoTConnection.getConnection(address);
+        if (connection == null) {
+            throw new IOException("Cannot connect to the simulated house at " + address);
+        }
+        connMgr = new IoTConnectManager(connection);
+        controller = BenchmarkSupport.newController();
+    }
+
+    @TearDown
+    public void tearDown() {
+        connMgr.disconnectFromHouse();
+        house.stop();
+    }
+
+    /**
+     * Poll the house once
+     */
+    @Benchmark
+    public HouseState poll() {
+        return connMgr.getState();
+    }
+
+    /**
+     * Poll the house, evaluate the state with the light toggled and wait for the house to accept it
+     */
+    @Benchmark
+    public Boolean pollEvaluateSet() {
+        HouseState state = connMgr.getState();
+        if (state == null) {
+            return false;
+        }
+        light = !light;
+        state.set(HouseState.LIGHT, light);
+        state.set(HouseState.PROXIMITY, true);
+        controller.evaluateNewState(state);
+        controller.discardLog();
+        return connMgr.setState(state);
+    }
+}
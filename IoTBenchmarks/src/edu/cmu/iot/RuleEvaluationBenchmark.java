@@ -0,0 +1,84 @@
+package edu.cmu.iot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the house policy over many state combinations: the compiled rules on their own, and
+ * evaluateNewState, which also merges the request into the controller's state and carries out the rule actions.
+ *
+ * Project: LG Exec Ed Program
+ * Copyright: Copyright (c) 2015 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 October 2026 - initial version
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RuleEvaluationBenchmark {
+
+    private static final int MASK = 4095;
+
+    private HouseState[] requests;
+    private HouseState[] lastStates;
+    private IoTControlManager controller;
+    private IoTRuleSet rules;
+    private final HouseState current = new HouseState();
+    private int next = 0;
+
+    private final IoTRuleSet.Actions noActions = new IoTRuleSet.Actions() {
+        @Override
+        public void log(String msg) {
+        }
+
+        @Override
+        public void startAwayTimer() {
+        }
+
+        @Override
+        public void cancelAwayTimer() {
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        BenchmarkSupport.quiet();
+        requests = BenchmarkSupport.randomStates(MASK + 1, 5);
+        lastStates = BenchmarkSupport.randomStates(MASK + 1, 6);
+        controller = BenchmarkSupport.newController();
+        rules = IoTRuleSet.getDefault();
+    }
+
+    /**
+     * The compiled rules alone
+     */
+    @Benchmark
+    public long ruleSet() {
+        int i = next++ & MASK;
+        current.copyFrom(requests[i]);
+        return rules.evaluate(current, lastStates[i], requests[i].getPassCode(), "passcode", noActions);
+    }
+
+    /**
+     * A state change as the controller evaluates it
+     */
+    @Benchmark
+    public long evaluateNewState() {
+        long fired = controller.evaluateNewState(requests[next++ & MASK]);
+        controller.discardLog();
+        return fired;
+    }
+}
@@ -0,0 +1,84 @@
+package edu.cmu.iot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures decoding the state updates a house reports and building the set state requests sent back. The legacy
+ * parser is the baseline for handleStateUpdate.
+ *
+ * Project: LG Exec Ed Program
+ * Copyright: Copyright (c) 2015 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 October 2026 - initial version
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StateCodecBenchmark {
+
+    private static final int MASK = 1023;
+
+    private String[] frames;
+    private HouseState[] states;
+    private IoTConnectManager connMgr;
+    private final IoTStateCodec codec = new IoTStateCodec();
+    private final HouseState decoded = new HouseState();
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        BenchmarkSupport.quiet();
+        frames = BenchmarkSupport.randomFrames(MASK + 1, 17);
+        states = BenchmarkSupport.randomStates(MASK + 1, 17);
+        connMgr = new IoTConnectManager(new BenchmarkSupport.StubConnection());
+    }
+
+    /**
+     * Decode a state update the way the controller does for every poll and push
+     */
+    @Benchmark
+    public boolean handleStateUpdate() {
+        decoded.clear();
+        return connMgr.handleStateUpdate(frames[next++ & MASK], decoded);
+    }
+
+    /**
+     * The parser handleStateUpdate replaced
+     */
+    @Benchmark
+    public Hashtable<String, Object> legacyParse() {
+        return LegacyStateParser.parse(frames[next++ & MASK]);
+    }
+
+    /**
+     * Build a set state request with every settable field
+     */
+    @Benchmark
+    public int encodeSetState() {
+        return codec.encode(states[next++ & MASK], HouseState.SETTABLE).length();
+    }
+
+    /**
+     * Send a state to a house that acknowledges at once: the change detection, the request building and the
+     * acknowledgement bookkeeping of setState
+     */
+    @Benchmark
+    public IoTRequest sendState() {
+        return connMgr.sendState(states[next++ & MASK]);
+    }
+}
@@ -0,0 +1,324 @@
+package edu.cmu.iot;
+
+/**
+ * The state of a house held in primitive fields. The on/off values are kept as bits in a single int and the
+ * readings as ints, so a state can be filled in and reused without allocating. A second bit set records which
+ * fields are known, since the house does not report every field in every update, and a third records which
+ * fields have been written since the dirty set was last cleared.
+ *
+ * Project: LG Exec Ed Program
+ * Copyright: Copyright (c) 2015 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 October 2026 - initial version
+ */
+public class HouseState {
+
+    // on/off fields
+    public static final int LIGHT = 1;
+    public static final int DOOR = 1 << 1;          // set if the door is open
+    public static final int PROXIMITY = 1 << 2;     // set if the house is occupied
+    public static final int ALARM = 1 << 3;         // set if the alarm is enabled
+    public static final int ALARM_ACTIVE = 1 << 4;  // set if the alarm is sounding
+    public static final int HUMIDIFIER = 1 << 5;
+    public static final int HEATER = 1 << 6;
+    public static final int CHILLER = 1 << 7;
+    public static final int HVAC_HEATER = 1 << 8;   // the HVAC mode: set for Heater, clear for Chiller
+
+    // readings and settings
+    public static final int TEMP_READING = 1 << 9;
+    public static final int HUMIDITY_READING = 1 << 10;
+    public static final int TARGET_TEMP = 1 << 11;
+
+    /** all on/off fields */
+    public static final int FLAGS = (1 << 9) - 1;
+
+    /** all fields */
+    public static final int ALL = (1 << 12) - 1;
+
+    /** the fields the house accepts in a set state request */
+    public static final int SETTABLE = LIGHT | DOOR | ALARM | HUMIDIFIER | HEATER | CHILLER;
+
+    /** the on/off values */
+    private int flags;
+
+    /** the fields that are known */
+    private int present;
+
+    /** the fields written since the last call to clearDirty */
+    private int dirty;
+
+    private int tempReading;
+    private int humidityReading;
+    private int targetTemp;
+
+    /** the alarm passcode given with a request to disable the alarm, null if none */
+    private String passCode;
+
+    /**
+     * Create an empty state
+     */
+    public HouseState() {
+        clear();
+    }
+
+    /**
+     * Forget every field
+     */
+    public void clear() {
+        flags = 0;
+        present = 0;
+        dirty = 0;
+        tempReading = 0;
+        humidityReading = 0;
+        targetTemp = 0;
+        passCode = null;
+    }
+
+    /**
+     * Copy another state into this one
+     * @param other the state to copy
+     */
+    public void copyFrom(HouseState other) {
+        flags = other.flags;
+        present = other.present;
+        dirty = other.dirty;
+        tempReading = other.tempReading;
+        humidityReading = other.humidityReading;
+        targetTemp = other.targetTemp;
+        passCode = other.passCode;
+    }
+
+    /**
+     * Make a copy of this state
+     * @return the copy
+     */
+    public HouseState copy() {
+        HouseState state = new HouseState();
+        state.copyFrom(this);
+        return state;
+    }
+
+    /**
+     * Copy the known fields of another state into this one
+     * @param other the state to merge
+     * @param fields the fields to consider
+     */
+    public void merge(HouseState other, int fields) {
+        int merged = other.present & fields;
+        flags = (flags & ~merged) | (other.flags & merged);
+        if ((merged & TEMP_READING) != 0) {
+            tempReading = other.tempReading;
+        }
+        if ((merged & HUMIDITY_READING) != 0) {
+            humidityReading = other.humidityReading;
+        }
+        if ((merged & TARGET_TEMP) != 0) {
+            targetTemp = other.targetTemp;
+        }
+        present |= merged;
+        dirty |= merged;
+    }
+
+    /**
+     * Find the fields that differ from another state. A field that is known here but not in the other state
+     * counts as changed.
+     * @param other the state to compare with
+     * @return the changed fields
+     */
+    public int changedFrom(HouseState other) {
+        int changed = ((flags ^ other.flags) & present) | (present & ~other.present);
+        if (tempReading != other.tempReading) {
+            changed |= present & TEMP_READING;
+        }
+        if (humidityReading != other.humidityReading) {
+            changed |= present & HUMIDITY_READING;
+        }
+        if (targetTemp != other.targetTemp) {
+            changed |= present & TARGET_TEMP;
+        }
+        return changed;
+    }
+
+    /**
+     * Get the fields written since the dirty set was cleared
+     * @return the dirty fields
+     */
+    public int getDirty() {
+        return dirty;
+    }
+
+    /**
+     * Clear the dirty set
+     */
+    public void clearDirty() {
+        dirty = 0;
+    }
+
+    /**
+     * Is the state empty
+     * @return true if no field is known
+     */
+    public boolean isEmpty() {
+        return present == 0;
+    }
+
+    /**
+     * Is a field known
+     * @param field the field bit
+     * @return true if the field has a value
+     */
+    public boolean has(int field) {
+        return (present & field) != 0;
+    }
+
+    /**
+     * Get an on/off field
+     * @param field the field bit
+     * @return the value, false if the field is not known
+     */
+    public boolean get(int field) {
+        return (flags & field) != 0;
+    }
+
+    /**
+     * Set an on/off field
+     * @param field the field bit
+     * @param value the new value
+     */
+    public void set(int field, boolean value) {
+        if (value) {
+            flags |= field;
+        } else {
+            flags &= ~field;
+        }
+        present |= field;
+        dirty |= field;
+    }
+
+    /**
+     * Forget one or more fields
+     * @param fields the field bits
+     */
+    public void remove(int fields) {
+        flags &= ~fields;
+        present &= ~fields;
+    }
+
+    /**
+     * Get the on/off values as a bit set
+     * @return the flag bits
+     */
+    public int getFlags() {
+        return flags;
+    }
+
+    /**
+     * Get the set of known fields
+     * @return the field bits
+     */
+    public int getPresent() {
+        return present;
+    }
+
+    public int getTempReading() {
+        return tempReading;
+    }
+
+    public void setTempReading(int temp) {
+        tempReading = temp;
+        present |= TEMP_READING;
+        dirty |= TEMP_READING;
+    }
+
+    public int getHumidityReading() {
+        return humidityReading;
+    }
+
+    public void setHumidityReading(int humidity) {
+        humidityReading = humidity;
+        present |= HUMIDITY_READING;
+        dirty |= HUMIDITY_READING;
+    }
+
+    public int getTargetTemp() {
+        return targetTemp;
+    }
+
+    public void setTargetTemp(int temp) {
+        targetTemp = temp;
+        present |= TARGET_TEMP;
+        dirty |= TARGET_TEMP;
+    }
+
+    /**
+     * Is the HVAC in heater mode
+     * @return true for Heater, false for Chiller
+     */
+    public boolean isHeaterMode() {
+        return get(HVAC_HEATER);
+    }
+
+    /**
+     * Get the alarm passcode given with this state
+     * @return the passcode, or null if none was given
+     */
+    public String getPassCode() {
+        return passCode;
+    }
+
+    /**
+     * Give an alarm passcode with this state
+     * @param code the passcode
+     */
+    public void setPassCode(String code) {
+        passCode = code;
+    }
+
+    /**
+     * Set a reading or setting
+     * @param field the field bit, one of TEMP_READING, HUMIDITY_READING or TARGET_TEMP
+     * @param value the new value
+     */
+    public void setValue(int field, int value) {
+        if (field == TEMP_READING) {
+            setTempReading(value);
+        } else if (field == HUMIDITY_READING) {
+            setHumidityReading(value);
+        } else if (field == TARGET_TEMP) {
+            setTargetTemp(value);
+        } else {
+            set(field, value == 1);
+        }
+    }
+
+    /**
+     * Get the value of a field as it appears on the wire
+     * @param field the field bit
+     * @return the reading, or 1/0 for on/off fields
+     */
+    public int getValue(int field) {
+        if (field == TEMP_READING) {
+            return tempReading;
+        } else if (field == HUMIDITY_READING) {
+            return humidityReading;
+        } else if (field == TARGET_TEMP) {
+            return targetTemp;
+        }
+        return get(field) ? 1 : 0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < IoTStateCodec.FIELD_KEYS.length; i++) {
+            int field = 1 << i;
+            if (has(field)) {
+                if (sb.length() > 1) {
+                    sb.append(", ");
+                }
+                sb.append(IoTStateCodec.FIELD_KEYS[i]).append('=').append(getValue(field));
+            }
+        }
+        return sb.append('}').toString();
+    }
+}
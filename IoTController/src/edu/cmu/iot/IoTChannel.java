@@ -0,0 +1,351 @@
+package edu.cmu.iot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A non-blocking channel to a single house. Requests are queued on the channel and written by the selector thread;
+ * each line the house sends back completes the oldest outstanding request, so any number of requests may be in
+ * flight at once. A subscribed house also sends state updates nobody asked for; a state update that arrives
+ * when the oldest request is not a get state request is handed to the owning connection instead.
+ *
+ * Project: LG Exec Ed Program
+ * Copyright: Copyright (c) 2015 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 October 2026 - initial version
+ */
+class IoTChannel {
+
+    /** the initial size of the write buffer; house messages are short */
+    private static final int WRITE_BUFFER_SIZE = 512;
+
+    /** the longest line accepted from the house; a longer one closes the channel */
+    private static final int MAX_LINE = 1024;
+
+    /** the start of every state update */
+    private static final String STATE_UPDATE_PREFIX = IoTValues.STATE_UPDATE + IoTValues.MSG_DELIM;
+
+    /** the start of every get state request */
+    private static final String GET_STATE_PREFIX = IoTValues.GET_STATE;
+
+    /** the house address */
+    private final String address;
+
+    private final SocketChannel socket;
+    private final IoTSelector ioSelector;
+
+    /** the selection key, set on the selector thread */
+    private volatile SelectionKey key = null;
+
+    /** outgoing bytes not yet written to the socket; guarded by this */
+    private ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+
+    /** requests waiting for a response, oldest first; guarded by this */
+    private final ArrayDeque<IoTRequest> pending = new ArrayDeque<IoTRequest>();
+
+    /** the connection notified of pushed state updates, may be null */
+    private volatile IoTConnection owner = null;
+
+    /** the partial line received so far; only used on the selector thread */
+    private final StringBuilder line = new StringBuilder();
+
+    private final CountDownLatch connected = new CountDownLatch(1);
+    private volatile boolean open = true;
+
+    /**
+     * Create a channel
+     * @param addr the house address
+     * @param sc the (connecting) socket channel
+     * @param sel the selector that will service the channel
+     */
+    IoTChannel(String addr, SocketChannel sc, IoTSelector sel) {
+        address = addr;
+        socket = sc;
+        ioSelector = sel;
+    }
+
+    /**
+     * Get the house address
+     * @return the address
+     */
+    String getAddress() {
+        return address;
+    }
+
+    /**
+     * Set the connection to notify of state updates the house pushes
+     * @param conn the connection
+     */
+    void setOwner(IoTConnection conn) {
+        owner = conn;
+    }
+
+    /**
+     * Is the channel open
+     * @return true if the channel is connected and has not been closed
+     */
+    boolean isOpen() {
+        return open && connected.getCount() == 0;
+    }
+
+    /**
+     * Has the channel been closed
+     * @return true once closed; a channel that is still connecting is not closed
+     */
+    boolean isClosed() {
+        return !open;
+    }
+
+    /**
+     * Queue a message for the house
+     * @param msg the message
+     * @param timeout the time (in milliseconds) to wait for the response
+     * @param conn the connection to notify when the request completes, may be null
+     * @return the request, which completes when the house responds
+     */
+    IoTRequest send(CharSequence msg, long timeout, IoTConnection conn) {
+        IoTRequest req = new IoTRequest(timeout, conn, startsWith(msg, GET_STATE_PREFIX));
+        synchronized (this) {
+            if (!open) {
+                req.complete(null);
+                return req;
+            }
+            encode(msg);
+            pending.addLast(req);
+        }
+        ioSelector.requestWrite(this);
+        return req;
+    }
+
+    /**
+     * Check the start of a message without converting it to a string
+     * @param msg the message
+     * @param prefix the expected start
+     * @return true if the message starts with the prefix
+     */
+    private static boolean startsWith(CharSequence msg, String prefix) {
+        if (msg.length() < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (msg.charAt(i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copy the message into the write buffer. The protocol is plain ASCII, so characters are written directly
+     * without going through a charset encoder.
+     * @param msg the message
+     */
+    private void encode(CharSequence msg) {
+        if (writeBuffer.remaining() < msg.length()) {
+            ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(writeBuffer.capacity() * 2,
+                    writeBuffer.position() + msg.length()));
+            writeBuffer.flip();
+            larger.put(writeBuffer);
+            writeBuffer = larger;
+        }
+        for (int i = 0; i < msg.length(); i++) {
+            writeBuffer.put((byte) msg.charAt(i));
+        }
+    }
+
+    /**
+     * Wait for the connection to complete
+     * @param timeout the time to wait in milliseconds
+     * @return true if connected, false otherwise
+     */
+    boolean awaitConnected(long timeout) {
+        try {
+            connected.await(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        return isOpen();
+    }
+
+    /**
+     * Register with the selector. Called on the selector thread.
+     * @param selector the selector
+     */
+    void register(Selector selector) {
+        if (!open) {
+            return;
+        }
+        try {
+            if (socket.isConnected()) {
+                key = socket.register(selector, SelectionKey.OP_READ, this);
+                connected.countDown();
+            } else {
+                key = socket.register(selector, SelectionKey.OP_CONNECT, this);
+            }
+        } catch (ClosedChannelException cce) {
+            close();
+        }
+    }
+
+    /**
+     * Complete a pending connection. Called on the selector thread.
+     */
+    void finishConnect() {
+        try {
+            if (socket.finishConnect()) {
+                key.interestOps(SelectionKey.OP_READ);
+                connected.countDown();
+                write();
+            }
+        } catch (IOException ioe) {
+            close();
+        }
+    }
+
+    /**
+     * Read from the house and complete requests for every full line. Called on the selector thread.
+     * @param buffer the shared read buffer
+     */
+    void read(ByteBuffer buffer) {
+        try {
+            buffer.clear();
+            int count = socket.read(buffer);
+            if (count < 0) {
+                close(); // the house hung up
+                return;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                if (b == '\n') {
+                    String response = line.toString();
+                    line.setLength(0);
+                    handleResponse(response);
+                } else if (b != '\r') {
+                    if (line.length() >= MAX_LINE) {
+                        // not a house, or a broken one; it would fill the heap before it sent a newline
+                        System.out.println("Line from " + address + " is longer than " + MAX_LINE + " bytes");
+                        line.setLength(0);
+                        close();
+                        return;
+                    }
+                    line.append((char) b);
+                }
+            }
+        } catch (IOException ioe) {
+            close();
+        }
+    }
+
+    /**
+     * Match a response to the oldest outstanding request. A state update is only a response if the oldest
+     * request asked for one; otherwise the house pushed it. If a pushed update arrives just before the response
+     * to a get state request, the push answers the request and the response is treated as a push, which is
+     * harmless since both report the current state.
+     * @param response the response line
+     */
+    private void handleResponse(String response) {
+        IoTRequest req = null;
+        boolean pushed = false;
+        synchronized (this) {
+            IoTRequest head = pending.peekFirst();
+            if (response.startsWith(STATE_UPDATE_PREFIX) && (head == null || !head.isStateRequest())) {
+                pushed = true;
+            } else {
+                req = pending.pollFirst();
+            }
+        }
+        if (req != null) {
+            req.complete(response);
+        } else if (pushed) {
+            IoTConnection conn = owner;
+            if (conn != null) {
+                conn.updateReceived(response);
+            }
+        }
+    }
+
+    /**
+     * Write queued data. Called on the selector thread.
+     */
+    void write() {
+        SelectionKey k = key;
+        if (k == null || !k.isValid() || connected.getCount() > 0) {
+            return; // written once the connection completes
+        }
+        try {
+            synchronized (this) {
+                writeBuffer.flip();
+                socket.write(writeBuffer);
+                writeBuffer.compact();
+                if (writeBuffer.position() == 0) {
+                    k.interestOps(SelectionKey.OP_READ);
+                } else {
+                    k.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                }
+            }
+        } catch (IOException ioe) {
+            close();
+        }
+    }
+
+    /**
+     * Close the channel if a request has passed its deadline. Responses are matched to requests by order, so
+     * once a response is missing the channel cannot be trusted. Called on the selector thread.
+     * @param now the current time in milliseconds
+     */
+    void expireRequests(long now) {
+        boolean expired;
+        synchronized (this) {
+            IoTRequest head = pending.peekFirst();
+            expired = head != null && head.getDeadline() < now;
+        }
+        if (expired) {
+            System.out.println("Request to " + address + " timed out");
+            close();
+        }
+    }
+
+    /**
+     * Close the channel and fail all outstanding requests. However many requests were in flight, the close counts
+     * as a single failure of the connection, so one dropped channel does not take the house down.
+     */
+    void close() {
+        List<IoTRequest> failed;
+        synchronized (this) {
+            open = false;
+            failed = new ArrayList<IoTRequest>(pending);
+            pending.clear();
+        }
+        IoTConnection conn = null;
+        for (IoTRequest req : failed) {
+            IoTConnection c = req.abandon();
+            if (c != null) {
+                conn = c;
+            }
+        }
+        if (conn != null) {
+            conn.requestCompleted(false);
+        }
+        connected.countDown();
+
+        SelectionKey k = key;
+        if (k != null) {
+            k.cancel();
+        }
+        try {
+            socket.close();
+        } catch (IOException ioe) {
+            // already closed
+        }
+    }
+}
@@ -1,11 +1,10 @@
 package edu.cmu.iot;
 
-import java.util.Hashtable;
-import java.util.Set;
-import java.util.StringTokenizer;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * Manages connection to the IoT house
+ * Manages connection to the IoT house. No lock is held while talking to the house: each thread encodes and
+ * decodes with its own codec, and the acknowledged state is an immutable snapshot replaced atomically.
  *
  * Project: LG Exec Ed Program
  * Copyright: Copyright (c) 2015 Jeffrey S. Gennari
@@ -13,9 +12,30 @@ import java.util.StringTokenizer;
  * 1.0 November 2015 - initial version
  */
 public class IoTConnectManager {
+
+    /** Notified of the state a subscribed house pushes */
+    public interface StateListener {
+        /**
+         * The house reported a change. Called on the selector thread, so implementations must not block.
+         * @param state the fields reported by the house
+         */
+        void stateReceived(HouseState state);
+    }
+
     // Connection to the house
     private IoTConnection connection;
 
+    /** a message codec and scratch state for each thread */
+    private static final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    /** the state the house has acknowledged or reported; replaced, never changed */
+    private final AtomicReference<HouseState> acked = new AtomicReference<HouseState>(new HouseState());
+
     /**
      * Set up the connection manager with a connection
      * @param conn the (established) connection
@@ -28,25 +48,46 @@ public class IoTConnectManager {
      * Disconnect from the house
      */
     public void disconnectFromHouse() {
-        connection.disconnect();
+        IoTConnectionPool.getPool().closeConnection(connection);
     }
 
     /**
      * Get the state from the house
      * @return the new state of things
      */
-    public synchronized Hashtable<String,Object> getState() {
+    public HouseState getState() {
+        HouseState state = new HouseState();
+        if (getState(requestState(), state)) {
+            return state;
+        }
+        return null;
+    }
+
+    /**
+     * Request the state from the house without waiting for the response. Other requests may be sent while this
+     * one is outstanding.
+     * @return the outstanding request
+     */
+    public IoTRequest requestState() {
 
         System.out.println("Requesting state");
 
-        synchronized (connection) {
-            String update = connection.sendMessageToHouse(IoTValues.GET_STATE + IoTValues.MSG_END);
-            if (update == null) {
-                return null;
-            }
+        return connection.sendMessageAsync(IoTValues.GET_STATE + IoTValues.MSG_END);
+    }
 
-            return handleStateUpdate(update);
+    /**
+     * Wait for an outstanding state request to complete
+     * @param request the request made by requestState
+     * @param state the state to fill in with the fields reported by the house
+     * @return true if the house reported its state, false otherwise
+     */
+    public boolean getState(IoTRequest request, HouseState state) {
+        String update = request.awaitResponse();
+        if (update == null) {
+            return false;
         }
+
+        return handleStateUpdate(update, state);
     }
 
     /**
@@ -54,224 +95,114 @@ public class IoTConnectManager {
      * @param state the new state
      * @return true if the state was accepted; false otherwise
      */
-    public synchronized Boolean setState(Hashtable<String,Object> state) {
-
-        StringBuffer newState = new StringBuffer();
-        Set<String> keys = state.keySet();
-        int count = 0;
-        for (String key : keys) {
-
-            if (key.equals(IoTValues.DOOR_STATE)) {
-
-                Boolean newDoorState = (Boolean) state.get(key);
-                newState.append(IoTValues.DOOR_STATE);
-                newState.append(IoTValues.PARAM_EQ);
-                if (newDoorState) {
-                    newState.append(IoTValues.DOOR_OPEN);
-                } else {
-                    newState.append(IoTValues.DOOR_CLOSE);
-                }
-                count++;
-                if (count<keys.size()) {
-                    newState.append(IoTValues.PARAM_DELIM);
-                }
-            } else if (key.equals(IoTValues.LIGHT_STATE)) {
-                Boolean newLightState = (Boolean) state.get(key);
-                newState.append(IoTValues.LIGHT_STATE);
-                newState.append(IoTValues.PARAM_EQ);
-                if (newLightState) {
-                    newState.append(IoTValues.LIGHT_ON);
-                } else {
-                    newState.append(IoTValues.LIGHT_OFF);
-                }
-                count++;
-                if (count<keys.size()) {
-                    newState.append(IoTValues.PARAM_DELIM);
-                }
-            } else if (key.equals(IoTValues.LIGHT_STATE)) {
-                Boolean newLightState = (Boolean) state.get(key);
-                newState.append(IoTValues.LIGHT_STATE);
-                newState.append(IoTValues.PARAM_EQ);
-                if (newLightState) {
-                    newState.append(IoTValues.LIGHT_ON);
-                } else {
-                    newState.append(IoTValues.LIGHT_OFF);
-                }
-                count++;
-                if (count<keys.size()) {
-                    newState.append(IoTValues.PARAM_DELIM);
-                }
-            } else if (key.equals(IoTValues.ALARM_STATE)) {
-                Boolean newAlarmState = (Boolean) state.get(key);
-                newState.append(IoTValues.ALARM_STATE);
-                newState.append(IoTValues.PARAM_EQ);
-                if (newAlarmState) {
-                    newState.append(IoTValues.ALARM_ENABLED);
-                } else {
-                    newState.append(IoTValues.ALARM_DISABLED);
-                }
-                count++;
-                if (count<keys.size()) {
-                    newState.append(IoTValues.PARAM_DELIM);
-                }
-            } else if (key.equals(IoTValues.ALARM_STATE)) {
-                Boolean newHumidifierState = (Boolean) state.get(key);
-                newState.append(IoTValues.HUMIDIFIER_STATE);
-                newState.append(IoTValues.PARAM_EQ);
-                if (newHumidifierState) {
-                    newState.append(IoTValues.HUMIDIFIER_ON);
-                } else {
-                    newState.append(IoTValues.HUMIDIFIER_OFF);
-                }
-                count++;
-                if (count<keys.size()) {
-                    newState.append(IoTValues.PARAM_DELIM);
-                }
-            } else if (key.equals(IoTValues.CHILLER_STATE)) {
-                Boolean newChillerState = (Boolean) state.get(key);
-                newState.append(IoTValues.CHILLER_STATE);
-                newState.append(IoTValues.PARAM_EQ);
-                if (newChillerState) {
-                    newState.append(IoTValues.CHILLER_ON);
-                } else {
-                    newState.append(IoTValues.CHILLER_OFF);
-                }
-                count++;
-                if (count<keys.size()) {
-                    newState.append(IoTValues.PARAM_DELIM);
-                }
-            } else if (key.equals(IoTValues.HEATER_STATE)) {
-                Boolean newHeaterState = (Boolean) state.get(key);
-                newState.append(IoTValues.HEATER_STATE);
-                newState.append(IoTValues.PARAM_EQ);
-                if (newHeaterState) {
-                    newState.append(IoTValues.HEATER_ON);
-                } else {
-                    newState.append(IoTValues.HEATER_OFF);
-                }
-                count++;
-                if (count<keys.size()) {
-                    newState.append(IoTValues.PARAM_DELIM);
-                }
-            }
-        }
-
-        //newState.append(IoTValues.MSG_END); // append protocol request terminator
-        StringBuffer msg
-                = new StringBuffer(IoTValues.SET_STATE + IoTValues.MSG_DELIM + newState.toString() + IoTValues.MSG_END);
-        System.out.println("New state: " + msg.toString());
-
-        String response = null;
-        synchronized (connection) {
-            response = connection.sendMessageToHouse(msg.toString());
-        }
+    public Boolean setState(HouseState state) {
+        String response = sendState(state).awaitResponse();
         if (response == null) {
             return false;
         }
         return response.equals(IoTValues.OK);
     }
 
+    /**
+     * Send a state change request to the house without waiting for the response. Other requests may be sent
+     * while this one is outstanding. Only the fields that differ from the state the house last acknowledged or
+     * reported are sent; if nothing changed, no message is sent at all.
+     * @param state the new state
+     * @return the outstanding request; the state was accepted if the response is OK
+     */
+    public IoTRequest sendState(HouseState state) {
+        int changed;
+        HouseState previous;
+        HouseState next;
+        do {
+            previous = acked.get();
+            changed = state.changedFrom(previous) & HouseState.SETTABLE;
+            if (changed == 0) {
+                return IoTRequest.completed(IoTValues.OK); // the house is already in this state
+            }
+            // assume the house accepts the change so that the next update does not send it again
+            next = previous.copy();
+            next.merge(state, changed);
+        } while (!acked.compareAndSet(previous, next));
+        final int fields = changed;
+
+        CharSequence msg = scratch.get().codec.encode(state, fields);
+        System.out.println("New state: " + msg);
+
+        // the message is copied into the connection buffer before the codec is used again
+        IoTRequest request = connection.sendMessageAsync(msg);
+
+        request.setCallback(new IoTRequest.Callback() {
+            @Override
+            public void requestCompleted(String response) {
+                if (response == null || !response.equals(IoTValues.OK)) {
+                    // the house may not have the new state; send these fields again next time
+                    HouseState previous;
+                    HouseState next;
+                    do {
+                        previous = acked.get();
+                        next = previous.copy();
+                        next.remove(fields);
+                    } while (!acked.compareAndSet(previous, next));
+                }
+            }
+        });
+        return request;
+    }
+
+    /**
+     * Ask the house to push a state update whenever a sensor changes. Older houses do not know the subscribe
+     * request and answer with something other than OK; those must still be polled.
+     * @param listener notified of each pushed state
+     * @return the outstanding request; the house will push updates if the response is OK
+     */
+    public IoTRequest subscribe(final StateListener listener) {
+        connection.setUpdateListener(new IoTConnection.UpdateListener() {
+            @Override
+            public void updateReceived(String update) {
+                HouseState state = new HouseState();
+                if (handleStateUpdate(update, state)) {
+                    listener.stateReceived(state);
+                }
+            }
+        });
+        return connection.subscribe(IoTValues.SUBSCRIBE + IoTValues.MSG_END);
+    }
+
     /**
      * Process the new state reported by the house
      * @param stateUpdateMsg the new state message
-     * @return the new state
+     * @param state the state to fill in
+     * @return true if the message was a valid state update, false otherwise
      */
-    private Hashtable<String,Object> handleStateUpdate(String stateUpdateMsg) {
-
+    boolean handleStateUpdate(String stateUpdateMsg, HouseState state) {
 
         if (stateUpdateMsg == null) {
-            return null;
+            return false;
         }
         if (stateUpdateMsg.length() == 0) {
-            return null;
-        }
-
-        //System.out.println("State Update: " + msg);
-        Hashtable<String,Object> state = new Hashtable<String, Object>();
-
-        String[] req = stateUpdateMsg.split(IoTValues.MSG_DELIM);
-
-        // invalid state update
-        if (req.length != 2) {
-            return null;
-        }
-        // is this a state update
-        String cmd = req[0];
-        String body = req[1];
-
-        if (!cmd.equals(IoTValues.STATE_UPDATE)) { // only message that comes from house
-            return null;
+            return false;
         }
 
-        if (String.valueOf(body.charAt(body.length()-1)).equals(IoTValues.MSG_END)) {
-            body = body.substring(0, body.length() - 1);
-        }
-        if (body==null) {
-            return null;
+        Scratch sc = scratch.get();
+        sc.incoming.clear();
+        if (!sc.codec.decode(stateUpdateMsg, sc.incoming)) {
+            return false; // only state updates come from the house
         }
-        StringTokenizer pt = new StringTokenizer(body, IoTValues.PARAM_DELIM);
-
-        // process the new state
-        while (pt.hasMoreTokens()) {
-            String param = pt.nextToken();
-            String data[] = param.split(IoTValues.PARAM_EQ);
-            Integer val = Integer.parseInt(data[1]);
-
-            if (data[0].equals(IoTValues.LIGHT_STATE)) {
-                if (val == 1) {
-                    state.put(IoTValues.LIGHT_STATE, true);
-                } else {
-                    state.put(IoTValues.LIGHT_STATE, false);
-                }
-            } else if (data[0].equals(IoTValues.ALARM_STATE)) {
-                if (val == 1) {
-                    state.put(IoTValues.ALARM_STATE, true);
-                } else {
-                state.put(IoTValues.ALARM_STATE, false);
-                }
-            } else if (data[0].equals(IoTValues.DOOR_STATE)) {
-                if (val == 1) {
-                    state.put(IoTValues.DOOR_STATE, true);
-                } else {
-                    state.put(IoTValues.DOOR_STATE, false);
-                }
-            }  else if (data[0].equals(IoTValues.HUMIDIFIER_STATE)) {
-                if (val == 1) {
-                    state.put(IoTValues.HUMIDIFIER_STATE, true);
-                } else {
-                    state.put(IoTValues.HUMIDIFIER_STATE, false);
-                }
-            } else if (data[0].equals(IoTValues.PROXIMITY_STATE)) {
-                if (val == 1) {
-                    state.put(IoTValues.PROXIMITY_STATE, true);
-                } else {
-                    state.put(IoTValues.PROXIMITY_STATE, false);
-                }
-            } else if (data[0].equals(IoTValues.HEATER_STATE)) {
-                if (val == 1) {
-                    state.put(IoTValues.HEATER_ON, true);
-                } else {
-                    state.put(IoTValues.HEATER_OFF, false);
-                }
-            } else if (data[0].equals(IoTValues.CHILLER_STATE)) {
-                if (val == 1) {
-                    state.put(IoTValues.CHILLER_ON, true);
-                } else {
-                    state.put(IoTValues.CHILLER_OFF, false);
-                }
-            } else if (data[0].equals(IoTValues.TEMP_READING)) {
-                state.put(IoTValues.TEMP_READING, val);
-            } else if (data[0].equals(IoTValues.HUMIDITY_READING)) {
-                state.put(IoTValues.HUMIDITY_READING, val);
-            } else if (data[0].equals(IoTValues.HVAC_MODE)) {
-                if (val == 1) {
-                    state.put(IoTValues.HVAC_MODE, "Heater");
-                } else {
-                    state.put(IoTValues.HVAC_MODE, "Chiller");
-                }
+        state.merge(sc.incoming, HouseState.ALL);
+
+        // what the house reports is what it has
+        HouseState previous;
+        HouseState next;
+        do {
+            previous = acked.get();
+            if ((sc.incoming.changedFrom(previous) & HouseState.SETTABLE) == 0) {
+                break; // nothing new; the common case for a steady house
             }
-        }
-        return state;
+            next = previous.copy();
+            next.merge(sc.incoming, HouseState.SETTABLE);
+        } while (!acked.compareAndSet(previous, next));
+        return true;
     }
 
     /**
@@ -284,4 +215,23 @@ public class IoTConnectManager {
         }
         return false;
     }
+
+    /**
+     * Get the health of the connection to the house
+     * @return the health, or DOWN if there is no connection
+     */
+    public IoTConnection.Health getHealth() {
+        if (connection != null) {
+            return connection.getHealth();
+        }
+        return IoTConnection.Health.DOWN;
+    }
+
+    /**
+     * A codec and the state it decodes into, used by one thread
+     */
+    private static class Scratch {
+        final IoTStateCodec codec = new IoTStateCodec();
+        final HouseState incoming = new HouseState();
+    }
 }
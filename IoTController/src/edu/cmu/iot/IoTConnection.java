@@ -1,9 +1,7 @@
 package edu.cmu.iot;
 
-import java.io.*;
-import java.net.Socket;
+import java.io.IOException;
 import java.net.UnknownHostException;
-import java.util.Hashtable;
 
 /**
  * A connection to an IoT-enabled house. This class handles the network connection to the house
@@ -14,20 +12,86 @@ import java.util.Hashtable;
  * 1.0 November 2015 - initial version
  */
 public class IoTConnection {
-    private Boolean isConnected = false;
+
+    /** The health of the connection, as seen by the controller */
+    public enum Health {
+        /** not yet contacted */
+        UNKNOWN,
+        /** the last exchange with the house succeeded */
+        HEALTHY,
+        /** recent exchanges with the house have failed */
+        DEGRADED,
+        /** the house cannot be reached */
+        DOWN
+    }
+
+    /** Notified of state updates the house sends without being asked */
+    public interface UpdateListener {
+        /**
+         * The house pushed a state update. Called on the selector thread, so implementations must not block.
+         * @param update the state update message
+         */
+        void updateReceived(String update);
+    }
+
+    /** the number of consecutive failures after which a house is considered down */
+    private static final int MAX_FAILURES = 3;
+
+    /** the delay (in milliseconds) before the first attempt to reopen a dropped channel */
+    private static final long MIN_RECONNECT_DELAY = 1000;
+
+    /** the longest delay (in milliseconds) between attempts to reopen a dropped channel */
+    private static final long MAX_RECONNECT_DELAY = 30 * 1000;
+
+    /** the default time (in milliseconds) to wait for the house to accept a connection */
+    public static final long CONNECT_TIMEOUT = 5000;
+
+    /** the default time (in milliseconds) to wait for the house to respond to a request */
+    public static final long REQUEST_TIMEOUT = 5000;
+
+    /** true from connect until disconnect; a house that is down stays connected and its channel is reopened */
+    private volatile Boolean isConnected = false;
 
     /** connection settings */
     private String address = null;
 
     private final Integer PORT = 5050; // the default port for the house
 
-    /** The connection is private so it can be controlled */
-    private static IoTConnection connection = null;
-    private Socket houseSocket=null;
-    private BufferedWriter out=null;
-    private BufferedReader in = null;
+    /** the non-blocking channel to the house */
+    private volatile IoTChannel channel = null;
+
+    /** the time (in milliseconds) to wait for a response */
+    private volatile long requestTimeout = REQUEST_TIMEOUT;
+
+    /** true if several requests may be outstanding at once */
+    private volatile boolean pipelined = true;
+
+    /** notified of pushed state updates, may be null */
+    private volatile UpdateListener updateListener = null;
+
+    /** the subscribe message, sent again when the channel is reopened; null if not subscribed */
+    private volatile String subscribeMessage = null;
 
-    private IoTConnection() { }
+    /** serializes round-trips when pipelining is off */
+    private final Object roundTripLock = new Object();
+
+    /** connection health tracking */
+    private volatile long lastUsed;
+    private volatile long lastContact = 0;
+    private volatile int failures = 0; // updated by the selector thread and callers
+
+    /** reconnect backoff; reset by the selector thread when the house responds */
+    private volatile long reconnectDelay = MIN_RECONNECT_DELAY;
+    private volatile long nextReconnect = 0;
+
+    /**
+     * Connections are made through the connection pool
+     * @param addr the house address
+     */
+    IoTConnection(String addr) {
+        address = addr;
+        lastUsed = System.currentTimeMillis();
+    }
 
     /**
      * Get the house address
@@ -38,101 +102,264 @@ public class IoTConnection {
     }
 
     /**
-     * Get an existing connection, or make a new one
+     * Get an existing connection, or make a new one. Connections are held in the shared connection pool, so
+     * connecting to one house does not disconnect from another.
      * @param addr the house address
      * @return the established connection or null
      */
     public static IoTConnection getConnection(String addr) {
-        if (addr!=null) {
-            if (connection != null) {
-                if (connection.isConnected()) {
-                    if (connection.getAddress().equals(addr)) {
-                        return connection; // already connected to this house
-                    } else {
-                        connection.disconnect(); // connect to new house
-                        connection.connect(addr);
-                    }
-                } else {
-                    connection.connect(addr); // connect to house
-                }
-            } else {
-                // first connection
-                connection = new IoTConnection();
-                connection.connect(addr);
-            }
+        return IoTConnectionPool.getPool().getConnection(addr);
+    }
+
+    /**
+     * Get the health of the connection
+     * @return the connection health
+     */
+    public Health getHealth() {
+        if (failures >= MAX_FAILURES) {
+            return Health.DOWN;
+        }
+        if (failures > 0) {
+            return Health.DEGRADED;
         }
-        // invalid address - return current connection
-        if (connection.isConnected()) {
-            return connection;
+        if (lastContact == 0) {
+            return Health.UNKNOWN;
         }
-        return null;
+        return Health.HEALTHY;
+    }
+
+    /**
+     * Get the time the connection was last used
+     * @return the time in milliseconds
+     */
+    public long getLastUsed() {
+        return lastUsed;
+    }
+
+    /**
+     * Get the time of the last successful exchange with the house
+     * @return the time in milliseconds, or 0 if the house has never responded
+     */
+    public long getLastContact() {
+        return lastContact;
     }
 
     /**
-     * Get connection state
-     * @return true if connected, false otherwise
+     * Get connection state. A connection stays connected while the house is down, so check the health to find
+     * out if the house can be reached.
+     * @return true if connected, false once disconnected
      */
     public Boolean isConnected() {
         return isConnected;
     }
 
+    /**
+     * Set the time to wait for the house to respond. A house that misses the deadline is disconnected and
+     * reconnected on the next request.
+     * @param timeout the timeout in milliseconds
+     */
+    public void setRequestTimeout(long timeout) {
+        requestTimeout = timeout;
+    }
+
+    /**
+     * Turn request pipelining on or off. When pipelining is on, several requests may be outstanding on the
+     * connection and the responses are matched to requests in order. When it is off, each request waits for the
+     * previous response before it is sent.
+     * @param p true to pipeline requests
+     */
+    public void setPipelined(boolean p) {
+        pipelined = p;
+    }
+
+    /**
+     * Set the listener for state updates the house pushes
+     * @param listener the listener, or null to ignore pushed updates
+     */
+    public void setUpdateListener(UpdateListener listener) {
+        updateListener = listener;
+    }
+
+    /**
+     * Ask the house to push state updates. The subscription is renewed whenever the connection is reopened.
+     * @param msg the subscribe message
+     * @return the outstanding request; the house accepted the subscription if the response is OK
+     */
+    public IoTRequest subscribe(String msg) {
+        subscribeMessage = msg;
+        return sendMessageAsync(msg);
+    }
+
+    /**
+     * The house pushed a state update. A push counts as contact with the house.
+     * @param update the state update message
+     */
+    void updateReceived(String update) {
+        requestCompleted(true);
+        UpdateListener listener = updateListener;
+        if (listener != null) {
+            listener.updateReceived(update);
+        }
+    }
+
     /**
      * Send a message to the house and get a response
      * @param msg the message to send
-     * @return the response
+     * @return the response, or null if the house did not respond in time
      */
     public String sendMessageToHouse(String msg) {
-        try {
-
-            out.write(msg, 0, msg.length());
-            out.flush();
+        if (pipelined) {
+            return sendMessageAsync(msg).awaitResponse();
+        }
+        synchronized (roundTripLock) {
+            return sendMessageAsync(msg).awaitResponse();
+        }
+    }
 
-            return in.readLine();
+    /**
+     * Send a message to the house without waiting for the response
+     * @param msg the message to send
+     * @return the outstanding request; its response is null if the house did not respond in time
+     */
+    public IoTRequest sendMessageAsync(CharSequence msg) {
+        lastUsed = System.currentTimeMillis();
 
-        } catch (IOException ioe) {
-            //ioe.printStackTrace();
+        IoTChannel ch = channel;
+        if (isConnected && (ch == null || ch.isClosed())) {
+            // the channel was dropped after a timeout or by the house - reconnect
+            ch = reopenChannel();
+        }
+        if (!isConnected || ch == null) {
+            IoTRequest failed = new IoTRequest(0, this);
+            failed.complete(null);
+            return failed;
         }
-        return null;
+        return ch.send(msg, requestTimeout, this);
     }
 
     /**
-     * Disconnect from the house
+     * Record the outcome of a request. After too many failures in a row the house is down: the channel is
+     * dropped, and the next request reopens it once the reconnect backoff has passed.
+     * @param success true if the house responded, false otherwise
      */
-    public void disconnect() {
-        if (houseSocket!=null) {
-            if (houseSocket.isConnected()) {
-                try {
-                    houseSocket.close();
-                } catch (IOException e) {
-
+    void requestCompleted(boolean success) {
+        if (success) {
+            lastContact = System.currentTimeMillis();
+            failures = 0;
+            if (nextReconnect != 0) {
+                reconnectDelay = MIN_RECONNECT_DELAY;
+                nextReconnect = 0;
+            }
+        } else {
+            failures++;
+            if (failures == MAX_FAILURES) {
+                System.out.println("House " + address + " is down, reconnecting");
+                IoTChannel ch = channel;
+                if (ch != null) {
+                    ch.close();
                 }
             }
         }
+    }
+
+    /**
+     * Disconnect from the house
+     */
+    public void disconnect() {
         isConnected = false;
+        IoTChannel ch = channel;
+        if (ch != null) {
+            ch.close();
+        }
     }
 
     /**
      * Connect to the house
-     * @param addr the address of the house
      * @return true if connection successful, false otherwise
      */
-    private Boolean connect(String addr) {
-        address = addr;
+    synchronized Boolean connect() {
+        if (isConnected) {
+            return true;
+        }
+        lastUsed = System.currentTimeMillis();
 
-        try {
-            houseSocket = new Socket(address, PORT);
+        if (openChannel(true) == null) {
+            failures = MAX_FAILURES;
+            return false;
+        }
+        failures = 0;
+        isConnected = true;
+        return true;
+    }
+
+    /**
+     * Mark a connection that was disconnected as connected again, without waiting for the house. The channel is
+     * opened by the next request.
+     */
+    void resume() {
+        isConnected = true;
+    }
 
-            out = new BufferedWriter(new OutputStreamWriter(houseSocket.getOutputStream()));
-            in = new BufferedReader(new InputStreamReader( houseSocket.getInputStream()));
+    /**
+     * Replace a dropped channel without waiting for the house to accept; requests queue on the new channel until
+     * it connects. Only one thread reconnects; the others use the new channel. Until the house responds on the
+     * new channel, it is not reopened again for a while, doubling each time up to MAX_RECONNECT_DELAY, so a house
+     * that is down is not hammered with connects.
+     * @return the channel, or null if the house could not be reached or the backoff has not passed
+     */
+    private synchronized IoTChannel reopenChannel() {
+        IoTChannel ch = channel;
+        if (ch != null && !ch.isClosed()) {
+            return ch;
+        }
+        long now = System.currentTimeMillis();
+        if (now < nextReconnect) {
+            return null;
+        }
+        long delay = reconnectDelay;
+        nextReconnect = now + delay;
+        reconnectDelay = Math.min(delay * 2, MAX_RECONNECT_DELAY);
 
+        ch = openChannel(false);
+        String subscribe = subscribeMessage;
+        if (ch != null && subscribe != null) {
+            // the house forgets the subscription when the connection drops
+            ch.send(subscribe, requestTimeout, this);
+        }
+        return ch;
+    }
+
+    /**
+     * Open a new channel to the house. An address of the form host:port names a house on another port.
+     * @param wait true to wait for the house to accept the connection
+     * @return the channel, or null if the house could not be reached
+     */
+    private IoTChannel openChannel(boolean wait) {
+        String host = address;
+        int port = PORT;
+        int colon = address.lastIndexOf(':');
+        if (colon > 0 && address.indexOf(':') == colon) { // IPv6 addresses have several colons
+            try {
+                port = Integer.parseInt(address.substring(colon + 1));
+                host = address.substring(0, colon);
+            } catch (NumberFormatException nfe) {
+                // not a port; use the whole address
+            }
+        }
+        try {
+            IoTSelector selector = IoTSelector.getSelector();
+            IoTChannel ch = wait ? selector.connect(host, port, CONNECT_TIMEOUT) : selector.open(host, port);
+            if (ch != null) {
+                ch.setOwner(this);
+            }
+            channel = ch;
         } catch (UnknownHostException uhe) {
             System.out.println("Unknown host: " + address);
-            return false;
+            channel = null;
         } catch (IOException ioe){
-            return false;
+            channel = null;
         }
-        isConnected = true;
-        return true;
+        return channel;
     }
 
 }
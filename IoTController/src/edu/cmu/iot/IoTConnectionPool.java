@@ -0,0 +1,239 @@
+package edu.cmu.iot;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A registry of house connections keyed by house address. The pool keeps many connections open at once so that a
+ * single controller can supervise more than one house. Connections that have not been used for a while are closed,
+ * and the number of connections is capped so that a large fleet cannot exhaust the available sockets.
+ *
+ * Project: LG Exec Ed Program
+ * Copyright: Copyright (c) 2015 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 October 2026 - initial version
+ */
+public class IoTConnectionPool {
+
+    /** the default maximum number of house connections */
+    public static final int DEFAULT_MAX_CONNECTIONS = 1024;
+
+    /** the default time (in milliseconds) after which an unused connection is closed */
+    public static final long DEFAULT_IDLE_TIMEOUT = 10 * 60 * 1000;
+
+    /** the pool shared by the controller */
+    private static IoTConnectionPool sharedPool = null;
+
+    /** the connections, ordered from least to most recently used */
+    private final LinkedHashMap<String, IoTConnection> connections;
+
+    /** the maximum number of connections held by the pool */
+    private int maxConnections;
+
+    /** the idle time (in milliseconds) after which a connection is closed */
+    private long idleTimeout;
+
+    /**
+     * Create a new pool
+     * @param max the maximum number of connections
+     * @param idle the idle timeout in milliseconds
+     */
+    public IoTConnectionPool(int max, long idle) {
+        connections = new LinkedHashMap<String, IoTConnection>(16, 0.75f, true);
+        maxConnections = max;
+        idleTimeout = idle;
+    }
+
+    /**
+     * Get the pool shared by the controller
+     * @return the shared pool
+     */
+    public static synchronized IoTConnectionPool getPool() {
+        if (sharedPool == null) {
+            sharedPool = new IoTConnectionPool(DEFAULT_MAX_CONNECTIONS, DEFAULT_IDLE_TIMEOUT);
+        }
+        return sharedPool;
+    }
+
+    /**
+     * Get an existing connection to a house, or make a new one. Connecting happens outside of the pool lock so
+     * that an unreachable house does not hold up connections to other houses.
+     *
+     * @param addr the house address
+     * @return the established connection or null if the house could not be reached or the pool is full
+     */
+    public IoTConnection getConnection(String addr) {
+        IoTConnection conn = pooledConnection(addr);
+        if (conn != null && (conn.isConnected() || conn.connect())) {
+            return conn;
+        }
+        return null;
+    }
+
+    /**
+     * Get the connection to a house that was connected before, without waiting for the house. The connection
+     * opens its channel on the next request, and backs off while the house cannot be reached.
+     *
+     * @param addr the house address
+     * @return the connection, or null if the pool is full
+     */
+    public IoTConnection reopenConnection(String addr) {
+        IoTConnection conn = pooledConnection(addr);
+        if (conn != null) {
+            conn.resume();
+        }
+        return conn;
+    }
+
+    /**
+     * Find the connection to a house in the pool, adding a new one if there is none
+     * @param addr the house address
+     * @return the connection, which may not be connected, or null if the pool is full
+     */
+    private IoTConnection pooledConnection(String addr) {
+        if (addr == null) {
+            return null;
+        }
+
+        IoTConnection conn;
+        synchronized (this) {
+            evictIdleConnections();
+
+            conn = connections.get(addr);
+            if (conn == null) {
+                if (connections.size() >= maxConnections && !evictEldest()) {
+                    System.out.println("Connection pool full, cannot connect to " + addr);
+                    return null;
+                }
+                conn = new IoTConnection(addr);
+                connections.put(addr, conn);
+            }
+        }
+        return conn;
+    }
+
+    /**
+     * Close a connection and remove it from the pool. If the pool has since replaced it with a newer connection
+     * to the same house, the newer one is left alone.
+     * @param conn the connection
+     */
+    public void closeConnection(IoTConnection conn) {
+        synchronized (this) {
+            if (connections.get(conn.getAddress()) == conn) {
+                connections.remove(conn.getAddress());
+            }
+        }
+        conn.disconnect();
+    }
+
+    /**
+     * Close every connection in the pool
+     */
+    public void closeAll() {
+        List<IoTConnection> closing;
+        synchronized (this) {
+            closing = new ArrayList<IoTConnection>(connections.values());
+            connections.clear();
+        }
+        for (IoTConnection conn : closing) {
+            conn.disconnect();
+        }
+    }
+
+    /**
+     * Close connections that have not been used within the idle timeout. Connections that are no longer
+     * connected are dropped as well.
+     *
+     * @return the number of connections removed
+     */
+    public synchronized int evictIdleConnections() {
+        long now = System.currentTimeMillis();
+        int evicted = 0;
+
+        Iterator<IoTConnection> it = connections.values().iterator();
+        while (it.hasNext()) {
+            IoTConnection conn = it.next();
+            if (now - conn.getLastUsed() > idleTimeout) {
+                conn.disconnect();
+                it.remove();
+                evicted++;
+            } else if (conn.isConnected() == false && conn.getHealth() == IoTConnection.Health.DOWN) {
+                it.remove();
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Make room for a new connection by closing the least recently used one, but only if it is not connected
+     * or has been unused for at least half the idle timeout. Active houses are never evicted to make room.
+     *
+     * @return true if a connection was removed, false otherwise
+     */
+    private boolean evictEldest() {
+        Iterator<Map.Entry<String, IoTConnection>> it = connections.entrySet().iterator();
+        if (it.hasNext()) {
+            IoTConnection eldest = it.next().getValue();
+            if (eldest.isConnected() == false
+                    || System.currentTimeMillis() - eldest.getLastUsed() > idleTimeout / 2) {
+                eldest.disconnect();
+                it.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the health of the connection to a house
+     * @param addr the house address
+     * @return the health of the connection, or null if the pool does not know the house
+     */
+    public synchronized IoTConnection.Health getHealth(String addr) {
+        IoTConnection conn = connections.get(addr);
+        if (conn == null) {
+            return null;
+        }
+        return conn.getHealth();
+    }
+
+    /**
+     * Get the health of every house known to the pool
+     * @return house address mapped to connection health
+     */
+    public synchronized Map<String, IoTConnection.Health> getHealth() {
+        Map<String, IoTConnection.Health> health = new LinkedHashMap<String, IoTConnection.Health>();
+        for (Map.Entry<String, IoTConnection> entry : connections.entrySet()) {
+            health.put(entry.getKey(), entry.getValue().getHealth());
+        }
+        return health;
+    }
+
+    /**
+     * Get the number of connections held by the pool
+     * @return the number of connections
+     */
+    public synchronized int size() {
+        return connections.size();
+    }
+
+    /**
+     * Set the maximum number of connections
+     * @param max the maximum number of connections
+     */
+    public synchronized void setMaxConnections(int max) {
+        maxConnections = max;
+    }
+
+    /**
+     * Set the idle timeout
+     * @param idle the idle timeout in milliseconds
+     */
+    public synchronized void setIdleTimeout(long idle) {
+        idleTimeout = idle;
+    }
+}
@@ -2,10 +2,12 @@ package edu.cmu.iot;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Controls the state of the IoT house. This class manages house state; it is the focal point for changing settings
- * adding users, and ensuring that the house remains in a consistent state
+ * adding users, and ensuring that the house remains in a consistent state. The house state is only changed by
+ * events run on the house event loop; other threads post events and read immutable snapshots.
  *
  * Project: LG Exec Ed Program
  * Copyright: 2015 Jeffrey S. Gennari
@@ -15,48 +17,146 @@ import java.util.*;
 public class IoTControlManager {
 
     /** connection to the house */
-    private IoTConnectManager connMgr;
+    private volatile IoTConnectManager connMgr;
+
+    /** Notified of every evaluation, for replays and monitoring */
+    public interface EvaluationListener {
+        /**
+         * A state was evaluated. Called on the house event loop, so implementations must not block.
+         * @param source who asked for the change, one of the IoTJournal SOURCE values
+         * @param requested the state that was asked for
+         * @param result the state after the rules ran; only valid during the call
+         * @param firedRules the rules that fired, one bit per rule index
+         */
+        void stateEvaluated(byte source, HouseState requested, HouseState result, long firedRules);
+    }
+
+    /** Notified when one submitted state change has been evaluated and sent to the house */
+    public interface StateUpdateCallback {
+        /**
+         * The change was evaluated. Called on the house event loop, so implementations must not block.
+         * @param result a copy of the state after the rules ran
+         * @param firedRules the rules that fired, one bit per rule index
+         * @param sent the request that carries the new state to the house; it completes with OK once the house
+         *             accepts the state
+         */
+        void stateUpdated(HouseState result, long firedRules, IoTRequest sent);
+    }
 
     /** reference to main window*/
-    private IoTControlWindow controlWindow;
+    private IoTControlView controlWindow;
+
+    /** notified of every evaluation, null if none */
+    private volatile EvaluationListener evaluationListener = null;
+
+    /** runs every change to the house state, one at a time */
+    private final IoTEventLoop eventLoop = new IoTEventLoop();
+
+    /** the current state of the house, including the user-desired temperature setting; only used on the loop */
+    private final HouseState currentState = new HouseState();
+
+    /** the last evaluated state - used to detect change and revert to a good state; only used on the loop */
+    private final HouseState lastState = new HouseState();
+
+    /** the last evaluated state published to other threads; the published state is never changed */
+    private final AtomicReference<HouseState> snapshot = new AtomicReference<HouseState>(new HouseState());
+
+    /** the house policy */
+    private volatile IoTRuleSet rules = IoTRuleSet.getDefault();
 
-    /** current state variables */
+    /** carries out the rule actions that need the controller */
+    private final IoTRuleSet.Actions ruleActions = new IoTRuleSet.Actions() {
+        @Override
+        public void log(String msg) {
+            logMessages.add(msg);
+        }
+
+        @Override
+        public void startAwayTimer() {
+            IoTControlManager.this.startAwayTimer();
+        }
+
+        @Override
+        public void cancelAwayTimer() {
+            IoTControlManager.this.cancelAwayTimer();
+        }
+    };
 
-    private Integer tempReading;         // the current temperature
-    private Integer humidityReading;     // the current humidity
-    private Boolean newDoorState;        // the state of the door (true if open, false if closed)
-    private Boolean newLightState;       // the state of the light (true if on, false if off)
-    private Boolean newProximityState;   // the state of the proximity sensor (true of house occupied, false if vacant)
-    private Boolean newAlarmState;       // the alarm state (true if enabled, false if disabled)
-    private Boolean newHumidifierState;  // the humidifier state (true if on, false if off)
-    private Boolean newHeaterOnState;    // the heater state (true if on, false if off)
-    private Boolean newChillerOnState;   // the chiller state (true if on, false if off)
-    private Boolean newAlarmActiveState; // the alarm active state (true if alarm sounding, false if alarm not sounding)
-    private String newHvacSetting;       // the HVAC mode setting, either Heater or Chiller
+    /** the address of the connected house */
+    private volatile String houseAddress = null;
 
+    /** the journal of evaluations for the connected house, null if none; only used on the loop */
+    private IoTJournal journal = null;
 
-    /** previous values of state variables - used to detect change and revert to a good state */
-    private Boolean oldDoorState, oldLightState,
-            oldProximityState, oldAlarmState, oldHumidifierState,
-            oldHeaterOnState, oldChillerOnState, oldAlarmActiveState;
-    private String oldHvacSetting;
+    /** the rules of the last evaluation, for the journal; only used on the loop */
+    private IoTRuleSet evaluatedRules = null;
 
-    private Integer targetTempSetting;   // the user-desired temperature setting
+    /** the readings reported by the connected house */
+    private final IoTReadingStore readings = new IoTReadingStore();
+
+    /** the pending away timer, null if none; only used on the loop */
+    private IoTTimerWheel.Timeout awayTimer = null;
+
+    /** the user settings, shared by every controller using the settings directory */
+    private final IoTSettingsStore settingsStore;
+
+    /** applies settings and rules changes to this house */
+    private final IoTSettingsStore.Listener settingsListener = new IoTSettingsStore.Listener() {
+        @Override
+        public void settingsChanged(IoTSettings settings) {
+            controlWindow.updateLog("Settings changed, alarm delay is " + settings.getAlarmDelay() + "s");
+        }
 
-    /** the given alarm passcode */
-    private String alarmPassCode;
+        @Override
+        public void rulesChanged(String fileName) {
+            String address = houseAddress;
+            if (address == null) {
+                return;
+            }
+            String houseFile = "rules-" + address + ".txt";
+            if (fileName == null || fileName.equals(houseFile) || (fileName.equals(IoTValues.RULES_FILE)
+                    && !new File(settingsPath + File.separator + houseFile).exists())) {
+                // a bad edit keeps the rules in use rather than dropping the house back to the defaults
+                IoTRuleSet ruleSet;
+                try {
+                    ruleSet = IoTRuleSet.load(settingsPath, address);
+                } catch (Exception e) {
+                    controlWindow.updateLog("Cannot reload rules, keeping the rules from " + rules.getSource() + ": "
+                            + e.getMessage());
+                    return;
+                }
+                rules = ruleSet;
+                controlWindow.updateLog("Loaded rules from " + ruleSet.getSource());
+            }
+        }
+    };
 
-    /** the user settings */
-    private Hashtable<String, Object> userSettings;
+    /** true once the controller listens for settings changes */
+    private boolean listening = false;
 
     /** the path to user settings and credentials */
     private String settingsPath;
 
-    /**  the log messages */
-    private Vector<String> logMessages;
+    /** the registered users */
+    private final IoTCredentialStore credentials;
+
+    /**  the log messages of the evaluation in progress; only used on the loop */
+    private final List<String> logMessages = new ArrayList<String>();
+
+    /** the scheduled polls of the house */
+    private IoTPoller.Handle pollHandle = null;
+
+    /** decides how often the house is polled and when contact is lost */
+    private final IoTPollPolicy pollPolicy = new IoTPollPolicy();
+
+    /** the state last reported by the house; replaced, never changed, so polls and pushes need no lock */
+    private final AtomicReference<HouseState> lastReported = new AtomicReference<HouseState>(new HouseState());
+
+    /** true once loss of contact has been reported */
+    private volatile boolean contactLost = false;
 
-    /** Thread to manage state updates */
-    private Thread updateThread = null;
+    /** true while the house is being polled; a poll must not reconnect a house that was disconnected */
+    private volatile boolean polling = false;
 
     /**
      * Constructor for the controller
@@ -64,603 +164,636 @@ public class IoTControlManager {
      * @param controlWin  the window to be managed
      * @param path the path to settings files
      */
-    public IoTControlManager(IoTControlWindow controlWin, String path) {
+    public IoTControlManager(IoTControlView controlWin, String path) {
 
-        logMessages = new Vector<String>();
         controlWindow = controlWin;
 
-        userSettings = new Hashtable<String, Object >();
-
         settingsPath = path;
 
+        settingsStore = IoTSettingsStore.forDirectory(path);
+
+        credentials = new IoTCredentialStore(new File(settingsPath + File.separator + IoTValues.USERS_DB));
+
         connMgr = null;
 
-        newAlarmActiveState = false;
+        currentState.set(HouseState.ALARM_ACTIVE, false);
 
     }
 
     /**
      * Load the registered users from a database (file).
-     * @return the set of valid users
+     * @return the valid users
      */
-    public Vector<UserLoginInfo> loadUsers() {
-        Vector<UserLoginInfo> users = new Vector<UserLoginInfo>();
-
+    public IoTCredentialStore loadUsers() {
         try {
-            File file = new File(settingsPath + File.separator + IoTValues.USERS_DB);
-
-            BufferedReader br = new BufferedReader(new FileReader(file));
-
-            String line;
-            while ((line = br.readLine()) != null) {
-                String [] entry = line.split("=");
-                users.add(new UserLoginInfo(entry[0],entry[1]));
-            }
-        } catch (Exception e) {
+            credentials.load();
+        } catch (IOException e) {
             e.printStackTrace();
         }
-        return users;
+        return credentials;
     }
 
     /**
-     * Load the user preferences from a database (file).
+     * Load the user preferences from a database (file). The file is watched from then on, and changes to it or to
+     * the rules files apply without a restart.
      */
-    public void loadSettings() {
-        Properties props = new Properties();
-        InputStream is = null;
-
-        // First try loading from the current directory
-        try {
-            File f = new File(settingsPath + File.separator + IoTValues.SETTINGS_FILE);
-            is = new FileInputStream( f );
-            props.load( is );
-        } catch ( Exception e ) { e.printStackTrace(); }
-
-        alarmPassCode = props.getProperty(IoTValues.ALARM_PASSCODE, "passcode");
-        Integer alarmDelay = new Integer(props.getProperty(IoTValues.ALARM_DELAY, "5"));
-
-        Hashtable<String, Object> initialSettings = new Hashtable<String, Object>();
-        initialSettings.put(IoTValues.ALARM_DELAY, alarmDelay);
-
-        // update the settings
-        updateSettings(initialSettings);
+    public synchronized void loadSettings() {
+        settingsStore.start();
+        if (!listening) {
+            listening = true;
+            settingsStore.addListener(settingsListener);
+        }
     }
 
     /**
-     * Update user settings (the alarm delay)
+     * Update user settings (the alarm delay). The change applies to every house controlled from the same settings
+     * directory, until the settings file is next changed.
      *
      * @param newSettings the new user settings.
      */
     public void updateSettings(Hashtable<String, Object> newSettings) {
-        if (userSettings!=null) {
-            userSettings.putAll(newSettings);
+        Map<String, String> changes = new HashMap<String, String>();
+        for (Map.Entry<String, Object> e : newSettings.entrySet()) {
+            changes.put(e.getKey(), String.valueOf(e.getValue()));
         }
+        settingsStore.update(changes);
     }
 
     /**
      * Fetch the user settings
-     * @return the user settings
+     * @return a copy of the user settings
      */
     public Hashtable<String, Object> getUserSettings() {
-        return userSettings;
+        IoTSettings settings = settingsStore.get();
+        Hashtable<String, Object> copy = new Hashtable<String, Object>(settings.getValues());
+        copy.put(IoTValues.ALARM_DELAY, settings.getAlarmDelay());
+        return copy;
+    }
+
+    /**
+     * Get the current settings
+     * @return the settings snapshot
+     */
+    public IoTSettings getSettings() {
+        return settingsStore.get();
     }
 
     public void addUser(String newUsername, String newPassword) {
         try {
-            File f = new File(settingsPath + File.separator + IoTValues.USERS_DB);
-            BufferedWriter bw = new BufferedWriter(new FileWriter(f, true));
-            bw.write(newUsername+"="+newPassword + "\n");
-            bw.close();
+            credentials.add(newUsername, newPassword);
             controlWindow.updateLog("Added new user: " + newUsername);
         } catch (Exception e) {e.printStackTrace(); }
     }
 
 
-    private void startHouseUpdateThread() {
-
-        updateThread = new Thread(new Runnable() {
+    /**
+     * Start polling the house for state updates on the shared poller. Any previous polling is stopped.
+     */
+    private void startHouseUpdates() {
+        stopHouseUpdates();
+        pollPolicy.reset();
+        lastReported.set(new HouseState());
+        contactLost = false;
+        polling = true;
+
+        pollHandle = IoTPoller.getPoller().schedule(new IoTPoller.AsyncPollTask() {
             @Override
-            public void run() {
-                Hashtable<String, Object> state = null;
-                Integer missedUpdates = 0;
-                while (true) {
+            public void poll(IoTPoller.Handle handle) {
+                pollHouse(handle);
+            }
+        }, pollPolicy.nextInterval());
+    }
 
-                    synchronized (connMgr) {
-                        if (connMgr.isConnected() == false) {
-                            return;
-                        }
-                        state = connMgr.getState();
-                    }
-                    if (state != null) {
-                        processStateUpdate(state);
-                        missedUpdates=0;
-                        if (controlWindow.isEnabled() == false) {
-                            controlWindow.enableControls();
-                        }
-                    } else {
-                        missedUpdates++;
-                    }
+    /**
+     * Stop polling the house
+     */
+    private void stopHouseUpdates() {
+        polling = false;
+        if (pollHandle != null) {
+            pollHandle.cancel();
+            pollHandle = null;
+        }
+    }
 
-                    if (missedUpdates > 6) { // 6 missed updates is 30 seconds
-                        controlWindow.updateLog("Warning: lost contact with house");
-                        revertToLastState();
-                        if (controlWindow.isEnabled()) {
-                            controlWindow.disableControls();
-                        }
-                    }
+    /**
+     * Poll the house once and process the reported state. The poll only sends the request; the response is
+     * handled on the selector thread and the next poll is scheduled from there, so no poller worker waits for the
+     * house. The time until the next poll depends on how much the house state has been changing. A house that is
+     * down is still polled: its connection reopens the channel with backoff, and a connection the pool has closed
+     * is replaced with a new one from the pool.
+     * @param handle the handle of the polls, told when this poll is done
+     */
+    private void pollHouse(final IoTPoller.Handle handle) {
+        IoTConnectManager mgr = connMgr;
+        if (mgr == null || !polling) {
+            handle.pollCompleted(-1);
+            return;
+        }
+        if (!mgr.isConnected()) {
+            mgr = reconnect();
+            if (mgr == null) {
+                pollFailed(null);
+                handle.pollCompleted(pollPolicy.nextInterval());
+                return;
+            }
+        }
 
-                    // currently a 5sec delay
-                    try { Thread.sleep(5000); } catch (InterruptedException ie) { }
+        final IoTConnectManager polled = mgr;
+        polled.requestState().setCallback(new IoTRequest.Callback() {
+            @Override
+            public void requestCompleted(String response) {
+                HouseState state = new HouseState();
+                if (polled.handleStateUpdate(response, state)) {
+                    stateReported(state);
+                } else {
+                    pollFailed(polled);
                 }
+                handle.pollCompleted(pollPolicy.nextInterval());
             }
         });
-        updateThread.start();
     }
 
     /**
-     * Determine if the new state is feasible. If it is not, then discard the processStateUpdate and/or revert
-     * to safe state
-     * @param newState the new state
+     * A poll got no state from the house. Contact is lost once the house is down or has not been heard from
+     * within the contact timeout.
+     * @param mgr the connection that was polled, or null if there is none
+     */
+    private void pollFailed(IoTConnectManager mgr) {
+        if (!contactLost && (mgr == null || mgr.getHealth() == IoTConnection.Health.DOWN
+                || pollPolicy.isContactLost())) {
+            contactLost();
+        }
+    }
+
+    /**
+     * Get the connection to the house from the pool again, after the pool closed the old one. The house is not
+     * waited for; the connection opens its channel with the next request.
+     * @return the new connection manager, or null if the pool is full
      */
-    public synchronized void processStateUpdate(Hashtable<String, Object> newState) {
+    private IoTConnectManager reconnect() {
+        IoTConnection connection = IoTConnectionPool.getPool().reopenConnection(houseAddress);
+        if (connection == null || !polling) {
+            return null;
+        }
+        IoTConnectManager mgr = new IoTConnectManager(connection);
+        connMgr = mgr;
+        subscribeToHouse();
+        return mgr;
+    }
 
-        synchronized (connMgr) {
-            synchronized(newState) {
+    /**
+     * Report loss of contact with the house once, until it is heard from again. The controls stay disabled
+     * until the next state report.
+     */
+    private void contactLost() {
+        contactLost = true;
+        eventLoop.post(new Runnable() {
+            @Override
+            public void run() {
+                controlWindow.updateLog("Warning: lost contact with house");
+                revertToLastState();
+                controlWindow.disableControls();
+            }
+        });
+    }
 
-                // determine if the new state should be accepted. Make any necessary corrections
-                evaluateNewState(newState);
+    /**
+     * Ask the house to push its state updates. If it agrees, polls become a slow heartbeat; older houses keep
+     * being polled at the normal rate.
+     */
+    private void subscribeToHouse() {
+        IoTRequest request = connMgr.subscribe(new IoTConnectManager.StateListener() {
+            @Override
+            public void stateReceived(HouseState state) {
+                statePushed(state);
+            }
+        });
+        request.setCallback(new IoTRequest.Callback() {
+            @Override
+            public void requestCompleted(String response) {
+                pollPolicy.setSubscribed(IoTValues.OK.equals(response));
+            }
+        });
+    }
 
-                updateInternalState();
+    /**
+     * Process a state update pushed by the house. Called on the selector thread; the update is evaluated on the
+     * house event loop.
+     * @param state the pushed state
+     */
+    private void statePushed(HouseState state) {
+        stateReported(state);
+    }
 
-                // the current state has been evaluated
-                connMgr.setState(getCurrentState());
+    /**
+     * Process a state reported by the house, whether polled or pushed. The poll policy is updated at once, so the
+     * next poll interval reflects this report; the state itself is evaluated on the house event loop.
+     * @param state the reported state
+     */
+    private void stateReported(final HouseState state) {
+        HouseState previous;
+        HouseState merged;
+        do {
+            previous = lastReported.get();
+            merged = previous.copy();
+            merged.merge(state, HouseState.ALL);
+        } while (!lastReported.compareAndSet(previous, merged));
+        pollPolicy.pollSucceeded(state.changedFrom(previous));
+        final boolean regained = contactLost;
+        contactLost = false;
+
+        eventLoop.post(new Runnable() {
+            @Override
+            public void run() {
+                if (regained) {
+                    controlWindow.updateLog("Contact with house restored");
+                }
+                applyStateUpdate(state, IoTJournal.SOURCE_HOUSE, null);
+                // the window applies this only if the controls are disabled
+                controlWindow.enableControls();
             }
-        }
+        });
     }
 
     /**
-     * Get the current state
-     *
-     * @return the current state
-     */
-    private synchronized Hashtable<String,Object> getCurrentState() {
-        Hashtable<String,Object> state = new Hashtable<String, Object>();
-        if (tempReading!=null)
-            state.put(IoTValues.TEMP_READING, tempReading);
-        if (newHumidifierState!=null)
-            state.put(IoTValues.HUMIDIFIER_STATE,newHumidifierState);
-        if (humidityReading!=null)
-            state.put(IoTValues.HUMIDITY_READING,humidityReading);
-        if (newDoorState!=null)
-            state.put(IoTValues.DOOR_STATE,newDoorState);
-        if (newLightState!=null)
-            state.put(IoTValues.LIGHT_STATE,newLightState);
-        if (newProximityState!=null)
-            state.put(IoTValues.PROXIMITY_STATE,newProximityState);
-        if (newAlarmState!=null)
-            state.put(IoTValues.ALARM_STATE,newAlarmState);
-        if (newAlarmActiveState!=null)
-            state.put(IoTValues.ALARM_ACTIVE, newAlarmActiveState);
-        if (newHvacSetting!=null)
-            state.put(IoTValues.HVAC_MODE,newHvacSetting);
-        if (newHeaterOnState!=null)
-            state.put(IoTValues.HEATER_STATE,newHeaterOnState);
-        if (newChillerOnState!=null)
-            state.put(IoTValues.CHILLER_STATE,newChillerOnState);
+     * Determine if the new state is feasible. If it is not, then discard the processStateUpdate and/or revert
+     * to safe state. The state is evaluated on the house event loop, so this returns without waiting.
+     * @param newState the new state; it is copied, so the caller may reuse it
+     */
+    public void processStateUpdate(HouseState newState) {
+        postStateUpdate(newState, IoTJournal.SOURCE_HOUSE, null);
+    }
 
-        return state;
+    /**
+     * Handle a state change requested by the user. The request is evaluated on the house event loop, so the
+     * caller (usually the Swing thread) never waits for the house.
+     * @param newState the requested state
+     */
+    public void submitStateUpdate(HouseState newState) {
+        postStateUpdate(newState, IoTJournal.SOURCE_USER, null);
     }
 
     /**
-     * Issue the processStateUpdate to the house. Save the last state to detect changes
+     * Handle a state change requested by the user and report the outcome. Returns without waiting, as above.
+     * @param newState the requested state
+     * @param callback notified once the change has been evaluated and sent to the house
      */
-    private synchronized void updateInternalState() {
+    public void submitStateUpdate(HouseState newState, StateUpdateCallback callback) {
+        postStateUpdate(newState, IoTJournal.SOURCE_USER, callback);
+    }
 
-        Hashtable<String,Object> state = getCurrentState();
+    /**
+     * Copy a state and evaluate it on the house event loop
+     * @param newState the new state
+     * @param source who asked for the change, for the journal
+     * @param callback notified of the outcome, may be null
+     */
+    private void postStateUpdate(HouseState newState, final byte source, final StateUpdateCallback callback) {
+        final HouseState request = newState.copy();
+        eventLoop.post(new Runnable() {
+            @Override
+            public void run() {
+                applyStateUpdate(request, source, callback);
+            }
+        });
+    }
 
-        if (state.isEmpty() == false) {
-            controlWindow.updateState(state);
-            controlWindow.updateLog(logMessages);
+    /**
+     * Evaluate a state and send the result to the house. Runs on the house event loop.
+     * @param newState the new state
+     * @param source who asked for the change, for the journal
+     * @param callback notified of the outcome, may be null
+     */
+    private void applyStateUpdate(HouseState newState, byte source, StateUpdateCallback callback) {
 
-            saveLastState();
+        // determine if the new state should be accepted. Make any necessary corrections
+        long fired = evaluateNewState(newState);
 
-            logMessages.clear();
+        // the last state is still the one the rules compared against
+        long now = System.currentTimeMillis();
+        writeJournal(now, source, newState, fired);
+        if (source == IoTJournal.SOURCE_HOUSE) {
+            readings.record(now, newState);
+        }
+
+        updateInternalState();
+
+        // the current state has been evaluated. Only the fields the house does not already have are sent, and
+        // requests are pipelined, so the loop does not wait for the house to acknowledge the new state
+        IoTRequest sent = connMgr.sendState(currentState);
+
+        EvaluationListener listener = evaluationListener;
+        if (listener != null) {
+            listener.stateEvaluated(source, newState, currentState, fired);
+        }
+        if (callback != null) {
+            callback.stateUpdated(getCurrentState(), fired, sent);
         }
     }
 
     /**
-     * Save the current state to determine changes
+     * Set the listener notified of every evaluation
+     * @param listener the listener, or null for none
      */
-    private synchronized void saveLastState() {
-
-        if (newProximityState!=null)
-            oldProximityState = newProximityState;
-        if (newHeaterOnState!=null)
-            oldHeaterOnState = newHeaterOnState;
-        if (newChillerOnState!=null)
-            oldChillerOnState = newChillerOnState;
-        if (newHumidifierState!=null)
-            oldHumidifierState = newHumidifierState;
-        if (newAlarmActiveState!=null)
-            oldAlarmActiveState = newAlarmActiveState;
-        if (newDoorState!=null)
-            oldDoorState = newDoorState;
-        if (newLightState!=null)
-            oldLightState = newLightState;
-        if (newAlarmState!=null)
-            oldAlarmState = newAlarmState;
-        if (newHvacSetting!=null)
-            oldHvacSetting = new String(newHvacSetting);
+    public void setEvaluationListener(EvaluationListener listener) {
+        evaluationListener = listener;
     }
 
     /**
-     * Revert to the last known, good state
+     * Record an evaluation in the journal. A journal that cannot be written is closed, so a full disk never stops
+     * the controller. Runs on the house event loop.
+     * @param time the time of the evaluation
+     * @param source who asked for the change
+     * @param requested the state that was asked for
+     * @param fired the rules that fired
      */
-    private synchronized void revertToLastState() {
+    private void writeJournal(long time, byte source, HouseState requested, long fired) {
+        if (journal != null) {
+            try {
+                journal.append(time, source, requested, lastState, currentState, evaluatedRules, fired);
+            } catch (IOException ioe) {
+                System.out.println("Cannot write the journal, journaling stopped: " + ioe.getMessage());
+                journal.close();
+                journal = null;
+            }
+        }
+    }
 
-        if (oldProximityState!=null)
-            newProximityState = oldProximityState;
+    /**
+     * Open the journal for a house and load the readings it holds. Runs on the house event loop.
+     * @param address the house address
+     */
+    private void openJournal(String address) {
+        closeJournal();
+        readings.clear();
+        File dir = new File(settingsPath + File.separator + IoTValues.JOURNAL_DIR + File.separator
+                + address.replaceAll("[^A-Za-z0-9._-]", "_"));
+        try {
+            journal = new IoTJournal(dir);
+            readings.load(new IoTJournalReader(dir));
+        } catch (IOException ioe) {
+            System.out.println("Cannot open the journal " + dir + ": " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Flush and close the journal, if it is open. Runs on the house event loop.
+     */
+    private void closeJournal() {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
 
-        if (oldHeaterOnState!=null)
-            newHeaterOnState = oldHeaterOnState;
+    /**
+     * Get the temperature and humidity readings reported by the connected house
+     * @return the readings
+     */
+    public IoTReadingStore getReadings() {
+        return readings;
+    }
 
-        if (oldChillerOnState!=null)
-            newChillerOnState = oldChillerOnState;
+    /**
+     * Get the last evaluated state of the house. The state is shared and must not be changed.
+     * @return the state snapshot
+     */
+    public HouseState getStateSnapshot() {
+        return snapshot.get();
+    }
 
-        if (oldHumidifierState!=null)
-            newHumidifierState = oldHumidifierState;
+    /**
+     * Get the current state
+     *
+     * @return a copy of the current state
+     */
+    private HouseState getCurrentState() {
+        HouseState state = currentState.copy();
+        state.clearDirty();
+        return state;
+    }
 
-        if (oldAlarmActiveState!=null)
-            newAlarmActiveState = oldAlarmActiveState;
+    /**
+     * Issue the processStateUpdate to the house. Save the last state to detect changes
+     */
+    private void updateInternalState() {
 
-        if (oldDoorState!=null)
-            newDoorState = oldDoorState;
+        // the messages are handed to the window's bounded log whatever happens, so they never pile up here
+        controlWindow.updateLog(logMessages);
+        logMessages.clear();
 
-        if (oldLightState!=null)
-            newLightState = oldLightState;
+        if (currentState.isEmpty() == false) {
+            HouseState published = getCurrentState();
+            snapshot.set(published);
+            controlWindow.updateState(published);
 
-        if (oldAlarmState!=null)
-            newAlarmState = oldAlarmState;
+            saveLastState();
+        }
+    }
 
-        if (oldHvacSetting!=null)
-            newHvacSetting = new String(oldHvacSetting);
+    /**
+     * Save the current state to determine changes
+     */
+    private void saveLastState() {
+        lastState.merge(currentState, HouseState.FLAGS);
+    }
 
+    /**
+     * Revert to the last known, good state
+     */
+    private void revertToLastState() {
+        currentState.merge(lastState, HouseState.FLAGS);
     }
 
     /**
      * Connect to a house
      *
-     * @param houseAddress the network address of the house. Once connected, this method starts a new thread to
-     *                     update house state
+     * @param houseAddress the network address of the house. Once connected, this method schedules polls on the
+     *                     shared poller to update house state
      * @return true if connected, false otherwise
      */
     public Boolean connectToHouse(String houseAddress) {
 
-        connMgr = new IoTConnectManager(IoTConnection.getConnection(houseAddress));
-        if (connMgr != null) {
-            startHouseUpdateThread();
-
+        IoTConnection connection = IoTConnection.getConnection(houseAddress);
+        if (connection != null) {
+            connectToHouse(connection, true);
             return true;
         }
         return false;
     }
 
+    /**
+     * Take over an established connection to a house
+     *
+     * @param connection the connection
+     * @param poll true to poll the house; a replay only gets the updates it pushes
+     */
+    void connectToHouse(IoTConnection connection, boolean poll) {
+        final String address = connection.getAddress();
+        this.houseAddress = address;
+        eventLoop.post(new Runnable() {
+            @Override
+            public void run() {
+                openJournal(address);
+            }
+        });
+        connMgr = new IoTConnectManager(connection);
+        rules = IoTRuleSet.forHouse(settingsPath, address);
+        if (poll) {
+            startHouseUpdates();
+        }
+        subscribeToHouse();
+    }
+
     /**
      * Disconnect from a house
      */
     public void disconnectFromHouse() {
+        stopHouseUpdates();
+        eventLoop.post(new Runnable() {
+            @Override
+            public void run() {
+                cancelAwayTimer();
+                closeJournal();
+            }
+        });
         if (connMgr.isConnected()) {
             connMgr.disconnectFromHouse();
         }
     }
 
     /**
-     * Start a timer when the house becomes unoccupied. When the timer expires, lock the house down
+     * Start a timer when the house becomes unoccupied. When the timer expires, lock the house down. A timer that
+     * is already running is restarted, so the delay counts from the latest departure. Runs on the house event loop.
      */
     private void startAwayTimer() {
-        Timer t = new Timer();
+        int awayTimeout = settingsStore.get().getAlarmDelay();
+
+        cancelAwayTimer();
 
-        Integer awayTimeout = (Integer) userSettings.get(IoTValues.ALARM_DELAY);
+        // poll quickly until the timer expires
+        pollPolicy.setAwayTimerArmed(true);
 
-        t.schedule(new TimerTask() {
+        final IoTTimerWheel.Timeout[] armed = new IoTTimerWheel.Timeout[1];
+        armed[0] = IoTTimerWheel.getWheel().schedule(houseAddress, awayTimeout*1000, new Runnable() {
 
             /**
-             * This anonymous thread updates the state when the house is vacant
+             * Runs on the wheel thread; the house is locked down on the event loop
              */
             @Override
             public void run() {
-
-                StringBuffer logMsg = new StringBuffer();
-                logMsg.append("Automatically: ");
-
-                if (!newProximityState) {
-                    // the house has not been occupied for a specified
-                    // amount of time: turn off light, set alarm, and close door
-                    if (newLightState) {
-                        newLightState = false;
-                        logMsg.append("turning off light ");
-                    }
-                    if (!newAlarmState) {
-                        newAlarmState = true;
-                        logMsg.append("setting alarm ");
-                    }
-                    if (newDoorState) {
-                        newDoorState = false;
-                        logMsg.append("closing door ");
-                    }
-
-                    synchronized (logMessages) {
-                        logMessages.add(logMsg.toString());
+                eventLoop.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // ignore a timer that was cancelled or replaced while this event was queued
+                        if (awayTimer == armed[0]) {
+                            awayTimer = null;
+                            lockDownVacantHouse();
+                        }
                     }
-
-                    processStateUpdate(getCurrentState());
-
-                }
+                });
             }
-        }, awayTimeout*1000);
+        });
+        awayTimer = armed[0];
     }
 
     /**
-     * Ensure the requested state is permitted. This method
-     * checks each state variable to ensure that the house remains
-     * in a consistent state.
-     *
-     * @param state The new state to evaluate
+     * Cancel the away timer, if it is running. Runs on the house event loop.
      */
-    public void evaluateNewState(Hashtable<String, Object> state) {
-
-        System.out.println("Evaluating new state");
-
-        String givenPassCode = null;
-
-        Set<String> keys = state.keySet();
-        for (String key : keys) {
-
-            if (key.equals(IoTValues.TEMP_READING)) {
-                tempReading = (Integer) state.get(key);
-            } else if (key.equals(IoTValues.HUMIDITY_READING)) {
-                humidityReading = (Integer) state.get(key);
-            } else if (key.equals(IoTValues.TARGET_TEMP)) {
-                targetTempSetting = (Integer) state.get(key);
-            } else if (key.equals(IoTValues.HUMIDIFIER_STATE)) {
-                newHumidifierState = (Boolean) state.get(key);
-            } else if (key.equals(IoTValues.DOOR_STATE)) {
-                newDoorState = (Boolean) state.get(key);
-            } else if (key.equals(IoTValues.LIGHT_STATE)) {
-                newLightState = (Boolean) state.get(key);
-            } else if (key.equals(IoTValues.PROXIMITY_STATE)) {
-                newProximityState = (Boolean) state.get(key);
-            } else if (key.equals(IoTValues.ALARM_STATE)) {
-                newAlarmState = (Boolean) state.get(key);
-            } else if (key.equals(IoTValues.HVAC_MODE)) {
-                newHvacSetting = (String) state.get(key);
-            } else if (key.equals(IoTValues.PASSCODE)) {
-                givenPassCode = (String) state.get(key);
-            }
-        }
-
-        if (newLightState!=null) {
-            if (newLightState != oldLightState) {
-
-                if (newLightState) {
-                    if (!newProximityState) {
-                        logMessages.add("Cannot turn on light because user not home");
-                        newLightState = false;
-
-                    } else {
-                        logMessages.add("Turning on light");
-                    }
-                } else if (!newLightState) {
-                    logMessages.add("Turning off light");
-                }
-            }
+    private void cancelAwayTimer() {
+        if (awayTimer != null) {
+            awayTimer.cancel();
+            awayTimer = null;
+            pollPolicy.setAwayTimerArmed(false);
         }
+    }
 
-        // Door state changed
-        if (newDoorState!=null) {
-            if (newDoorState != oldDoorState) {
+    /**
+     * Get the number of away timers pending for the connected house
+     * @return the pending timer count
+     */
+    public int getPendingTimerCount() {
+        String addr = houseAddress;
+        return addr == null ? 0 : IoTTimerWheel.getWheel().getPendingCount(addr);
+    }
 
-                // The door is now open
-                if (newDoorState) {
+    /**
+     * Lock the house down once it has been vacant for the alarm delay. Runs on the house event loop.
+     */
+    private void lockDownVacantHouse() {
 
-                    if (newAlarmState && !newProximityState) {
-                        // door open and no one home and the alarm is set - sound alarm
-                        logMessages.add("Activating alarm");
-                        newAlarmActiveState = true;
-                    }
-                    // House vacant, close the door
-                    else if (!newProximityState) {
-                        // close the door
-                        newDoorState = false;
-                        logMessages.add("Closing the door because user not home");
-                    } else {
-                        logMessages.add("Opened door");
-                    }
+        pollPolicy.setAwayTimerArmed(false);
 
-                    // The door is open the alarm is to be set and somebody is home - this is not allowed so discard the processStateUpdate
+        StringBuffer logMsg = new StringBuffer();
+        logMsg.append("Automatically: ");
 
-                }
-                // The door is now closed
-                else if (!newDoorState) {
-                    // the door is closed - if the house is suddenly occupied this is a break-in
-                    if (newAlarmState && newProximityState) {
-                        logMessages.add("Break-in detected - activating alarm");
-                        newAlarmActiveState = true;
-                    } else {
-                        logMessages.add("Closed door");
-                    }
-                }
+        if (!currentState.get(HouseState.PROXIMITY)) {
+            // the house has not been occupied for a specified
+            // amount of time: turn off light, set alarm, and close door
+            if (currentState.get(HouseState.LIGHT)) {
+                currentState.set(HouseState.LIGHT, false);
+                logMsg.append("turning off light ");
             }
-        }
-
-        if (newProximityState!=null) {
-            // proximity state changed
-            if (newProximityState != oldProximityState) {
-
-                // the house is not occupied
-                if (!newProximityState) {
-
-                    logMessages.add("User not home");
-
-                    startAwayTimer();
-                }
-                // the user has arrived
-                else if (newProximityState) {
-                    logMessages.add("User is home");
-                    // if the alarm has been disabled, then turn on the light for the user
-                    if (oldAlarmState!=null) {
-                        if (!newLightState && !oldAlarmState) {
-                            newLightState = true;
-                            logMessages.add("Turning on light");
-                        }
-                    }
-                }
+            if (!currentState.get(HouseState.ALARM)) {
+                currentState.set(HouseState.ALARM, true);
+                logMsg.append("setting alarm ");
+            }
+            if (currentState.get(HouseState.DOOR)) {
+                currentState.set(HouseState.DOOR, false);
+                logMsg.append("closing door ");
             }
-        }
-
-        if (newAlarmState!=null) {
-            // alarm control state changed
-            if (newAlarmState != oldAlarmState) {
-
-                // set the alarm
-                if (newAlarmState) {
-
-                    logMessages.add("Enabling alarm");
-
-                    // alarm to be set and user left and door open
-                    if (!newProximityState && newDoorState) {
-                        newDoorState = false;
-                        logMessages.add("Closing the door because alarm enabled and user not home");
-                    }
-
-                } else if (!newAlarmState) { // attempt to disable alarm
-
-                    if (!newProximityState) { // && newDoorState
-                        newAlarmState = true;
 
-                        logMessages.add("Cannot disable the alarm, user not home");
-                    } else if (givenPassCode != null) {
-                        if (givenPassCode.compareTo(alarmPassCode) < 0) {
-                            logMessages.add("Cannot disable alarm, invalid passcode given");
-                            newAlarmState = true;
+            logMessages.add(logMsg.toString());
 
-                        } else {
-                            logMessages.add("Correct passcode entered; Disabled alarm");
-                        }
-                    }
-                }
+            applyStateUpdate(getCurrentState(), IoTJournal.SOURCE_AWAY_TIMER, null);
 
-                if (oldAlarmState != null) {
-                    if (oldAlarmState && !newAlarmState) { // alarm disabled
-                        newAlarmActiveState = false;
-                    }
-                }
-            }
         }
+    }
 
-        // determine if the alarm should sound. There are two cases
-        // 1. the door is opened when no one is home
-        // 2. the house is suddenly occupied
-        try {
-            if ((newAlarmState && newDoorState && (!newProximityState && oldProximityState)) || (newAlarmState && !newDoorState && (newProximityState && !oldProximityState))) {
-                logMessages.add("Activating alarm");
-                newAlarmActiveState = true;
-            }
-        } catch (NullPointerException npe) {
-            // Not enough information to evaluate alarm
-            logMessages.add("Warning: Not enough information to evaluate alarm");
-        }
+    /**
+     * Ensure the requested state is permitted. The house policy is a compiled rule set that
+     * checks each state variable to ensure that the house remains
+     * in a consistent state. Must be called on the house event loop.
+     *
+     * @param state The new state to evaluate
+     * @return the rules that fired, one bit per rule index
+     */
+    public long evaluateNewState(HouseState state) {
 
+        System.out.println("Evaluating new state");
 
-        // manage the HVAC control
-        if (newHvacSetting!=null) {
-            if (newHvacSetting.equals("Heater")) {
+        // only these fields come from the house or the control panel; the rest are decided by the rules
+        currentState.merge(state, HouseState.TEMP_READING | HouseState.HUMIDITY_READING | HouseState.TARGET_TEMP
+                | HouseState.HUMIDIFIER | HouseState.DOOR | HouseState.LIGHT | HouseState.PROXIMITY
+                | HouseState.ALARM | HouseState.HVAC_HEATER);
 
-                if (oldChillerOnState!=null) {
-                    if (oldChillerOnState==true) {
-                        logMessages.add("Turning off air conditioner");
-                    }
-                }
-                newChillerOnState = false; // can't run AC
-                newHumidifierState = false; // can't run dehumidifier with heater
-
-                // Is the heater needed?
-                if (tempReading!=null) {
-                    if (tempReading < targetTempSetting) {
-                        if (oldHeaterOnState != null) {
-                            if (!oldHeaterOnState) {
-                                logMessages.add("Turning on heater, target temperature = " + targetTempSetting
-                                        + "F, current temperature = " + tempReading + "F");
-                                newHeaterOnState = true;
-                            }
-                            // Heater already on
-                        } else {
-                            // heater not yet on
-                            logMessages.add("Turning on heater target temperature = " + targetTempSetting
-                                    + "F, current temperature = " + tempReading + "F");
-                            newHeaterOnState = true;
-                        }
-                    } else {
-                        // Heater not needed
-                        if (oldHeaterOnState != null) {
-                            if (oldHeaterOnState) {
-                                logMessages.add("Turning off heater target temperature = " + targetTempSetting
-                                        + "F, current temperature = " + tempReading + "F");
-                            }
-                        }
-                        newHeaterOnState = false;
-                    }
-                }
-            }
+        evaluatedRules = rules;
+        return evaluatedRules.evaluate(currentState, lastState, state.getPassCode(),
+                settingsStore.get().getAlarmPassCode(), ruleActions);
+    }
 
-            if (newHvacSetting.equals("Chiller")) {
+    /**
+     * Drop the log entries written by the rules since the last state update. Only for callers that evaluate
+     * states on their own, such as the benchmarks; a state update hands the entries to the view instead.
+     */
+    void discardLog() {
+        logMessages.clear();
+    }
 
-                if (oldHeaterOnState!=null) {
-                    if (oldHeaterOnState==true) {
-                        logMessages.add("Turning off heater");
-                    }
-                }
-                newHeaterOnState = false; // can't run heater
-
-                // AC needed
-                if (tempReading!=null) {
-                    if (tempReading > targetTempSetting) {
-                        if (oldChillerOnState != null) {
-                            if (!oldChillerOnState) {
-                                logMessages.add("Turning on air conditioner target temperature = "
-                                        + targetTempSetting + "F, current temperature = " + tempReading + "F");
-                                newChillerOnState = true;
-                            } // AC already on
-                        } else {
-                            logMessages.add("Turning on air conditioner target temperature = "
-                                    + targetTempSetting + "F, current temperature = " + tempReading + "F");
-                            newChillerOnState = true;
+    /**
+     * Set the house policy
+     * @param ruleSet the rules
+     */
+    public void setRuleSet(IoTRuleSet ruleSet) {
+        rules = ruleSet;
+    }
 
-                        }
-                    }
-                    // AC not needed
-                    else {
-                        if (oldChillerOnState != null) {
-                            if (oldChillerOnState) {
-                                logMessages.add("Turning off air conditioner target temperature = "
-                                        + targetTempSetting + "F, current temperature = " + tempReading + "F");
-                            }
-                        }
-                        newChillerOnState = false;
-                    }
-                }
-            }
-        }
-        if (newHumidifierState!=null) {
-            if (newHumidifierState != oldHumidifierState) {
-                if (newHumidifierState && newHvacSetting.equals("Chiller")) {
-                    logMessages.add("Enabled Dehumidifier");
-                } else {
-                    logMessages.add("Disabled Dehumidifier");
-                    newHumidifierState = false;
-                }
-            }
-        }
+    /**
+     * Get the house policy
+     * @return the rules
+     */
+    public IoTRuleSet getRuleSet() {
+        return rules;
     }
 
     /**
@@ -0,0 +1,43 @@
+package edu.cmu.iot;
+
+import java.util.List;
+
+/**
+ * What the controller shows to the user. The control window is the usual view; a replay or a headless
+ * controller provides its own. Every method may be called from any thread.
+ *
+ * Project: LG Exec Ed Program
+ * Copyright: Copyright (c) 2015 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 October 2026 - initial version
+ */
+public interface IoTControlView {
+
+    /**
+     * Show the evaluated state of the house
+     * @param newState the new state; it is not changed after the call
+     */
+    void updateState(HouseState newState);
+
+    /**
+     * Add a log entry
+     * @param logEntry the new log entry
+     */
+    void updateLog(String logEntry);
+
+    /**
+     * Add several log entries
+     * @param log the log entries; the list may be reused after the call
+     */
+    void updateLog(List<String> log);
+
+    /**
+     * Let the user change the house state
+     */
+    void enableControls();
+
+    /**
+     * Stop the user from changing the house state
+     */
+    void disableControls();
+}
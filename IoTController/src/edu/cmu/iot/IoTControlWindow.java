@@ -10,7 +10,6 @@ import java.awt.event.ActionListener;
 import java.awt.event.WindowEvent;
 import java.io.File;
 import java.io.FileWriter;
-import java.text.SimpleDateFormat;
 import java.util.*;
 
 /**
@@ -21,7 +20,7 @@ import java.util.*;
  * Versions:
  * 1.0 November 2015 - initial version
  */
-public class IoTControlWindow extends JFrame {
+public class IoTControlWindow extends JFrame implements IoTControlView {
     private JButton connectButton;
     private JPanel alarmPanel;
     private JPanel HvacPanel;
@@ -77,8 +76,25 @@ public class IoTControlWindow extends JFrame {
 
     private Boolean isEnabled;
 
-    /** the current state of the GUI */
-    private Hashtable<String, Object> state;
+    /** the state change requested from the GUI */
+    private HouseState state;
+
+    /** the state shown by the control panel; only used on the Swing thread */
+    private final HouseState shownState = new HouseState();
+
+    /**
+     * the fields changed from the control panel since the house state was last shown; they are shown again
+     * whatever the house reports, so a rejected change is undone. Only used on the Swing thread.
+     */
+    private int touched = 0;
+
+    /** the event log, shown by logList */
+    private final IoTEventLog eventLog = new IoTEventLog();
+    private final IoTEventLogModel logModel = new IoTEventLogModel(eventLog);
+    private final JList<String> logList = new JList<String>(logModel);
+
+    /** collects updates from the controller threads and applies them once per frame */
+    private final IoTUpdateBatcher updateBatcher = new IoTUpdateBatcher(this, eventLog);
 
     /**
      * Constructor for the main control Window
@@ -91,6 +107,10 @@ public class IoTControlWindow extends JFrame {
 
         $$$setupUI$$$();
         setContentPane(mainPanel);
+
+        // show the event log in a list, which only renders the visible rows
+        logList.setPrototypeCellValue("[" + IoTEventLog.formatTime(System.currentTimeMillis()) + "]: Log entry");
+        logScrollBar.setViewportView(logList);
         pack();
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 
@@ -99,7 +119,7 @@ public class IoTControlWindow extends JFrame {
 
         mainSplitPane.setResizeWeight(.7d);
 
-        Vector<UserLoginInfo> users = controller.loadUsers();
+        IoTCredentialStore users = controller.loadUsers();
 
         loginWindow = new LoginWindow(this, users);
         loginWindow.setVisible(true);
@@ -115,7 +135,7 @@ public class IoTControlWindow extends JFrame {
         alarmActive = null;
         tempSettingControl = null;
 
-        state = new Hashtable<String, Object>();
+        state = new HouseState();
 
         if (loginWindow.isSucceeded()) {
             if (true) {
@@ -154,6 +174,8 @@ public class IoTControlWindow extends JFrame {
                     if (controller.connectToHouse(houseAddressText.getText())) {
 
                         homeAwayLabel.setText("---");
+                        shownState.clear();
+                        touched = 0;
                         enableControls();
 
 
@@ -167,16 +189,16 @@ public class IoTControlWindow extends JFrame {
                         runHeater = true;
                         runChiller = false;
 
-                        Hashtable<String, Object> initState = new Hashtable<String, Object>();
+                        HouseState initState = new HouseState();
 
-                        initState.put(IoTValues.TARGET_TEMP, tempSettingControl);
-                        initState.put(IoTValues.HUMIDIFIER_STATE, humidifierControlState);
-                        initState.put(IoTValues.ALARM_ACTIVE, alarmActive);
+                        initState.setTargetTemp(tempSettingControl);
+                        initState.set(HouseState.HUMIDIFIER, humidifierControlState);
+                        initState.set(HouseState.ALARM_ACTIVE, alarmActive);
                         if (runHeater) {
-                            initState.put(IoTValues.HVAC_MODE, "Heater");
+                            initState.set(HouseState.HVAC_HEATER, true);
                         }
                         if (runChiller) {
-                            initState.put(IoTValues.HVAC_MODE, "Chiller");
+                            initState.set(HouseState.HVAC_HEATER, false);
                         }
 
                         updateState(initState);
@@ -208,6 +230,7 @@ public class IoTControlWindow extends JFrame {
                     System.out.println("Light Off");
                     lightControlState = false;
                 }
+                touched |= HouseState.LIGHT;
                 requestStateUpdate();
             }
         });
@@ -236,11 +259,12 @@ public class IoTControlWindow extends JFrame {
                     if (alarmControlState) {
                         // disable the alarm
                         String passCode = JOptionPane.showInputDialog(IoTControlWindow.this, "Enter Alarm Passcode");
-                        state.put(IoTValues.PASSCODE, passCode);
+                        state.setPassCode(passCode);
                     }
                     alarmControlState = false;
 
                 }
+                touched |= HouseState.ALARM;
                 requestStateUpdate();
             }
         };
@@ -258,6 +282,7 @@ public class IoTControlWindow extends JFrame {
                 } else {
                     runChiller = true;
                 }
+                touched |= HouseState.HVAC_HEATER;
                 requestStateUpdate();
             }
         };
@@ -267,12 +292,9 @@ public class IoTControlWindow extends JFrame {
         ActionListener listener2 = new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                JRadioButton rb = (JRadioButton) e.getSource();
-                if (rb.getText().equals("Celcius")) {
-                    tempLabel.setText("Temperature: " + String.valueOf(tempSettingControl) + "C");
-                } else {
-                    tempLabel.setText("Temperature: " + String.valueOf(tempSettingControl) + "F");
-                }
+                // show the last reading in the chosen unit
+                touched |= HouseState.TEMP_READING;
+                applyState(shownState);
             }
         };
         celciusRadioButton.addActionListener(listener2);
@@ -289,6 +311,7 @@ public class IoTControlWindow extends JFrame {
                     System.out.println("Humidifier Off");
                     humidifierControlState = false;
                 }
+                touched |= HouseState.HUMIDIFIER;
                 requestStateUpdate();
             }
         });
@@ -299,6 +322,7 @@ public class IoTControlWindow extends JFrame {
                 if (doorControlState != null) {
                     doorControlState = !doorControlState;
                 }
+                touched |= HouseState.DOOR;
                 requestStateUpdate();
             }
         });
@@ -309,39 +333,39 @@ public class IoTControlWindow extends JFrame {
     }
 
     /**
-     * Enable the control panel
+     * Enable the control panel. May be called from any thread; the change is applied on the Swing thread.
      */
     public void enableControls() {
-
-        isEnabled = true;
-        lightCheckbox.setEnabled(true);
-        openCloseDoorButton.setEnabled(true);
-        alarmEnabledRadioButton.setEnabled(true);
-        alarmDisabledRadioButton.setEnabled(true);
-        tempControlSlider.setEnabled(true);
-        heaterRadioButton.setEnabled(true);
-        airConditionerRadioButton.setEnabled(true);
-        celciusRadioButton.setEnabled(true);
-        farenheitRadioButton.setEnabled(true);
-        humidifierCheckbox.setEnabled(true);
+        updateBatcher.setControlsEnabled(true);
     }
 
     /**
-     * Disable the control panel
+     * Disable the control panel. May be called from any thread; the change is applied on the Swing thread.
      */
     public void disableControls() {
+        updateBatcher.setControlsEnabled(false);
+    }
 
-        isEnabled = false;
-        lightCheckbox.setEnabled(false);
-        openCloseDoorButton.setEnabled(false);
-        alarmEnabledRadioButton.setEnabled(false);
-        alarmDisabledRadioButton.setEnabled(false);
-        tempControlSlider.setEnabled(false);
-        heaterRadioButton.setEnabled(false);
-        airConditionerRadioButton.setEnabled(false);
-        celciusRadioButton.setEnabled(false);
-        farenheitRadioButton.setEnabled(false);
-        humidifierCheckbox.setEnabled(false);
+    /**
+     * Enable or disable the control panel. Runs on the Swing thread.
+     *
+     * @param enabled true to enable the controls
+     */
+    void applyControlsEnabled(boolean enabled) {
+        if (isEnabled != null && isEnabled == enabled) {
+            return;
+        }
+        isEnabled = enabled;
+        lightCheckbox.setEnabled(enabled);
+        openCloseDoorButton.setEnabled(enabled);
+        alarmEnabledRadioButton.setEnabled(enabled);
+        alarmDisabledRadioButton.setEnabled(enabled);
+        tempControlSlider.setEnabled(enabled);
+        heaterRadioButton.setEnabled(enabled);
+        airConditionerRadioButton.setEnabled(enabled);
+        celciusRadioButton.setEnabled(enabled);
+        farenheitRadioButton.setEnabled(enabled);
+        humidifierCheckbox.setEnabled(enabled);
     }
 
     /**
@@ -372,7 +396,8 @@ public class IoTControlWindow extends JFrame {
         clearLogItem.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                logText.setText("");
+                eventLog.clear();
+                logModel.refresh();
             }
         });
 
@@ -396,7 +421,7 @@ public class IoTControlWindow extends JFrame {
                     File fileToSave = chooser.getSelectedFile();
                     try {
                         FileWriter fw = new FileWriter(chooser.getSelectedFile() + ".log");
-                        fw.write(logText.getText());
+                        eventLog.writeTo(fw);
                         fw.close();
                     } catch (Exception ex) {
                         ex.printStackTrace();
@@ -420,41 +445,36 @@ public class IoTControlWindow extends JFrame {
      * Handle changes initiated from the control panel
      */
     public void requestStateUpdate() {
-
         if (tempSettingControl != null) {
-            state.put(IoTValues.TARGET_TEMP, tempSettingControl);
+            state.setTargetTemp(tempSettingControl);
         }
         if (humidifierControlState != null) {
-            state.put(IoTValues.HUMIDIFIER_STATE, humidifierControlState);
+            state.set(HouseState.HUMIDIFIER, humidifierControlState);
         }
         if (doorControlState != null) {
-            state.put(IoTValues.DOOR_STATE, doorControlState);
+            state.set(HouseState.DOOR, doorControlState);
         }
         if (lightControlState != null) {
-            state.put(IoTValues.LIGHT_STATE, lightControlState);
+            state.set(HouseState.LIGHT, lightControlState);
         }
         if (proximityControlState != null) {
-            state.put(IoTValues.PROXIMITY_STATE, proximityControlState);
+            state.set(HouseState.PROXIMITY, proximityControlState);
         }
         if (alarmControlState != null) {
-            state.put(IoTValues.ALARM_STATE, alarmControlState);
+            state.set(HouseState.ALARM, alarmControlState);
         }
-
         if (runHeater != null) {
             if (runHeater) {
-                state.put(IoTValues.HVAC_MODE, "Heater");
+                state.set(HouseState.HVAC_HEATER, true);
             }
         }
-
         if (runChiller != null) {
             if (runChiller) {
-                state.put(IoTValues.HVAC_MODE, "Chiller");
+                state.set(HouseState.HVAC_HEATER, false);
             }
         }
-
         // have the controller evaluate the new state
-        controller.processStateUpdate(state);
-
+        controller.submitStateUpdate(state);
         // reset the state
         state.clear();
     }
@@ -470,120 +490,130 @@ public class IoTControlWindow extends JFrame {
     }
 
     /**
-     * update the state of the control panel GUI
+     * update the state of the control panel GUI. May be called from any thread; updates that arrive within a frame
+     * are merged and applied together on the Swing thread.
      *
      * @param newState the new state
      */
-    public void updateState(Hashtable<String, Object> newState) {
-
-        Set<String> keys = newState.keySet();
-        for (String key : keys) {
-
-            if (key.equals(IoTValues.HUMIDITY_READING)) {
-                Integer humidityReading = (Integer) newState.get(key);
-                humidLabel.setText("Humidity: " + String.valueOf(humidityReading) + "%");
-            } else if (key.equals(IoTValues.TEMP_READING)) {
-                Integer tempReading = (Integer) newState.get(key);
-                if (farenheitRadioButton.isSelected()) {
-
-                    tempLabel.setText("Temperature: " + String.valueOf(tempReading) + "F");
-                    farenheitRadioButton.setSelected(true);
-                    celciusRadioButton.setSelected(false);
-                } else {
-
-                    Integer celTempReading = new Double(((tempReading - 32) * 5) / 9).intValue();
+    public void updateState(HouseState newState) {
+        updateBatcher.updateState(newState);
+    }
 
-                    tempLabel.setText("Temperature: " + String.valueOf(celTempReading) + "C");
-                    farenheitRadioButton.setSelected(false);
-                    celciusRadioButton.setSelected(true);
-                }
-            } else if (key.equals(IoTValues.HUMIDIFIER_STATE)) {
-                humidifierControlState = (Boolean) newState.get(key);
-                humidifierCheckbox.setSelected(humidifierControlState);
-
-            } else if (key.equals(IoTValues.DOOR_STATE)) {
-                Boolean newDoorState = (Boolean) newState.get(key);
-                if (newDoorState) {
-                    doorStatusLabel.setText("Door Status: OPEN");
-                    doorControlState = true;
-                } else {
-                    doorStatusLabel.setText("Door Status: CLOSED");
-                    doorControlState = false;
-                }
-            } else if (key.equals(IoTValues.LIGHT_STATE)) {
-                Boolean newLightState = (Boolean) newState.get(key);
-                if (newLightState) {
-                    lightCheckbox.setSelected(true);
-                    lightControlState = true;
-                } else {
-                    lightCheckbox.setSelected(false);
-                    lightControlState = false;
-                }
-            } else if (key.equals(IoTValues.PROXIMITY_STATE)) {
-                Boolean newProximityState = (Boolean) newState.get(key);
+    /**
+     * Apply a state to the control panel, touching only the widgets whose value changed or that the user changed.
+     * Runs on the Swing thread.
+     *
+     * @param newState the new state
+     */
+    void applyState(HouseState newState) {
+        int changed = newState.changedFrom(shownState);
+        if (newState != shownState) {
+            shownState.merge(newState, HouseState.ALL);
+        }
+        HouseState shown = shownState;
 
-                if (newProximityState) {
-                    homeAwayLabel.setText("Home is OCCUPIED");
-                    proximityControlState = true;
-                } else {
-                    homeAwayLabel.setText("Home is VACANT");
-                    proximityControlState = false;
-                }
-            } else if (key.equals(IoTValues.ALARM_STATE)) {
-                Boolean newAlarmState = (Boolean) newState.get(key);
+        // the widgets the user changed show the house state again, whether or not the house took the change
+        changed |= touched & shown.getPresent();
+        touched &= ~shown.getPresent();
+        if (changed == 0) {
+            return;
+        }
 
-                if (newAlarmState) {
-                    alarmEnabledRadioButton.setSelected(true);
-                    alarmDisabledRadioButton.setSelected(false);
-                    alarmControlState = true;
-                } else {
-                    alarmEnabledRadioButton.setSelected(false);
-                    alarmDisabledRadioButton.setSelected(true);
-                    alarmControlState = false;
-                }
-            } else if (key.equals(IoTValues.ALARM_ACTIVE)) {
-                Boolean newAlarmActive = (Boolean) newState.get(key);
-                if (newAlarmActive) {
-                    alarmActiveLabel.setText("ALARM");
-                    alarmActiveLabel.setForeground(Color.RED);
-                    alarmActive = true;
-                } else {
-                    alarmActiveLabel.setText("Status: Normal");
-                    alarmActiveLabel.setForeground(Color.BLACK);
-                    alarmActive = false;
-                }
-            } else if (key.equals(IoTValues.HVAC_MODE)) {
-
-                String hvacMode = (String) newState.get(key);
-
-                if (hvacMode.equals("Heater")) {
-                    heaterRadioButton.setSelected(true);
-                    airConditionerRadioButton.setSelected(false);
-
-                    Boolean newHeaterState = (Boolean) newState.get(IoTValues.HEATER_STATE);
-                    if (newHeaterState != null) {
-                        if (newHeaterState) {
-                            runHeater = true;
-                            runChiller = false;
-                            hvacLabel.setText("HVAC Status: On");
-                        } else {
-                            hvacLabel.setText("HVAC Status: Off");
-                            runHeater = false;
-                        }
+        if ((changed & HouseState.HUMIDITY_READING) != 0) {
+            humidLabel.setText("Humidity: " + String.valueOf(shown.getHumidityReading()) + "%");
+        }
+        if ((changed & HouseState.TEMP_READING) != 0) {
+            int tempReading = shown.getTempReading();
+            if (farenheitRadioButton.isSelected()) {
+                tempLabel.setText("Temperature: " + String.valueOf(tempReading) + "F");
+                farenheitRadioButton.setSelected(true);
+                celciusRadioButton.setSelected(false);
+            } else {
+                Integer celTempReading = new Double(((tempReading - 32) * 5) / 9).intValue();
+                tempLabel.setText("Temperature: " + String.valueOf(celTempReading) + "C");
+                farenheitRadioButton.setSelected(false);
+                celciusRadioButton.setSelected(true);
+            }
+        }
+        if ((changed & HouseState.HUMIDIFIER) != 0) {
+            humidifierControlState = shown.get(HouseState.HUMIDIFIER);
+            humidifierCheckbox.setSelected(humidifierControlState);
+        }
+        if ((changed & HouseState.DOOR) != 0) {
+            if (shown.get(HouseState.DOOR)) {
+                doorStatusLabel.setText("Door Status: OPEN");
+                doorControlState = true;
+            } else {
+                doorStatusLabel.setText("Door Status: CLOSED");
+                doorControlState = false;
+            }
+        }
+        if ((changed & HouseState.LIGHT) != 0) {
+            if (shown.get(HouseState.LIGHT)) {
+                lightCheckbox.setSelected(true);
+                lightControlState = true;
+            } else {
+                lightCheckbox.setSelected(false);
+                lightControlState = false;
+            }
+        }
+        if ((changed & HouseState.PROXIMITY) != 0) {
+            if (shown.get(HouseState.PROXIMITY)) {
+                homeAwayLabel.setText("Home is OCCUPIED");
+                proximityControlState = true;
+            } else {
+                homeAwayLabel.setText("Home is VACANT");
+                proximityControlState = false;
+            }
+        }
+        if ((changed & HouseState.ALARM) != 0) {
+            if (shown.get(HouseState.ALARM)) {
+                alarmEnabledRadioButton.setSelected(true);
+                alarmDisabledRadioButton.setSelected(false);
+                alarmControlState = true;
+            } else {
+                alarmEnabledRadioButton.setSelected(false);
+                alarmDisabledRadioButton.setSelected(true);
+                alarmControlState = false;
+            }
+        }
+        if ((changed & HouseState.ALARM_ACTIVE) != 0) {
+            if (shown.get(HouseState.ALARM_ACTIVE)) {
+                alarmActiveLabel.setText("ALARM");
+                alarmActiveLabel.setForeground(Color.RED);
+                alarmActive = true;
+            } else {
+                alarmActiveLabel.setText("Status: Normal");
+                alarmActiveLabel.setForeground(Color.BLACK);
+                alarmActive = false;
+            }
+        }
+        if ((changed & (HouseState.HVAC_HEATER | HouseState.HEATER | HouseState.CHILLER)) != 0
+                && shown.has(HouseState.HVAC_HEATER)) {
+            if (shown.isHeaterMode()) {
+                heaterRadioButton.setSelected(true);
+                airConditionerRadioButton.setSelected(false);
+                if (shown.has(HouseState.HEATER)) {
+                    if (shown.get(HouseState.HEATER)) {
+                        runHeater = true;
+                        runChiller = false;
+                        hvacLabel.setText("HVAC Status: On");
+                    } else {
+                        hvacLabel.setText("HVAC Status: Off");
+                        runHeater = false;
                     }
-                } else if (hvacMode.equals("Chiller")) {
-                    heaterRadioButton.setSelected(false);
-                    airConditionerRadioButton.setSelected(true);
-                    Boolean newChillerState = (Boolean) newState.get(IoTValues.CHILLER_STATE);
-                    if (newChillerState != null) {
-                        if (newChillerState) {
-                            runChiller = true;
-                            runHeater = false;
-                            hvacLabel.setText("HVAC Status: On");
-                        } else {
-                            hvacLabel.setText("HVAC Status: Off");
-                            runChiller = false;
-                        }
+                }
+            } else {
+                heaterRadioButton.setSelected(false);
+                airConditionerRadioButton.setSelected(true);
+                if (shown.has(HouseState.CHILLER)) {
+                    if (shown.get(HouseState.CHILLER)) {
+                        runChiller = true;
+                        runHeater = false;
+                        hvacLabel.setText("HVAC Status: On");
+                    } else {
+                        hvacLabel.setText("HVAC Status: Off");
+                        runChiller = false;
                     }
                 }
             }
@@ -591,26 +621,36 @@ public class IoTControlWindow extends JFrame {
     }
 
     /**
-     * Update the log with multiple events
+     * Update the log with multiple events. May be called from any thread.
      *
      * @param log the list of log events
      */
-    public void updateLog(Vector<String> log) {
-        for (String msg : log) {
-            updateLog(msg);
+    public void updateLog(java.util.List<String> log) {
+        if (!log.isEmpty()) {
+            updateBatcher.log(log);
         }
     }
 
     /**
-     * Add a log entry
+     * Add a log entry. May be called from any thread; the log view is refreshed once per frame.
      *
      * @param logEntry the new log entry
      */
     public void updateLog(String logEntry) {
-        Long timeStamp = System.currentTimeMillis();
-        SimpleDateFormat sdf = new SimpleDateFormat("MMM dd,yyyy HH:mm");
-        logText.append("[" + sdf.format(new Date(timeStamp)) + "]: " + logEntry + "\n");
-        logText.setCaretPosition(logText.getDocument().getLength());
+        updateBatcher.log(logEntry);
+    }
+
+    /**
+     * Show the entries added to the log, scrolling to the newest if the view was already at the bottom. Runs on
+     * the Swing thread.
+     */
+    void refreshLog() {
+        int last = logModel.getSize() - 1;
+        boolean atBottom = last < 0 || logList.getLastVisibleIndex() >= last;
+        logModel.refresh();
+        if (atBottom && logModel.getSize() > 0) {
+            logList.ensureIndexIsVisible(logModel.getSize() - 1);
+        }
     }
 
     /**
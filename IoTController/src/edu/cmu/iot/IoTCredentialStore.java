@@ -0,0 +1,353 @@
+package edu.cmu.iot;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * The operator accounts, indexed by user name. Passwords are kept as salted PBKDF2 hashes; the number of
+ * iterations is the work factor, set with the iot.login.iterations property and stored with each hash, so raising
+ * it does not invalidate existing accounts.
+ *
+ * The users file is appended to as accounts change. Each line is one account, name=pbkdf2$iterations$salt$hash
+ * with the salt and hash in hex, and a later line for a name replaces an earlier one. Lines of the older
+ * name=password form are still read: when a file holding any is loaded, their passwords are hashed and the file
+ * is rewritten once with a single hashed line per account, so no plaintext password stays on disk. The new file
+ * is written beside the old one and renamed over it, so a crash leaves either the old file or the new one.
+ *
+ * Project: LG Exec Ed Program
+ * Copyright: Copyright (c) 2015 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 October 2026 - initial version
+ */
+public class IoTCredentialStore {
+
+    /** the default number of PBKDF2 iterations */
+    public static final int DEFAULT_ITERATIONS = 100000;
+
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final String SCHEME = "pbkdf2";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+
+    /** how many times the work factor a stored iteration count may be before the line is taken to be damaged */
+    private static final int MAX_ITERATIONS_FACTOR = 16;
+
+    /** A stored password */
+    private static final class Credential {
+        final int iterations;
+        final byte[] salt;
+        final byte[] hash;
+
+        /** the plaintext of an account from an old users file; null once hashed */
+        final String legacyPassword;
+
+        Credential(int iterations, byte[] salt, byte[] hash) {
+            this.iterations = iterations;
+            this.salt = salt;
+            this.hash = hash;
+            this.legacyPassword = null;
+        }
+
+        Credential(String legacyPassword) {
+            this.iterations = 0;
+            this.salt = null;
+            this.hash = null;
+            this.legacyPassword = legacyPassword;
+        }
+    }
+
+    private final File file;
+    private final int iterations;
+    private final SecureRandom random = new SecureRandom();
+
+    /** the accounts by user name, in the order of the users file; guarded by this */
+    private final Map<String, Credential> users = new LinkedHashMap<String, Credential>();
+
+    /**
+     * Create an empty store for a users file. Call load to read the accounts already in it.
+     * @param file the users file
+     */
+    public IoTCredentialStore(File file) {
+        this.file = file;
+        this.iterations = Math.max(1, Integer.getInteger("iot.login.iterations", DEFAULT_ITERATIONS));
+    }
+
+    /**
+     * Read the users file. A missing file is an empty store. If the file holds plaintext passwords, they are
+     * hashed and the file is rewritten without them; if that fails, each is rehashed when its user logs in.
+     * @throws IOException if the file cannot be read
+     */
+    public synchronized void load() throws IOException {
+        users.clear();
+        if (!file.exists()) {
+            return;
+        }
+        boolean legacy = false;
+        BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = br.readLine()) != null) {
+                int eq = line.indexOf('=');
+                if (eq <= 0) {
+                    continue;
+                }
+                Credential c = parse(line.substring(eq + 1));
+                if (c != null) {
+                    users.put(line.substring(0, eq), c);
+                } else {
+                    System.out.println("Ignoring the damaged account " + line.substring(0, eq) + " in " + file);
+                }
+            }
+        } finally {
+            br.close();
+        }
+        for (Credential c : users.values()) {
+            legacy |= c.legacyPassword != null;
+        }
+        if (legacy) {
+            try {
+                compact();
+            } catch (IOException ioe) {
+                System.out.println("Cannot remove the plaintext passwords from " + file + ": " + ioe.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Hash the plaintext passwords and rewrite the users file with one line per account. Called holding the
+     * lock; only done when a file with plaintext passwords is loaded.
+     */
+    private void compact() throws IOException {
+        Map<String, Credential> hashed = new LinkedHashMap<String, Credential>();
+        for (Map.Entry<String, Credential> e : users.entrySet()) {
+            Credential c = e.getValue();
+            if (c.legacyPassword != null) {
+                byte[] salt = new byte[SALT_BYTES];
+                random.nextBytes(salt);
+                c = new Credential(iterations, salt, hash(c.legacyPassword, salt, iterations));
+            }
+            hashed.put(e.getKey(), c);
+        }
+
+        Path target = file.getAbsoluteFile().toPath();
+        Path tmp = Files.createTempFile(target.getParent(), file.getName(), ".tmp");
+        try {
+            Writer w = new OutputStreamWriter(new FileOutputStream(tmp.toFile()), "UTF-8");
+            try {
+                for (Map.Entry<String, Credential> e : hashed.entrySet()) {
+                    w.write(format(e.getKey(), e.getValue()));
+                }
+            } finally {
+                w.close();
+            }
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        users.clear();
+        users.putAll(hashed);
+        System.out.println("Hashed the plaintext passwords in " + file);
+    }
+
+    /**
+     * Get the number of accounts
+     * @return the number of accounts
+     */
+    public synchronized int size() {
+        return users.size();
+    }
+
+    /**
+     * Find out if an account exists
+     * @param userName the user name
+     * @return true if there is an account with the name
+     */
+    public synchronized boolean contains(String userName) {
+        return users.containsKey(userName);
+    }
+
+    /**
+     * Add an account, or replace the password of an existing one. One line is appended to the users file.
+     * @param userName the user name; it cannot contain '=' or line breaks
+     * @param password the password
+     * @throws IOException if the users file cannot be written
+     * @throws IllegalArgumentException if the user name cannot be stored or the password is null
+     */
+    public void add(String userName, String password) throws IOException {
+        if (userName == null || userName.length() == 0 || userName.indexOf('=') >= 0
+                || userName.indexOf('\n') >= 0 || userName.indexOf('\r') >= 0) {
+            throw new IllegalArgumentException("Invalid user name");
+        }
+        if (password == null) {
+            throw new IllegalArgumentException("Invalid password");
+        }
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        Credential c = new Credential(iterations, salt, hash(password, salt, iterations));
+        synchronized (this) {
+            append(userName, c);
+            users.put(userName, c);
+        }
+    }
+
+    /**
+     * Check a password. The cost is one password hash whatever the number of accounts.
+     * @param userName the user name
+     * @param password the password
+     * @return true if the account exists and the password is correct; false if the password is null
+     */
+    public boolean authenticate(String userName, String password) {
+        if (password == null) {
+            return false;
+        }
+        Credential c;
+        synchronized (this) {
+            c = users.get(userName);
+        }
+        if (c == null) {
+            // hash anyway, so an unknown name takes as long as a wrong password
+            hash(password, new byte[SALT_BYTES], iterations);
+            return false;
+        }
+        if (c.legacyPassword != null) {
+            boolean ok = MessageDigest.isEqual(utf8(password), utf8(c.legacyPassword));
+            if (ok) {
+                upgrade(userName, c, password);
+            }
+            return ok;
+        }
+        return MessageDigest.isEqual(hash(password, c.salt, c.iterations), c.hash);
+    }
+
+    /**
+     * Replace a plaintext account with a hashed one, if the users file could not be rewritten when it was loaded
+     * @param userName the user name
+     * @param old the plaintext account
+     * @param password the verified password
+     */
+    private void upgrade(String userName, Credential old, String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        Credential c = new Credential(iterations, salt, hash(password, salt, iterations));
+        synchronized (this) {
+            if (users.get(userName) != old) {
+                return; // replaced while hashing
+            }
+            try {
+                append(userName, c);
+                users.put(userName, c);
+            } catch (IOException ioe) {
+                System.out.println("Cannot rehash the password of " + userName + ": " + ioe.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Append an account to the users file. Called holding the lock, so lines are never interleaved.
+     */
+    private void append(String userName, Credential c) throws IOException {
+        Writer w = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+        try {
+            w.write(format(userName, c));
+        } finally {
+            w.close();
+        }
+    }
+
+    /**
+     * Format an account as a users file line
+     */
+    private static String format(String userName, Credential c) {
+        return userName + "=" + SCHEME + "$" + c.iterations + "$" + toHex(c.salt) + "$" + toHex(c.hash) + "\n";
+    }
+
+    /**
+     * Parse the stored password of a users file line
+     * @param stored the text after the name
+     * @return the credential, or null if the line is damaged
+     */
+    private Credential parse(String stored) {
+        if (!stored.startsWith(SCHEME + "$")) {
+            return new Credential(stored);
+        }
+        String[] parts = stored.split("\\$");
+        if (parts.length != 4) {
+            return null;
+        }
+        try {
+            // a count PBKDF2 cannot use, or one that would stall every login, cannot have been written by add
+            int count = Integer.parseInt(parts[1]);
+            if (count < 1 || count / MAX_ITERATIONS_FACTOR > Math.max(iterations, DEFAULT_ITERATIONS)) {
+                return null;
+            }
+            byte[] salt = fromHex(parts[2]);
+            byte[] hash = fromHex(parts[3]);
+            if (salt.length == 0 || hash.length != HASH_BITS / 8) {
+                return null;
+            }
+            return new Credential(count, salt, hash);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static byte[] hash(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private static byte[] utf8(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] digits = "0123456789abcdef".toCharArray();
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(digits[(b >> 4) & 0xf]).append(digits[b & 0xf]);
+        }
+        return sb.toString();
+    }
+
+    private static byte[] fromHex(String hex) {
+        if ((hex.length() & 1) != 0) {
+            throw new IllegalArgumentException("odd hex length");
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int hi = Character.digit(hex.charAt(2 * i), 16);
+            int lo = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (hi < 0 || lo < 0) {
+                throw new IllegalArgumentException("bad hex digit");
+            }
+            bytes[i] = (byte) ((hi << 4) | lo);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,381 @@
+package edu.cmu.iot;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the controller without a user interface, for servers with no display. A controller is started for each
+ * configured house; there is no login, and the house log goes to the console and to a bounded log kept in
+ * memory. Nothing here loads AWT or Swing.
+ *
+ * The houses are given on the command line or, failing that, as a comma separated HOUSES entry in the settings
+ * file. A house that cannot be reached is tried again every few seconds until it answers, and the houses are
+ * checked as often, so a house whose controller lost its connection is connected again. If the iot.http.port
+ * property is set, the houses can also be watched and changed through the HTTP control API, which listens on
+ * the loopback interface unless iot.http.address says otherwise and asks for the credentials of an operator. The
+ * daemon will not start the API when there are no operators, unless iot.http.open is set to true.
+ *
+ * Project: LG Exec Ed Program
+ * Copyright: Copyright (c) 2015 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 October 2026 - initial version
+ */
+public class IoTDaemon {
+
+    /** the number of log entries kept for each house; can be set with the iot.daemon.log.capacity property */
+    public static final int DEFAULT_LOG_CAPACITY = 1000;
+
+    /** seconds between attempts to reach a house; can be set with the iot.daemon.retry property */
+    public static final int DEFAULT_RETRY_SECONDS = 5;
+
+    /**
+     * The view of one house: log entries are printed and kept, the state is only remembered by the controller
+     */
+    public static class HouseView implements IoTControlView {
+
+        private final String address;
+        private final IoTEventLog log;
+
+        HouseView(String address, int logCapacity) {
+            this.address = address;
+            this.log = new IoTEventLog(logCapacity);
+        }
+
+        /**
+         * Get the log of the house
+         * @return the log
+         */
+        public IoTEventLog getLog() {
+            return log;
+        }
+
+        @Override
+        public void updateState(HouseState newState) {
+        }
+
+        @Override
+        public void updateLog(String logEntry) {
+            long seq = log.add(logEntry);
+            System.out.println(address + " " + log.format(seq));
+        }
+
+        @Override
+        public void updateLog(List<String> entries) {
+            for (int i = 0; i < entries.size(); i++) {
+                updateLog(entries.get(i));
+            }
+        }
+
+        @Override
+        public void enableControls() {
+        }
+
+        @Override
+        public void disableControls() {
+        }
+    }
+
+    /**
+     * A house run by the daemon
+     */
+    public static class House {
+        private final String address;
+        private final HouseView view;
+        private final IoTControlManager controller;
+        private volatile boolean connected = false;
+
+        House(String address, HouseView view, IoTControlManager controller) {
+            this.address = address;
+            this.view = view;
+            this.controller = controller;
+        }
+
+        /**
+         * Get the address of the house
+         * @return the address
+         */
+        public String getAddress() {
+            return address;
+        }
+
+        /**
+         * Get the view of the house
+         * @return the view
+         */
+        public HouseView getView() {
+            return view;
+        }
+
+        /**
+         * Get the controller of the house
+         * @return the controller
+         */
+        public IoTControlManager getController() {
+            return controller;
+        }
+
+        /**
+         * Find out if the house has been reached
+         * @return true once the controller is connected
+         */
+        public boolean isConnected() {
+            return connected;
+        }
+    }
+
+    private final String settingsDir;
+    private final List<House> houses = new ArrayList<House>();
+    private final int retrySeconds;
+
+    /** released when the daemon stops; the controller threads are daemon threads, so main waits on this */
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    /** retries houses that could not be reached; connecting blocks, so this is not done on the timer wheel */
+    private final ScheduledExecutorService connector = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "house connector");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /**
+     * Create the daemon. Nothing is started until start is called.
+     * @param settingsDir the settings directory
+     * @param addresses the house addresses
+     */
+    public IoTDaemon(String settingsDir, List<String> addresses) {
+        this.settingsDir = settingsDir;
+        this.retrySeconds = Integer.getInteger("iot.daemon.retry", DEFAULT_RETRY_SECONDS);
+
+        int logCapacity = Integer.getInteger("iot.daemon.log.capacity", DEFAULT_LOG_CAPACITY);
+        for (String address : addresses) {
+            HouseView view = new HouseView(address, logCapacity);
+            IoTControlManager controller = new IoTControlManager(view, settingsDir);
+            controller.loadSettings();
+            houses.add(new House(address, view, controller));
+        }
+    }
+
+    /**
+     * Get the houses run by the daemon
+     * @return the houses
+     */
+    public List<House> getHouses() {
+        return houses;
+    }
+
+    /**
+     * Get the controllers of the houses
+     * @return the controllers by house address
+     */
+    public Map<String, IoTControlManager> getControllers() {
+        Map<String, IoTControlManager> controllers = new LinkedHashMap<String, IoTControlManager>();
+        for (House house : houses) {
+            controllers.put(house.address, house.controller);
+        }
+        return controllers;
+    }
+
+    /**
+     * Get the settings directory
+     * @return the directory
+     */
+    public String getSettingsDir() {
+        return settingsDir;
+    }
+
+    /**
+     * Connect to every house. Houses that cannot be reached are tried again in the background, and the houses
+     * are checked every few seconds from then on.
+     */
+    public void start() {
+        for (House house : houses) {
+            connect(house);
+        }
+        connector.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                checkHouses();
+            }
+        }, retrySeconds, retrySeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Connect to a house, trying again until it answers. Runs on the connector thread.
+     * @param house the house
+     */
+    private void connect(final House house) {
+        connector.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (house.controller.connectToHouse(house.address)) {
+                    house.connected = true;
+                    house.view.updateLog("Connected to house " + house.address);
+                } else {
+                    house.view.updateLog("Cannot reach house " + house.address + ", trying again in "
+                            + retrySeconds + "s");
+                    connector.schedule(this, retrySeconds, TimeUnit.SECONDS);
+                }
+            }
+        });
+    }
+
+    /**
+     * Connect again to the houses whose controller is no longer connected. A house that is down but still
+     * connected is left to its controller, which keeps polling it and reconnects with backoff. Runs on the
+     * connector thread.
+     */
+    private void checkHouses() {
+        for (House house : houses) {
+            if (house.connected && !house.controller.isConnected()) {
+                house.connected = false;
+                house.view.updateLog("Lost the connection to house " + house.address + ", reconnecting");
+                house.controller.disconnectFromHouse();
+                connect(house);
+            }
+        }
+    }
+
+    /**
+     * Stop retrying and disconnect from every house, so the journals are flushed
+     */
+    public void stop() {
+        connector.shutdownNow();
+        try {
+            connector.awaitTermination(retrySeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (House house : houses) {
+            if (house.connected) {
+                house.connected = false;
+                house.controller.disconnectFromHouse();
+            }
+        }
+        stopped.countDown();
+    }
+
+    /**
+     * Wait until the daemon is stopped
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitStop() throws InterruptedException {
+        stopped.await();
+    }
+
+    /**
+     * Read the house addresses from the settings file
+     * @param settingsDir the settings directory
+     * @return the addresses; empty if there are none
+     */
+    static List<String> loadHouses(String settingsDir) {
+        List<String> addresses = new ArrayList<String>();
+        Properties props = new Properties();
+        InputStream is = null;
+        try {
+            is = new FileInputStream(new File(settingsDir, IoTValues.SETTINGS_FILE));
+            props.load(is);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        for (String address : props.getProperty(IoTValues.HOUSES, "").split(",")) {
+            if (address.trim().length() > 0) {
+                addresses.add(address.trim());
+            }
+        }
+        return addresses;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("usage: IoTDaemon <settings dir> [house address ...]");
+            System.exit(2);
+        }
+        String settingsDir = args[0];
+
+        List<String> addresses = new ArrayList<String>();
+        for (int i = 1; i < args.length; i++) {
+            addresses.add(args[i]);
+        }
+        if (addresses.isEmpty()) {
+            addresses = loadHouses(settingsDir);
+        }
+        if (addresses.isEmpty()) {
+            System.err.println("No houses given on the command line or as " + IoTValues.HOUSES + " in "
+                    + new File(settingsDir, IoTValues.SETTINGS_FILE));
+            System.exit(2);
+        }
+
+        final IoTDaemon daemon = new IoTDaemon(settingsDir, addresses);
+
+        IoTHttpApi httpApi = null;
+        Integer httpPort = Integer.getInteger("iot.http.port");
+        if (httpPort != null) {
+            try {
+                IoTCredentialStore users = new IoTCredentialStore(new File(settingsDir, IoTValues.USERS_DB));
+                users.load();
+                LoginHandler login = null;
+                if (users.size() > 0) {
+                    login = new LoginHandler(users);
+                } else if (IoTHttpApi.isOpenAllowed()) {
+                    System.out.println("No operators in " + IoTValues.USERS_DB + ", the control API is open to anyone"
+                            + " who can reach it");
+                } else {
+                    System.err.println("No operators in " + IoTValues.USERS_DB + ", not starting the control API;"
+                            + " set " + IoTHttpApi.OPEN_PROPERTY + "=true to run it without credentials");
+                    System.exit(1);
+                }
+                httpApi = new IoTHttpApi(new InetSocketAddress(System.getProperty("iot.http.address", "127.0.0.1"),
+                        httpPort), daemon.getControllers(), login);
+            } catch (IOException e) {
+                System.err.println("Cannot start the control API on port " + httpPort + ": " + e.getMessage());
+                System.exit(1);
+            }
+        }
+
+        final IoTHttpApi api = httpApi;
+        Runtime.getRuntime().addShutdownHook(new Thread("daemon shutdown") {
+            @Override
+            public void run() {
+                if (api != null) {
+                    api.stop();
+                }
+                daemon.stop();
+            }
+        });
+        daemon.start();
+        if (api != null) {
+            api.start();
+        }
+        System.out.println("Controlling " + addresses.size() + " house(s)");
+
+        try {
+            daemon.awaitStop();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+}
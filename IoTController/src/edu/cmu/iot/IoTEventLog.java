@@ -0,0 +1,185 @@
+package edu.cmu.iot;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * A fixed-capacity log of controller events. Entries are kept in a ring buffer; once it is full the oldest entry
+ * is dropped for each new one, so a long session uses a bounded amount of memory. Every entry gets a sequence
+ * number, which stays valid as older entries are dropped, so a viewer can ask for the entries it shows without
+ * copying the log. Timestamps are formatted to the minute, and the formatted text is reused until the minute
+ * changes.
+ *
+ * Project: LG Exec Ed Program
+ * Copyright: Copyright (c) 2015 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 October 2026 - initial version
+ */
+public class IoTEventLog {
+
+    /** the default number of entries kept; can be set with the iot.log.capacity system property */
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    /** A formatted timestamp and the minute it is valid for */
+    private static final class Stamp {
+        final long minute;
+        final String text;
+
+        Stamp(long m, String t) {
+            minute = m;
+            text = t;
+        }
+    }
+
+    /** formats timestamps; guarded by itself */
+    private static final SimpleDateFormat dateFormat = new SimpleDateFormat("MMM dd,yyyy HH:mm");
+
+    /** the last formatted timestamp; replaced, never changed */
+    private static volatile Stamp lastStamp = new Stamp(-1, "");
+
+    // the ring buffer; guarded by this
+    private final long[] times;
+    private final String[] texts;
+
+    /** the sequence number of the oldest entry kept */
+    private long first = 0;
+
+    /** the sequence number the next entry will get */
+    private long next = 0;
+
+    /**
+     * Create a log with the default capacity
+     */
+    public IoTEventLog() {
+        this(Integer.getInteger("iot.log.capacity", DEFAULT_CAPACITY));
+    }
+
+    /**
+     * Create a log
+     * @param capacity the number of entries kept
+     */
+    public IoTEventLog(int capacity) {
+        times = new long[capacity];
+        texts = new String[capacity];
+    }
+
+    /**
+     * Add an entry, dropping the oldest if the log is full
+     * @param text the entry
+     * @return the sequence number of the entry
+     */
+    public long add(String text) {
+        return add(System.currentTimeMillis(), text);
+    }
+
+    /**
+     * Add an entry, dropping the oldest if the log is full
+     * @param time the time of the entry in milliseconds
+     * @param text the entry
+     * @return the sequence number of the entry
+     */
+    public synchronized long add(long time, String text) {
+        int slot = (int) (next % times.length);
+        times[slot] = time;
+        texts[slot] = text;
+        if (next - first == times.length) {
+            first++;
+        }
+        return next++;
+    }
+
+    /**
+     * Get the sequence number of the oldest entry kept
+     * @return the sequence number
+     */
+    public synchronized long getFirstSequence() {
+        return first;
+    }
+
+    /**
+     * Get the sequence number the next entry will get
+     * @return the sequence number
+     */
+    public synchronized long getNextSequence() {
+        return next;
+    }
+
+    /**
+     * Get the number of entries kept
+     * @return the entry count
+     */
+    public synchronized int size() {
+        return (int) (next - first);
+    }
+
+    /**
+     * Get an entry as a log line
+     * @param seq the sequence number of the entry
+     * @return the line, or null if the entry has been dropped or does not exist yet
+     */
+    public String format(long seq) {
+        long time;
+        String text;
+        synchronized (this) {
+            if (seq < first || seq >= next) {
+                return null;
+            }
+            int slot = (int) (seq % times.length);
+            time = times[slot];
+            text = texts[slot];
+        }
+        return "[" + formatTime(time) + "]: " + text;
+    }
+
+    /**
+     * Drop every entry. Sequence numbers keep counting.
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < texts.length; i++) {
+            texts[i] = null;
+        }
+        first = next;
+    }
+
+    /**
+     * Write the entries kept, oldest first, one per line
+     * @param out the writer
+     * @throws IOException if the entries cannot be written
+     */
+    public void writeTo(Writer out) throws IOException {
+        long from;
+        long to;
+        synchronized (this) {
+            from = first;
+            to = next;
+        }
+        for (long seq = from; seq < to; seq++) {
+            String line = format(seq);
+            if (line != null) {
+                out.write(line);
+                out.write('\n');
+            }
+        }
+    }
+
+    /**
+     * Format a timestamp to the minute. The text is reused for every entry made in the same minute.
+     * @param time the time in milliseconds
+     * @return the formatted time
+     */
+    public static String formatTime(long time) {
+        long minute = time / 60000;
+        Stamp stamp = lastStamp;
+        if (stamp.minute == minute) {
+            return stamp.text;
+        }
+        String text;
+        synchronized (dateFormat) {
+            text = dateFormat.format(new Date(time));
+        }
+        lastStamp = new Stamp(minute, text);
+        return text;
+    }
+}
@@ -0,0 +1,75 @@
+package edu.cmu.iot;
+
+import javax.swing.AbstractListModel;
+
+/**
+ * Shows an event log in a JList. The model does not copy the log: each row is formatted from the ring buffer when
+ * the list paints it, so only the visible rows are ever rendered. The rows the list knows about change only when
+ * refresh is called on the Swing thread, which keeps the list consistent while other threads add entries.
+ *
+ * Project: LG Exec Ed Program
+ * Copyright: Copyright (c) 2015 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 October 2026 - initial version
+ */
+class IoTEventLogModel extends AbstractListModel<String> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final IoTEventLog log;
+
+    // the entries the list knows about; only used on the Swing thread
+    private long shownFirst = 0;
+    private int shownSize = 0;
+
+    /**
+     * Create a model for a log
+     * @param l the log
+     */
+    IoTEventLogModel(IoTEventLog l) {
+        log = l;
+    }
+
+    @Override
+    public int getSize() {
+        return shownSize;
+    }
+
+    @Override
+    public String getElementAt(int index) {
+        String line = log.format(shownFirst + index);
+        return line == null ? "" : line; // dropped since the last refresh
+    }
+
+    /**
+     * Tell the list about entries added or dropped since the last refresh. Runs on the Swing thread.
+     */
+    void refresh() {
+        long first;
+        long next;
+        synchronized (log) {
+            first = log.getFirstSequence();
+            next = log.getNextSequence();
+        }
+
+        // the dropped entries are always at the top of the list
+        int dropped = (int) Math.min(Math.max(first - shownFirst, 0), shownSize);
+        if (first > shownFirst + shownSize) {
+            dropped = shownSize; // cleared, or more than a full log went by
+        }
+        if (dropped > 0) {
+            shownSize -= dropped;
+            shownFirst = first;
+            fireIntervalRemoved(this, 0, dropped - 1);
+        } else if (shownSize == 0) {
+            shownFirst = first;
+        }
+
+        int added = (int) (next - shownFirst) - shownSize;
+        if (added > 0) {
+            int start = shownSize;
+            shownSize += added;
+            fireIntervalAdded(this, start, shownSize - 1);
+        }
+    }
+}
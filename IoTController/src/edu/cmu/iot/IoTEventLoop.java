@@ -0,0 +1,79 @@
+package edu.cmu.iot;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A single-writer event loop for one house. Poll results, pushed updates, user commands and away timers are
+ * posted to a lock-free queue from any thread, and run one at a time in the order they were posted, so the house
+ * state is only ever changed by one thread and needs no locks. The loop does not own a thread: when events are
+ * waiting, it drains them on a poller worker (or a virtual thread), a batch at a time so a busy house does not
+ * starve the others.
+ *
+ * Project: LG Exec Ed Program
+ * Copyright: Copyright (c) 2015 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 October 2026 - initial version
+ */
+public class IoTEventLoop {
+
+    /** the most events run before giving the worker back */
+    private static final int MAX_BATCH = 64;
+
+    /** the events waiting to run */
+    private final ConcurrentLinkedQueue<Runnable> events = new ConcurrentLinkedQueue<Runnable>();
+
+    /** true while a drain is scheduled or running */
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    private final Runnable drainer = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    /**
+     * Queue an event. The event runs after every event posted before it.
+     * @param event the event
+     */
+    public void post(Runnable event) {
+        events.add(event);
+        scheduleDrain();
+    }
+
+    /**
+     * Schedule a drain unless one is already scheduled or running
+     */
+    private void scheduleDrain() {
+        if (scheduled.compareAndSet(false, true)) {
+            IoTPoller.getPoller().execute(drainer);
+        }
+    }
+
+    /**
+     * Run a batch of events
+     */
+    private void drain() {
+        try {
+            for (int i = 0; i < MAX_BATCH; i++) {
+                Runnable event = events.poll();
+                if (event == null) {
+                    break;
+                }
+                try {
+                    event.run();
+                } catch (RuntimeException re) {
+                    // one bad event must not stop the house
+                    re.printStackTrace();
+                }
+            }
+        } finally {
+            scheduled.set(false);
+        }
+        // events may have been posted after the batch ended or after the last poll but before the flag cleared
+        if (!events.isEmpty()) {
+            scheduleDrain();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package edu.cmu.iot;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Selects how the controller runs one-off per-house work, such as draining a house event loop. In the default
+ * platform mode this work shares the poller workers. In virtual mode each task runs on its own virtual thread, so
+ * a task that blocks does not tie up a pool thread. House polls never block and away timers are served by the
+ * shared timer wheel, so neither needs a thread of its own in either mode.
+ * The mode is chosen with the iot.execution system property (platform or virtual). Virtual threads need Java 21
+ * or later; on older runtimes virtual mode falls back to platform threads.
+ *
+ * Project: LG Exec Ed Program
+ * Copyright: Copyright (c) 2015 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 October 2026 - initial version
+ */
+public abstract class IoTExecution {
+
+    /** the execution modes */
+    public enum Mode { PLATFORM, VIRTUAL }
+
+    /** the selected mode */
+    private static Mode mode = null;
+
+    /** creates the threads for virtual mode */
+    private static ThreadFactory virtualThreads = null;
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    /**
+     * Get the execution mode
+     * @return the mode
+     */
+    public static synchronized Mode getMode() {
+        if (mode == null) {
+            String requested = System.getProperty("iot.execution", "platform");
+            setMode(requested.equalsIgnoreCase("virtual") ? Mode.VIRTUAL : Mode.PLATFORM);
+        }
+        return mode;
+    }
+
+    /**
+     * Select the execution mode. This must be done before connecting to any house.
+     * @param m the mode
+     */
+    public static synchronized void setMode(Mode m) {
+        if (m == Mode.VIRTUAL && virtualThreads == null) {
+            virtualThreads = createVirtualThreadFactory();
+            if (virtualThreads == null) {
+                System.out.println("Virtual threads are not available on this Java runtime; using platform threads");
+                m = Mode.PLATFORM;
+            }
+        }
+        mode = m;
+    }
+
+    /**
+     * Is virtual mode selected
+     * @return true if per-house work runs on virtual threads
+     */
+    public static boolean isVirtual() {
+        return getMode() == Mode.VIRTUAL;
+    }
+
+    /**
+     * Start a thread for per-house work. In virtual mode this is a virtual thread; otherwise it is a daemon
+     * platform thread.
+     * @param name the thread name
+     * @param task the work
+     * @return the started thread
+     */
+    public static Thread start(String name, Runnable task) {
+        Thread t;
+        if (isVirtual()) {
+            t = virtualThreads.newThread(task);
+            t.setName(name);
+        } else {
+            t = new Thread(task, name);
+            t.setDaemon(true);
+        }
+        t.start();
+        return t;
+    }
+
+    /**
+     * Run a task on its own thread
+     * @param task the work
+     */
+    public static void execute(Runnable task) {
+        start("IoT task " + threadCount.incrementAndGet(), task);
+    }
+
+    /**
+     * Look up Thread.ofVirtual().factory() without requiring a Java 21 compiler
+     * @return the factory, or null if virtual threads are not available
+     */
+    private static ThreadFactory createVirtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,550 @@
+package edu.cmu.iot;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Simulates many houses in one process, for load testing the controller. Each house listens on its own address
+ * and port and answers like the house firmware: requests end with '.', GS gets the state as an SU line, SS sets
+ * the light, door and alarm and gets OK, SB subscribes the connection to pushed updates and gets OK, and anything
+ * else gets an empty line. A subscribed connection is sent the state whenever the door or proximity sensor
+ * changes, as the firmware does. Every house is served by one selector thread.
+ *
+ * Houses either share a port on consecutive loopback addresses (127.0.1.1, 127.0.1.2, ... all reach this host on
+ * Linux), which is what the controller expects, or share an address on consecutive ports, which the controller
+ * reaches with addresses of the form host:port.
+ *
+ * Once a second the temperature and humidity of each house drift at random, and the occupant comes or goes with
+ * the configured probability. Responses can be delayed, and requests dropped without a response, to see how the
+ * controller copes with a slow or lossy network.
+ *
+ * usage: IoTHouseSimulator [-houses n] [-address first] [-port port] [-ports] [-drift degrees] [-away rate]
+ *                          [-latency ms] [-jitter ms] [-loss fraction] [-seed n]
+ *
+ * Project: LG Exec Ed Program
+ * Copyright: Copyright (c) 2015 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 October 2026 - initial version
+ */
+public class IoTHouseSimulator implements Runnable {
+
+    /** the time between sensor updates in milliseconds */
+    private static final long TICK = 1000;
+
+    /** the time between statistics reports in milliseconds */
+    private static final long REPORT_INTERVAL = 10000;
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final byte[] OK_LINE = "OK\r\n".getBytes(ASCII);
+    private static final byte[] EMPTY_LINE = "\r\n".getBytes(ASCII);
+
+    /** the longest request accepted; a longer one is dropped with its connection */
+    private static final int MAX_REQUEST = 1024;
+
+    /** How the simulated houses behave */
+    public static class Config {
+        /** the number of houses */
+        public int houses = 1;
+
+        /** the address of the first house */
+        public String address = "127.0.0.1";
+
+        /** the port of the first house */
+        public int port = 5050;
+
+        /** true to put the houses on consecutive ports instead of consecutive addresses */
+        public boolean usePorts = false;
+
+        /** the most the temperature moves in a second, in degrees; humidity moves the same amount in percent */
+        public double drift = 0.05;
+
+        /** the chance each second that the occupant comes or goes */
+        public double proximityRate = 1.0 / 600;
+
+        /** the delay before each response in milliseconds, and the most added at random */
+        public long latency = 0;
+        public long jitter = 0;
+
+        /** the fraction of requests dropped without a response */
+        public double loss = 0;
+
+        /** the seed for the random sensor changes */
+        public long seed = 1;
+    }
+
+    /**
+     * A simulated house
+     */
+    private static class House {
+        final String name;
+
+        // the house state, changed on the simulator thread only
+        boolean light = false;
+        boolean door = false;
+        boolean alarm = false;
+        boolean occupied = true;
+        double temperature;
+        double humidity;
+
+        /** the connections that subscribed to pushed updates */
+        final List<Client> subscribers = new ArrayList<Client>();
+
+        House(String n, double temp, double hum) {
+            name = n;
+            temperature = temp;
+            humidity = hum;
+        }
+
+        /**
+         * Get the state in the form the firmware reports it
+         */
+        byte[] stateLine() {
+            StringBuilder sb = new StringBuilder(48);
+            sb.append("SU:DS=").append(door ? 1 : 0)
+                    .append(";TR=").append((int) temperature)
+                    .append(";HR=").append((int) humidity)
+                    .append(";LS=").append(light ? 1 : 0)
+                    .append(";AS=").append(alarm ? 1 : 0)
+                    .append(";PS=").append(occupied ? 1 : 0)
+                    .append(".\r\n");
+            return sb.toString().getBytes(ASCII);
+        }
+
+        /**
+         * Apply a set state request body, for example DS=1;LS=0;
+         */
+        void setState(String body) {
+            for (String item : body.split(";")) {
+                int eq = item.indexOf('=');
+                if (eq < 0) {
+                    continue;
+                }
+                String key = item.substring(0, eq);
+                boolean on = item.substring(eq + 1).equals("1");
+                if (key.equals(IoTValues.DOOR_STATE)) {
+                    door = on;
+                } else if (key.equals(IoTValues.LIGHT_STATE)) {
+                    light = on;
+                } else if (key.equals(IoTValues.ALARM_STATE)) {
+                    alarm = on;
+                }
+                // like the firmware, the HVAC and humidifier are not implemented
+            }
+        }
+    }
+
+    /**
+     * A connection from a controller
+     */
+    private static class Client {
+        final House house;
+        final SocketChannel socket;
+        final SelectionKey key;
+        final StringBuilder request = new StringBuilder();
+        ByteBuffer pending = null;
+
+        /** when the last delayed response is due; responses on a connection stay in order */
+        long lastDue = 0;
+
+        Client(House h, SocketChannel s, SelectionKey k) {
+            house = h;
+            socket = s;
+            key = k;
+        }
+    }
+
+    /**
+     * A response waiting for its injected latency
+     */
+    private static class Delayed implements Comparable<Delayed> {
+        final long due;
+        final long order;
+        final Client client;
+        final byte[] data;
+
+        Delayed(long d, long o, Client c, byte[] b) {
+            due = d;
+            order = o;
+            client = c;
+            data = b;
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            if (due != other.due) {
+                return due < other.due ? -1 : 1;
+            }
+            // responses due at the same time go out in the order they were made
+            return order < other.order ? -1 : (order == other.order ? 0 : 1);
+        }
+    }
+
+    private final Config config;
+    private final Selector selector;
+    private final List<House> houses = new ArrayList<House>();
+    private final PriorityQueue<Delayed> delayed = new PriorityQueue<Delayed>();
+    private long delayedCount = 0;
+    private final Random random;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(4096);
+
+    // statistics, only used on the simulator thread
+    private long requests = 0;
+    private long dropped = 0;
+    private long pushes = 0;
+    private int connections = 0;
+
+    private volatile boolean running = true;
+
+    /**
+     * Create the houses and start listening
+     * @param cfg how the houses behave
+     * @throws IOException if a house cannot listen on its address
+     */
+    public IoTHouseSimulator(Config cfg) throws IOException {
+        config = cfg;
+        random = new Random(cfg.seed);
+        selector = Selector.open();
+
+        byte[] first = InetAddress.getByName(cfg.address).getAddress();
+        for (int i = 0; i < cfg.houses; i++) {
+            InetSocketAddress endpoint;
+            if (cfg.usePorts) {
+                endpoint = new InetSocketAddress(InetAddress.getByAddress(first), cfg.port + i);
+            } else {
+                endpoint = new InetSocketAddress(InetAddress.getByAddress(offset(first, i)), cfg.port);
+            }
+            ServerSocketChannel server = ServerSocketChannel.open();
+            server.configureBlocking(false);
+            server.socket().setReuseAddress(true);
+            server.socket().bind(endpoint, 50);
+
+            String name = endpoint.getAddress().getHostAddress() + (cfg.usePorts ? ":" + endpoint.getPort() : "");
+            House house = new House(name, 65 + random.nextInt(10), 35 + random.nextInt(20));
+            houses.add(house);
+            server.register(selector, SelectionKey.OP_ACCEPT, house);
+        }
+    }
+
+    /**
+     * Get the address of each house, as the controller connects to it
+     * @return the house addresses
+     */
+    public List<String> getHouseAddresses() {
+        List<String> names = new ArrayList<String>();
+        for (House h : houses) {
+            names.add(h.name);
+        }
+        return names;
+    }
+
+    /**
+     * Stop the simulator
+     */
+    public void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    /**
+     * Serve the houses until stopped
+     */
+    @Override
+    public void run() {
+        long nextTick = System.currentTimeMillis() + TICK;
+        long nextReport = System.currentTimeMillis() + REPORT_INTERVAL;
+        try {
+            while (running) {
+                long now = System.currentTimeMillis();
+                long wait = nextTick - now;
+                Delayed head = delayed.peek();
+                if (head != null) {
+                    wait = Math.min(wait, head.due - now);
+                }
+                if (wait > 0) {
+                    selector.select(wait);
+                } else {
+                    selector.selectNow();
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept(key);
+                        } else {
+                            if (key.isReadable()) {
+                                read((Client) key.attachment());
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                flush((Client) key.attachment());
+                            }
+                        }
+                    } catch (IOException ioe) {
+                        if (key.attachment() instanceof Client) {
+                            close((Client) key.attachment());
+                        }
+                    }
+                }
+
+                now = System.currentTimeMillis();
+                while (!delayed.isEmpty() && delayed.peek().due <= now) {
+                    Delayed d = delayed.poll();
+                    send(d.client, d.data);
+                }
+                if (now >= nextTick) {
+                    tick();
+                    nextTick += TICK;
+                    if (nextTick < now) {
+                        nextTick = now + TICK; // the thread fell behind; do not catch up
+                    }
+                }
+                if (now >= nextReport) {
+                    System.out.println(houses.size() + " houses, " + connections + " connections, "
+                            + requests * 1000 / REPORT_INTERVAL + " requests/s, " + pushes + " pushes, "
+                            + dropped + " dropped");
+                    requests = 0;
+                    pushes = 0;
+                    dropped = 0;
+                    nextReport = now + REPORT_INTERVAL;
+                }
+            }
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+    }
+
+    private void accept(SelectionKey key) throws IOException {
+        SocketChannel socket = ((ServerSocketChannel) key.channel()).accept();
+        if (socket == null) {
+            return;
+        }
+        socket.configureBlocking(false);
+        socket.socket().setTcpNoDelay(true);
+        SelectionKey clientKey = socket.register(selector, SelectionKey.OP_READ);
+        clientKey.attach(new Client((House) key.attachment(), socket, clientKey));
+        connections++;
+    }
+
+    private void read(Client c) throws IOException {
+        readBuffer.clear();
+        int n = c.socket.read(readBuffer);
+        if (n < 0) {
+            close(c);
+            return;
+        }
+        for (int i = 0; i < n; i++) {
+            char ch = (char) readBuffer.get(i);
+            if (ch == '.') {
+                handleRequest(c, c.request.toString().trim());
+                c.request.setLength(0);
+            } else if (c.request.length() < MAX_REQUEST) {
+                c.request.append(ch);
+            } else {
+                close(c);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Answer a request the way the firmware does
+     * @param c the connection
+     * @param req the request without its terminating '.'
+     */
+    private void handleRequest(Client c, String req) {
+        requests++;
+        if (config.loss > 0 && random.nextDouble() < config.loss) {
+            dropped++;
+            return;
+        }
+
+        House h = c.house;
+        byte[] response;
+        if (req.startsWith(IoTValues.SET_STATE)) {
+            int colon = req.indexOf(':');
+            h.setState(colon < 0 ? "" : req.substring(colon + 1));
+            response = OK_LINE;
+        } else if (req.startsWith(IoTValues.GET_STATE)) {
+            response = h.stateLine();
+        } else if (req.startsWith(IoTValues.SUBSCRIBE)) {
+            if (!h.subscribers.contains(c)) {
+                h.subscribers.add(c);
+            }
+            response = OK_LINE;
+        } else {
+            response = EMPTY_LINE;
+        }
+        respond(c, response);
+    }
+
+    /**
+     * Send a response after the injected latency
+     */
+    private void respond(Client c, byte[] data) {
+        long delay = config.latency;
+        if (config.jitter > 0) {
+            delay += (long) (random.nextDouble() * config.jitter);
+        }
+        if (delay > 0 || c.lastDue > System.currentTimeMillis()) {
+            c.lastDue = Math.max(System.currentTimeMillis() + delay, c.lastDue);
+            delayed.add(new Delayed(c.lastDue, delayedCount++, c, data));
+        } else {
+            send(c, data);
+        }
+    }
+
+    /**
+     * Queue data on a connection and write as much as the socket takes
+     */
+    private void send(Client c, byte[] data) {
+        if (!c.key.isValid()) {
+            return;
+        }
+        if (c.pending == null) {
+            c.pending = ByteBuffer.wrap(data);
+        } else {
+            ByteBuffer joined = ByteBuffer.allocate(c.pending.remaining() + data.length);
+            joined.put(c.pending).put(data).flip();
+            c.pending = joined;
+        }
+        try {
+            flush(c);
+        } catch (IOException ioe) {
+            close(c);
+        }
+    }
+
+    private void flush(Client c) throws IOException {
+        if (c.pending != null) {
+            c.socket.write(c.pending);
+            if (!c.pending.hasRemaining()) {
+                c.pending = null;
+            }
+        }
+        c.key.interestOps(c.pending == null ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    private void close(Client c) {
+        if (!c.socket.isOpen()) {
+            return;
+        }
+        c.house.subscribers.remove(c);
+        c.key.cancel();
+        try {
+            c.socket.close();
+        } catch (IOException ioe) {
+            // already closed
+        }
+        connections--;
+    }
+
+    /**
+     * Move the sensors of every house, and push the state to subscribers when the door or occupant changed
+     */
+    private void tick() {
+        for (House h : houses) {
+            h.temperature += (random.nextDouble() * 2 - 1) * config.drift;
+            h.humidity = Math.max(0, Math.min(100, h.humidity + (random.nextDouble() * 2 - 1) * config.drift));
+
+            boolean changed = false;
+            if (random.nextDouble() < config.proximityRate) {
+                h.occupied = !h.occupied;
+                changed = true;
+            }
+            if (changed && !h.subscribers.isEmpty()) {
+                byte[] line = h.stateLine();
+                // a subscriber may be closed while pushing, so push to a copy
+                for (Client c : new ArrayList<Client>(h.subscribers)) {
+                    respond(c, line);
+                    pushes++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Add to an IPv4 address
+     */
+    private static byte[] offset(byte[] addr, int n) {
+        byte[] result = addr.clone();
+        int carry = n;
+        for (int i = result.length - 1; i >= 0 && carry != 0; i--) {
+            int sum = (result[i] & 0xFF) + carry;
+            result[i] = (byte) sum;
+            carry = sum >>> 8;
+        }
+        return result;
+    }
+
+    /**
+     * Run the simulator from the command line
+     * @param args the options
+     */
+    public static void main(String[] args) {
+        Config cfg = new Config();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("-ports")) {
+                    cfg.usePorts = true;
+                } else if (i + 1 < args.length) {
+                    String value = args[++i];
+                    if (arg.equals("-houses")) {
+                        cfg.houses = Integer.parseInt(value);
+                    } else if (arg.equals("-address")) {
+                        cfg.address = value;
+                    } else if (arg.equals("-port")) {
+                        cfg.port = Integer.parseInt(value);
+                    } else if (arg.equals("-drift")) {
+                        cfg.drift = Double.parseDouble(value);
+                    } else if (arg.equals("-away")) {
+                        cfg.proximityRate = Double.parseDouble(value);
+                    } else if (arg.equals("-latency")) {
+                        cfg.latency = Long.parseLong(value);
+                    } else if (arg.equals("-jitter")) {
+                        cfg.jitter = Long.parseLong(value);
+                    } else if (arg.equals("-loss")) {
+                        cfg.loss = Double.parseDouble(value);
+                    } else if (arg.equals("-seed")) {
+                        cfg.seed = Long.parseLong(value);
+                    } else {
+                        throw new IllegalArgumentException(arg);
+                    }
+                } else {
+                    throw new IllegalArgumentException(arg);
+                }
+            }
+        } catch (IllegalArgumentException iae) {
+            System.out.println("usage: IoTHouseSimulator [-houses n] [-address first] [-port port] [-ports] "
+                    + "[-drift degrees] [-away rate] [-latency ms] [-jitter ms] [-loss fraction] [-seed n]");
+            return;
+        }
+
+        try {
+            IoTHouseSimulator sim = new IoTHouseSimulator(cfg);
+            List<String> names = sim.getHouseAddresses();
+            System.out.println("Simulating " + names.size() + " houses, " + names.get(0)
+                    + (names.size() > 1 ? " to " + names.get(names.size() - 1) : ""));
+            sim.run();
+        } catch (IOException ioe) {
+            System.out.println("Cannot start the houses: " + ioe.getMessage());
+        }
+    }
+}
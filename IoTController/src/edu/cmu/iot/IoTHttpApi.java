@@ -0,0 +1,624 @@
+package edu.cmu.iot;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * An HTTP interface to the controllers of many houses, built on the JDK's HTTP server. States are JSON objects
+ * keyed by the protocol names of the fields, as in {"DS":0,"LS":1,"TT":70}.
+ *
+ * GET  /houses             the state of every house
+ * GET  /houses/{address}   the state of one house
+ * POST /houses             change many houses at once. The body maps house addresses, or * for every house, to
+ *                          the requested states, as in {"10.0.0.5":{"LS":0},"*":{"AS":1}}. The alarm passcode is
+ *                          given as "PC". Each change is evaluated by the rules of its house like a change made
+ *                          in the control window, and the response maps each address to its outcome.
+ *
+ * Every request must carry HTTP Basic credentials of an operator. Failed attempts are limited per user and per
+ * client address; a client over the limit is told when to try again. Passwords are hashed slowly on purpose, so
+ * credentials that were accepted are trusted for a short while without being checked again; a client polling
+ * with the same credentials only pays for the first check. The interface only runs without a login
+ * handler, open to anyone who can reach it, if the iot.http.open property is set to true.
+ *
+ * Project: LG Exec Ed Program
+ * Copyright: Copyright (c) 2015 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 October 2026 - initial version
+ */
+public class IoTHttpApi {
+
+    /** milliseconds a batch waits for the houses; can be set with the iot.http.timeout property */
+    public static final int DEFAULT_TIMEOUT = 5000;
+
+    /**
+     * seconds that accepted credentials are trusted without checking them again; can be set with the
+     * iot.http.auth.cache property
+     */
+    public static final int DEFAULT_AUTH_CACHE = 60;
+
+    /** the most credentials trusted at once */
+    private static final int MAX_TRUSTED = 256;
+
+    /** the property that lets the interface run without credentials */
+    public static final String OPEN_PROPERTY = "iot.http.open";
+
+    /** the largest request body accepted */
+    private static final int MAX_BODY = 1 << 20;
+
+    /** the fields a request may set; the same ones the control window sets */
+    private static final int USER_FIELDS = HouseState.TARGET_TEMP | HouseState.HUMIDIFIER | HouseState.DOOR
+            | HouseState.LIGHT | HouseState.PROXIMITY | HouseState.ALARM | HouseState.HVAC_HEATER;
+
+    private static final String ALL_HOUSES = "*";
+    private static final String PREFIX = "/houses";
+
+    /** The outcome of the change asked for one house; filled in on the house event loop */
+    private static class Outcome {
+        volatile HouseState result = null;
+        volatile long fired = 0;
+        volatile IoTRequest sent = null;
+        String error = null;
+    }
+
+    private final Map<String, IoTControlManager> houses;
+    private final LoginHandler login;
+    private final HttpServer server;
+    private final ExecutorService workers;
+    private final long timeout;
+    private final long authCache;
+
+    /** the expiry times of accepted credentials, keyed by a digest of the Authorization header */
+    private final ConcurrentMap<String, Long> trusted = new ConcurrentHashMap<String, Long>();
+
+    /**
+     * Create the interface. Nothing is served until start is called.
+     * @param address the address to listen on
+     * @param houses the controllers, by house address
+     * @param login checks the credentials of each request; null to accept every request, which is only allowed
+     *              if iot.http.open is true
+     * @throws IOException if the address cannot be bound
+     * @throws IllegalArgumentException if there is no login handler and iot.http.open is not true
+     */
+    public IoTHttpApi(InetSocketAddress address, Map<String, IoTControlManager> houses, LoginHandler login)
+            throws IOException {
+        if (login == null && !isOpenAllowed()) {
+            throw new IllegalArgumentException("the control API needs operator credentials unless "
+                    + OPEN_PROPERTY + " is true");
+        }
+        this.houses = Collections.unmodifiableMap(new LinkedHashMap<String, IoTControlManager>(houses));
+        this.login = login;
+        this.timeout = Integer.getInteger("iot.http.timeout", DEFAULT_TIMEOUT);
+        this.authCache = Integer.getInteger("iot.http.auth.cache", DEFAULT_AUTH_CACHE) * 1000L;
+
+        workers = Executors.newFixedThreadPool(Integer.getInteger("iot.http.threads", 4), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "http api");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        server = HttpServer.create(address, 0);
+        server.setExecutor(workers);
+        server.createContext(PREFIX, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    if (authorized(exchange)) {
+                        route(exchange);
+                    }
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                    respond(exchange, 500, error(e.toString()));
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Find out if the interface may run without credentials
+     * @return true if the iot.http.open property is true
+     */
+    public static boolean isOpenAllowed() {
+        return Boolean.getBoolean(OPEN_PROPERTY);
+    }
+
+    /**
+     * Start serving
+     */
+    public void start() {
+        server.start();
+        System.out.println("Control API listening on " + server.getAddress());
+    }
+
+    /**
+     * Stop serving, letting requests in progress finish for up to a second
+     */
+    public void stop() {
+        server.stop(1);
+        workers.shutdown();
+    }
+
+    /**
+     * Get the address the interface listens on
+     * @return the address
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * Check the credentials of a request, answering it if they are missing or wrong
+     * @param exchange the exchange
+     * @return true if the request may go ahead
+     * @throws IOException if the answer cannot be sent
+     */
+    private boolean authorized(HttpExchange exchange) throws IOException {
+        if (login == null) {
+            return true;
+        }
+        String user = null;
+        String password = null;
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        String key = null;
+        if (header != null && authCache > 0) {
+            key = digest(header);
+            Long until = trusted.get(key);
+            if (until != null) {
+                if (until > System.currentTimeMillis()) {
+                    return true;
+                }
+                trusted.remove(key, until);
+            }
+        }
+        if (header != null && header.regionMatches(true, 0, "Basic ", 0, 6)) {
+            byte[] decoded = fromBase64(header.substring(6).trim());
+            if (decoded != null) {
+                String credentials = new String(decoded, "UTF-8");
+                int colon = credentials.indexOf(':');
+                if (colon > 0) {
+                    user = credentials.substring(0, colon);
+                    password = credentials.substring(colon + 1);
+                }
+            }
+        }
+        if (user != null) {
+            try {
+                if (login.authenticate(user, password, exchange.getRemoteAddress().getAddress().getHostAddress())) {
+                    if (key != null) {
+                        trust(key);
+                    }
+                    return true;
+                }
+            } catch (LoginAttemptsExceededException e) {
+                exchange.getResponseHeaders().set("Retry-After", String.valueOf((e.getRetryAfter() + 999) / 1000));
+                respond(exchange, 429, error("too many login attempts"));
+                return false;
+            }
+        }
+        exchange.getResponseHeaders().set("WWW-Authenticate", "Basic realm=\"IoT house\"");
+        respond(exchange, 401, error("operator credentials required"));
+        return false;
+    }
+
+    /**
+     * Trust accepted credentials for a while. When too many are trusted the expired ones are dropped, and if
+     * that is not enough every one is, so the map stays small whatever clients send.
+     * @param key the digest of the Authorization header
+     */
+    private void trust(String key) {
+        long now = System.currentTimeMillis();
+        if (trusted.size() >= MAX_TRUSTED) {
+            Iterator<Map.Entry<String, Long>> it = trusted.entrySet().iterator();
+            while (it.hasNext()) {
+                if (it.next().getValue() <= now) {
+                    it.remove();
+                }
+            }
+            if (trusted.size() >= MAX_TRUSTED) {
+                trusted.clear();
+            }
+        }
+        trusted.put(key, now + authCache);
+    }
+
+    /**
+     * Digest an Authorization header, so the passwords of trusted credentials are not kept
+     * @param header the header
+     * @return the SHA-256 digest, one char per byte
+     */
+    private static String digest(String header) {
+        try {
+            byte[] d = MessageDigest.getInstance("SHA-256").digest(header.getBytes("UTF-8"));
+            return new String(d, "ISO-8859-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void route(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getRawPath();
+
+        if (path.equals(PREFIX) || path.equals(PREFIX + "/")) {
+            if (method.equals("GET")) {
+                respond(exchange, 200, listHouses());
+            } else if (method.equals("POST")) {
+                String body = readBody(exchange);
+                if (body == null) {
+                    respond(exchange, 413, error("request body too large"));
+                    return;
+                }
+                Object batch;
+                try {
+                    batch = IoTJson.parse(body);
+                } catch (IllegalArgumentException e) {
+                    respond(exchange, 400, error(e.getMessage()));
+                    return;
+                }
+                if (!(batch instanceof Map)) {
+                    respond(exchange, 400, error("expected an object of house addresses"));
+                    return;
+                }
+                respond(exchange, 200, applyBatch(castMap(batch)));
+            } else {
+                exchange.getResponseHeaders().set("Allow", "GET, POST");
+                respond(exchange, 405, error("method not allowed"));
+            }
+            return;
+        }
+
+        if (!path.startsWith(PREFIX + "/")) {
+            respond(exchange, 404, error("not found"));
+            return;
+        }
+        if (!method.equals("GET")) {
+            exchange.getResponseHeaders().set("Allow", "GET");
+            respond(exchange, 405, error("method not allowed"));
+            return;
+        }
+        String address = decode(path.substring(PREFIX.length() + 1));
+        IoTControlManager controller = houses.get(address);
+        if (controller == null) {
+            respond(exchange, 404, error("unknown house " + address));
+            return;
+        }
+        StringBuilder out = new StringBuilder();
+        appendHouse(out, address, controller);
+        respond(exchange, 200, out);
+    }
+
+    private CharSequence listHouses() {
+        StringBuilder out = new StringBuilder("{\"houses\":[");
+        boolean first = true;
+        for (Map.Entry<String, IoTControlManager> e : houses.entrySet()) {
+            if (!first) {
+                out.append(',');
+            }
+            first = false;
+            appendHouse(out, e.getKey(), e.getValue());
+        }
+        return out.append("]}");
+    }
+
+    private void appendHouse(StringBuilder out, String address, IoTControlManager controller) {
+        out.append("{\"address\":");
+        IoTJson.quote(out, address);
+        out.append(",\"connected\":").append(controller.isConnected());
+        out.append(",\"state\":");
+        appendState(out, controller.getStateSnapshot());
+        out.append('}');
+    }
+
+    /**
+     * Evaluate the requested changes. Every change is submitted before any is waited for, so the houses work on
+     * them at the same time.
+     * @param batch the requested states by house address
+     * @return the outcomes by house address
+     */
+    private CharSequence applyBatch(Map<String, Object> batch) {
+        Map<String, HouseState> requests = new LinkedHashMap<String, HouseState>();
+        Map<String, Outcome> outcomes = new LinkedHashMap<String, Outcome>();
+
+        for (Map.Entry<String, Object> e : batch.entrySet()) {
+            List<String> targets = new ArrayList<String>();
+            if (e.getKey().equals(ALL_HOUSES)) {
+                targets.addAll(houses.keySet());
+            } else {
+                targets.add(e.getKey());
+            }
+            String problem = null;
+            HouseState state = null;
+            if (!(e.getValue() instanceof Map)) {
+                problem = "expected an object of state fields";
+            } else {
+                try {
+                    state = toState(castMap(e.getValue()));
+                } catch (IllegalArgumentException iae) {
+                    problem = iae.getMessage();
+                }
+            }
+            for (String address : targets) {
+                Outcome outcome = outcomes.get(address);
+                if (outcome == null) {
+                    outcome = new Outcome();
+                    outcomes.put(address, outcome);
+                }
+                IoTControlManager controller = houses.get(address);
+                if (outcome.error != null) {
+                    continue;
+                } else if (problem != null) {
+                    outcome.error = problem;
+                    requests.remove(address);
+                } else if (controller == null) {
+                    outcome.error = "unknown house";
+                } else if (!controller.isConnected()) {
+                    outcome.error = "not connected";
+                } else {
+                    // a later entry for the same house, such as *, adds to the earlier one
+                    HouseState merged = requests.get(address);
+                    if (merged == null) {
+                        merged = new HouseState();
+                    }
+                    merged.merge(state, HouseState.ALL);
+                    if (state.getPassCode() != null) {
+                        merged.setPassCode(state.getPassCode());
+                    }
+                    requests.put(address, merged);
+                }
+            }
+        }
+
+        final CountDownLatch evaluated = new CountDownLatch(requests.size());
+        for (Map.Entry<String, HouseState> e : requests.entrySet()) {
+            final Outcome outcome = outcomes.get(e.getKey());
+            houses.get(e.getKey()).submitStateUpdate(e.getValue(), new IoTControlManager.StateUpdateCallback() {
+                @Override
+                public void stateUpdated(HouseState result, long firedRules, IoTRequest sent) {
+                    outcome.fired = firedRules;
+                    outcome.sent = sent;
+                    outcome.result = result;
+                    evaluated.countDown();
+                }
+            });
+        }
+
+        long deadline = System.currentTimeMillis() + timeout;
+        try {
+            evaluated.await(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+
+        StringBuilder out = new StringBuilder("{\"results\":{");
+        boolean first = true;
+        for (Map.Entry<String, Outcome> e : outcomes.entrySet()) {
+            if (!first) {
+                out.append(',');
+            }
+            first = false;
+            IoTJson.quote(out, e.getKey()).append(':');
+            appendOutcome(out, houses.get(e.getKey()), e.getValue(), deadline);
+        }
+        return out.append("}}");
+    }
+
+    private void appendOutcome(StringBuilder out, IoTControlManager controller, Outcome outcome, long deadline) {
+        if (outcome.error != null) {
+            out.append("{\"status\":\"error\",\"error\":");
+            IoTJson.quote(out, outcome.error);
+            out.append('}');
+            return;
+        }
+        HouseState result = outcome.result;
+        if (result == null) {
+            out.append("{\"status\":\"timeout\",\"error\":\"the change was not evaluated in time\"}");
+            return;
+        }
+
+        String status;
+        String response = null;
+        try {
+            response = outcome.sent.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            status = IoTValues.OK.equals(response) ? "ok" : "failed";
+        } catch (TimeoutException te) {
+            status = "timeout";
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            status = "timeout";
+        }
+
+        out.append("{\"status\":\"").append(status).append("\",\"state\":");
+        appendState(out, result);
+        out.append(",\"fired\":[");
+        IoTRuleSet rules = controller.getRuleSet();
+        long fired = outcome.fired;
+        boolean first = true;
+        for (int rule = 0; rule < IoTRuleSet.MAX_RULES; rule++) {
+            if ((fired & (1L << rule)) != 0) {
+                if (!first) {
+                    out.append(',');
+                }
+                first = false;
+                IoTJson.quote(out, rule < rules.size() ? rules.getRuleText(rule) : String.valueOf(rule));
+            }
+        }
+        out.append(']');
+        if (status.equals("failed")) {
+            out.append(",\"error\":");
+            IoTJson.quote(out, response == null ? "the house did not answer" : "the house answered " + response);
+        }
+        out.append('}');
+    }
+
+    /**
+     * Convert a requested state from JSON
+     * @param fields the fields by protocol name
+     * @return the state
+     * @throws IllegalArgumentException if a field cannot be set or has a bad value
+     */
+    private static HouseState toState(Map<String, Object> fields) {
+        HouseState state = new HouseState();
+        for (Map.Entry<String, Object> e : fields.entrySet()) {
+            String key = e.getKey();
+            Object value = e.getValue();
+            if (key.equals(IoTValues.PASSCODE)) {
+                if (!(value instanceof String)) {
+                    throw new IllegalArgumentException("PC must be a string");
+                }
+                state.setPassCode((String) value);
+                continue;
+            }
+            int field = 0;
+            for (int i = 0; i < IoTStateCodec.FIELD_KEYS.length; i++) {
+                if (IoTStateCodec.FIELD_KEYS[i].equals(key)) {
+                    field = 1 << i;
+                    break;
+                }
+            }
+            if ((field & USER_FIELDS) == 0) {
+                throw new IllegalArgumentException("cannot set " + key);
+            }
+            if (value instanceof Boolean) {
+                if (field > HouseState.FLAGS) {
+                    throw new IllegalArgumentException(key + " must be a number");
+                }
+                state.set(field, (Boolean) value);
+            } else if (value instanceof Long) {
+                long v = (Long) value;
+                if (field > HouseState.FLAGS ? v != (int) v : (v != 0 && v != 1)) {
+                    throw new IllegalArgumentException("bad value for " + key + ": " + v);
+                }
+                state.setValue(field, (int) v);
+            } else {
+                throw new IllegalArgumentException("bad value for " + key);
+            }
+        }
+        return state;
+    }
+
+    private static void appendState(StringBuilder out, HouseState state) {
+        out.append('{');
+        boolean first = true;
+        for (int i = 0; i < IoTStateCodec.FIELD_KEYS.length; i++) {
+            int field = 1 << i;
+            if (state.has(field)) {
+                if (!first) {
+                    out.append(',');
+                }
+                first = false;
+                out.append('"').append(IoTStateCodec.FIELD_KEYS[i]).append("\":").append(state.getValue(field));
+            }
+        }
+        out.append('}');
+    }
+
+    private static CharSequence error(String msg) {
+        StringBuilder out = new StringBuilder("{\"error\":");
+        return IoTJson.quote(out, msg).append('}');
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> castMap(Object o) {
+        return (Map<String, Object>) o;
+    }
+
+    /**
+     * Decode base64 text
+     * @param text the text
+     * @return the bytes, or null if the text is not base64
+     */
+    private static byte[] fromBase64(String text) {
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        int end = text.length();
+        while (end > 0 && text.charAt(end - 1) == '=') {
+            end--;
+        }
+        if (text.length() % 4 != 0 || text.length() - end > 2) {
+            return null;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int bits = 0;
+        int count = 0;
+        for (int i = 0; i < end; i++) {
+            int v = alphabet.indexOf(text.charAt(i));
+            if (v < 0) {
+                return null;
+            }
+            bits = (bits << 6) | v;
+            count += 6;
+            if (count >= 8) {
+                count -= 8;
+                out.write((bits >> count) & 0xff);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static String decode(String s) {
+        try {
+            return URLDecoder.decode(s, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            return s;
+        }
+    }
+
+    /**
+     * Read the request body
+     * @param exchange the exchange
+     * @return the body, or null if it is too large
+     * @throws IOException if the body cannot be read
+     */
+    private static String readBody(HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            body.write(buf, 0, n);
+            if (body.size() > MAX_BODY) {
+                return null;
+            }
+        }
+        return body.toString("UTF-8");
+    }
+
+    private static void respond(HttpExchange exchange, int status, CharSequence json) throws IOException {
+        byte[] bytes = json.toString().getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream os = exchange.getResponseBody();
+        os.write(bytes);
+        os.close();
+    }
+}
@@ -0,0 +1,525 @@
+package edu.cmu.iot;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * An append-only binary journal of the house state evaluations. Every evaluation is written as one fixed-size
+ * record holding the state that was asked for, the state before and after the rules ran, and the rules that fired,
+ * so the journal answers why the controller did something without keeping any text. Records are written into
+ * memory-mapped segment files; a full segment is flushed and a new one started, and the oldest segments are
+ * deleted once there are more than the configured number. Appending copies a few fields into the mapped buffer
+ * and never waits for the disk, so it can run on the house event loop: the next segment is created and mapped by
+ * a background thread while the current one fills up, and a full segment is flushed and closed there too.
+ *
+ * A segment starts with a header record followed by the event records. A record is valid once its type byte is
+ * set, which is written last; the unused tail of a segment is zero.
+ *
+ * Records only hold the indexes of the rules that fired, so a rules record names the rule set in force whenever
+ * it changes and at the start of every segment. It holds a hash of the rules; the rules themselves are written
+ * once per hash to a rule file next to the segments, named by the hash, which the reader loads to show the rule
+ * text of each fired rule.
+ *
+ * Evaluation record layout (little endian):
+ *   0  long  time in milliseconds
+ *   8  long  the rules that fired, one bit per rule index
+ *  16  short the on/off fields asked for
+ *  18  short the fields asked for
+ *  20  short the on/off fields of the last evaluated state
+ *  22  short the on/off fields after the rules ran
+ *  24  short the fields known after the rules ran
+ *  26  byte  who asked for the change, one of the SOURCE values
+ *  27  byte  the record type
+ *  28  int   temperature reading
+ *  32  int   humidity reading
+ *  36  int   target temperature
+ *
+ * Rules record layout: the time at 0, the rule set hash at 8, the record type at 27 and the number of rules at 28.
+ *
+ * Project: LG Exec Ed Program
+ * Copyright: Copyright (c) 2015 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 October 2026 - initial version
+ */
+public class IoTJournal {
+
+    /** the size of a record in bytes */
+    public static final int RECORD_SIZE = 40;
+
+    /** the default number of records in a segment, about 5MB */
+    public static final int DEFAULT_SEGMENT_RECORDS = 128 * 1024;
+
+    /** the default number of segments kept */
+    public static final int DEFAULT_SEGMENTS = 32;
+
+    /** record types */
+    public static final byte TYPE_EVALUATION = 1;
+    public static final byte TYPE_RULES = 2;
+
+    /** the sources of a state change */
+    public static final byte SOURCE_HOUSE = 1;
+    public static final byte SOURCE_USER = 2;
+    public static final byte SOURCE_AWAY_TIMER = 3;
+
+    /** the file name suffix of a segment */
+    static final String SEGMENT_SUFFIX = ".iotj";
+
+    /** the file name suffix of a rule file */
+    static final String RULES_SUFFIX = ".rules";
+
+    // record field offsets
+    static final int TIME = 0;
+    static final int FIRED = 8;
+    static final int REQUESTED_FLAGS = 16;
+    static final int REQUESTED_PRESENT = 18;
+    static final int LAST_FLAGS = 20;
+    static final int FLAGS = 22;
+    static final int PRESENT = 24;
+    static final int SOURCE = 26;
+    static final int TYPE = 27;
+    static final int TEMP = 28;
+    static final int HUMIDITY = 32;
+    static final int TARGET = 36;
+
+    // rules record field offsets
+    static final int RULES_HASH = 8;
+    static final int RULES_COUNT = 28;
+
+    // header field offsets; the header takes the place of the first record
+    static final int MAGIC = 0;
+    static final int VERSION = 4;
+    static final int HEADER_RECORD_SIZE = 6;
+    static final int FIRST_SEQUENCE = 8;
+
+    static final int MAGIC_VALUE = 0x4A546F49; // "IoTJ"
+    static final short VERSION_VALUE = 2; // 2 added rules records
+
+    /** creates, flushes and deletes segments for every journal, so that the writers never wait for the disk */
+    private static final ExecutorService background = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "journal writer");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /** A mapped segment file */
+    private static class Segment {
+        final RandomAccessFile file;
+        final MappedByteBuffer buffer;
+        final File path;
+
+        Segment(RandomAccessFile file, MappedByteBuffer buffer, File path) {
+            this.file = file;
+            this.buffer = buffer;
+            this.path = path;
+        }
+    }
+
+    private final File directory;
+    private final int segmentRecords;
+    private final int maxSegments;
+
+    // the segment being written; only used by the writer
+    private RandomAccessFile segmentFile = null;
+    private MappedByteBuffer segment = null;
+    private int position = 0;
+
+    /** the next segment, being made by the background thread; null until the current one is half full */
+    private Future<Segment> nextSegment = null;
+
+    /** the sequence number of the next record */
+    private long nextSequence = 0;
+
+    /** the rules named by the last rules record, null if none */
+    private IoTRuleSet rules = null;
+
+    /**
+     * Open the journal in a directory with the configured sizes. The iot.journal.segment.records and
+     * iot.journal.segments system properties override the defaults.
+     * @param dir the journal directory, created if needed
+     * @throws IOException if the journal cannot be opened
+     */
+    public IoTJournal(File dir) throws IOException {
+        this(dir, Integer.getInteger("iot.journal.segment.records", DEFAULT_SEGMENT_RECORDS),
+                Integer.getInteger("iot.journal.segments", DEFAULT_SEGMENTS));
+    }
+
+    /**
+     * Open the journal in a directory. Writing continues after the last record of the newest segment.
+     * @param dir the journal directory, created if needed
+     * @param recordsPerSegment the number of records in a segment
+     * @param segments the number of segments kept
+     * @throws IOException if the journal cannot be opened
+     */
+    public IoTJournal(File dir, int recordsPerSegment, int segments) throws IOException {
+        directory = dir;
+        segmentRecords = recordsPerSegment;
+        maxSegments = Math.max(1, segments);
+
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create journal directory " + dir);
+        }
+
+        File[] existing = listSegments(dir);
+        if (existing.length > 1 && isEmpty(existing[existing.length - 1])) {
+            // made ahead of time but never written to; carry on in the segment before it
+            File unused = existing[existing.length - 1];
+            if (unused.delete()) {
+                existing = Arrays.copyOf(existing, existing.length - 1);
+            }
+        }
+        if (existing.length > 0) {
+            File last = existing[existing.length - 1];
+            RandomAccessFile raf = new RandomAccessFile(last, "rw");
+            MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            if (buf.limit() >= RECORD_SIZE && buf.getInt(MAGIC) == MAGIC_VALUE
+                    && buf.getShort(HEADER_RECORD_SIZE) == RECORD_SIZE) {
+                int pos = RECORD_SIZE;
+                while (pos + RECORD_SIZE <= buf.limit() && buf.get(pos + TYPE) != 0) {
+                    pos += RECORD_SIZE;
+                }
+                segmentFile = raf;
+                segment = buf;
+                position = pos;
+                nextSequence = buf.getLong(FIRST_SEQUENCE) + (pos / RECORD_SIZE) - 1;
+            } else {
+                raf.close();
+                System.out.println("Ignoring damaged journal segment " + last);
+                nextSequence = sequenceOf(last) + segmentRecords;
+            }
+        }
+    }
+
+    /**
+     * Append an evaluation. Called on the house event loop.
+     * @param time the time of the evaluation in milliseconds
+     * @param source who asked for the change, one of the SOURCE values
+     * @param requested the state that was asked for
+     * @param last the last evaluated state
+     * @param result the state after the rules ran
+     * @param ruleSet the rules that were evaluated; a rules record is written first if they changed
+     * @param fired the rules that fired, one bit per rule index
+     * @throws IOException if a new segment cannot be started
+     */
+    public synchronized void append(long time, byte source, HouseState requested, HouseState last,
+                                    HouseState result, IoTRuleSet ruleSet, long fired) throws IOException {
+        if (ruleSet != rules) {
+            rules = ruleSet;
+            saveRules(ruleSet);
+            appendRules(time);
+        }
+        int p = reserve(time, false);
+        MappedByteBuffer buf = segment;
+        buf.putLong(p + TIME, time);
+        buf.putLong(p + FIRED, fired);
+        buf.putShort(p + REQUESTED_FLAGS, (short) requested.getFlags());
+        buf.putShort(p + REQUESTED_PRESENT, (short) requested.getPresent());
+        buf.putShort(p + LAST_FLAGS, (short) last.getFlags());
+        buf.putShort(p + FLAGS, (short) result.getFlags());
+        buf.putShort(p + PRESENT, (short) result.getPresent());
+        buf.put(p + SOURCE, source);
+        buf.putInt(p + TEMP, result.getTempReading());
+        buf.putInt(p + HUMIDITY, result.getHumidityReading());
+        buf.putInt(p + TARGET, result.getTargetTemp());
+        buf.put(p + TYPE, TYPE_EVALUATION);
+        position = p + RECORD_SIZE;
+        nextSequence++;
+    }
+
+    /**
+     * Append a rules record for the current rules
+     * @param time the time in milliseconds
+     */
+    private void appendRules(long time) throws IOException {
+        int p = reserve(time, true);
+        MappedByteBuffer buf = segment;
+        buf.putLong(p + TIME, time);
+        buf.putLong(p + RULES_HASH, rules.getHash());
+        buf.putInt(p + RULES_COUNT, rules.size());
+        buf.put(p + TYPE, TYPE_RULES);
+        position = p + RECORD_SIZE;
+        nextSequence++;
+    }
+
+    /**
+     * Make room for a record, starting a new segment if the current one is full. A new segment starts with a
+     * rules record, so every segment can be read on its own.
+     * @param time the time of the record in milliseconds
+     * @param rulesRecord true if the record is a rules record, which needs no other in front of it
+     * @return the position of the record
+     */
+    private int reserve(long time, boolean rulesRecord) throws IOException {
+        if (segment == null || position + RECORD_SIZE > segment.limit()) {
+            roll();
+            if (rules != null && !rulesRecord) {
+                appendRules(time);
+            }
+        } else if (nextSegment == null && position > segment.limit() / 2) {
+            prepareNext();
+        }
+        return position;
+    }
+
+    /**
+     * Write a rule file for a rule set, unless there is one. The file is written by the background thread.
+     * @param ruleSet the rules
+     */
+    private void saveRules(final IoTRuleSet ruleSet) {
+        final File f = rulesFile(directory, ruleSet.getHash());
+        background.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (f.exists()) {
+                    return;
+                }
+                // written under another name first, so a reader never sees part of the file
+                File tmp = new File(f.getPath() + ".tmp");
+                try {
+                    Writer w = new OutputStreamWriter(new FileOutputStream(tmp), "US-ASCII");
+                    try {
+                        w.write(ruleSet.toRuleFile());
+                    } finally {
+                        w.close();
+                    }
+                    if (!tmp.renameTo(f)) {
+                        throw new IOException("cannot rename " + tmp);
+                    }
+                } catch (IOException ioe) {
+                    System.out.println("Cannot save the rules for the journal: " + ioe.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Get the rule file for a rule set
+     * @param dir the journal directory
+     * @param hash the hash of the rules
+     * @return the file
+     */
+    static File rulesFile(File dir, long hash) {
+        return new File(dir, String.format("%016x", hash) + RULES_SUFFIX);
+    }
+
+    /**
+     * Get the sequence number the next record will get
+     * @return the sequence number
+     */
+    public synchronized long getNextSequence() {
+        return nextSequence;
+    }
+
+    /**
+     * Get the journal directory
+     * @return the directory
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Write the records appended so far to disk
+     */
+    public synchronized void flush() {
+        if (segment != null) {
+            segment.force();
+        }
+    }
+
+    /**
+     * Flush and close the journal. This waits for the disk, so it is only done when the house is disconnected.
+     */
+    public synchronized void close() {
+        Segment unused = takeNext();
+        if (unused != null) {
+            closeSegment(unused.buffer, unused.file);
+            if (!unused.path.delete()) {
+                System.out.println("Cannot delete journal segment " + unused.path);
+            }
+        }
+        closeSegment(segment, segmentFile);
+        segment = null;
+        segmentFile = null;
+    }
+
+    /**
+     * Start the next segment, and hand the full one to the background thread to be flushed and closed
+     */
+    private void roll() throws IOException {
+        final MappedByteBuffer full = segment;
+        final RandomAccessFile fullFile = segmentFile;
+
+        Segment next = takeNext();
+        if (next != null && next.buffer.getLong(FIRST_SEQUENCE) != nextSequence) {
+            // made for a different sequence number; not expected, but a stale segment must not be written to
+            closeSegment(next.buffer, next.file);
+            next.path.delete();
+            next = null;
+        }
+        if (next == null) {
+            // the first segment, or the background thread fell behind
+            next = createSegment(directory, nextSequence, segmentRecords);
+        }
+        segmentFile = next.file;
+        segment = next.buffer;
+        position = RECORD_SIZE;
+
+        final File dir = directory;
+        final int keep = maxSegments;
+        background.execute(new Runnable() {
+            @Override
+            public void run() {
+                closeSegment(full, fullFile);
+                File[] segments = listSegments(dir);
+                for (int i = 0; i < segments.length - keep; i++) {
+                    if (!segments[i].delete()) {
+                        System.out.println("Cannot delete journal segment " + segments[i]);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Have the background thread make the segment that follows the current one
+     */
+    private void prepareNext() {
+        final File dir = directory;
+        final long first = nextSequence + (segment.limit() - position) / RECORD_SIZE;
+        final int records = segmentRecords;
+        nextSegment = background.submit(new Callable<Segment>() {
+            @Override
+            public Segment call() throws IOException {
+                return createSegment(dir, first, records);
+            }
+        });
+    }
+
+    /**
+     * Take the segment made by the background thread, waiting for it if it is not done yet
+     * @return the segment, or null if none was made
+     */
+    private Segment takeNext() {
+        Future<Segment> f = nextSegment;
+        nextSegment = null;
+        if (f == null) {
+            return null;
+        }
+        try {
+            return f.get();
+        } catch (ExecutionException ee) {
+            System.out.println("Cannot make the next journal segment: " + ee.getCause());
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    /**
+     * Create and map a segment and write its header
+     * @param dir the journal directory
+     * @param firstSequence the sequence number of the first record
+     * @param records the number of records in the segment
+     * @return the segment
+     */
+    private static Segment createSegment(File dir, long firstSequence, int records) throws IOException {
+        File f = new File(dir, String.format("%020d", firstSequence) + SEGMENT_SUFFIX);
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            long size = (long) (records + 1) * RECORD_SIZE;
+            raf.setLength(size);
+            MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            buf.putShort(VERSION, VERSION_VALUE);
+            buf.putShort(HEADER_RECORD_SIZE, (short) RECORD_SIZE);
+            buf.putLong(FIRST_SEQUENCE, firstSequence);
+            buf.putInt(MAGIC, MAGIC_VALUE);
+            return new Segment(raf, buf, f);
+        } catch (IOException ioe) {
+            raf.close();
+            throw ioe;
+        }
+    }
+
+    /**
+     * Flush and close a segment
+     * @param buf the mapped segment, may be null
+     * @param raf the segment file, may be null
+     */
+    private static void closeSegment(MappedByteBuffer buf, RandomAccessFile raf) {
+        if (buf != null) {
+            buf.force();
+        }
+        if (raf != null) {
+            try {
+                raf.close();
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Find out if a segment holds no records
+     * @param f the segment
+     * @return true if the segment is valid and empty
+     */
+    private static boolean isEmpty(File f) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            if (raf.length() < 2 * RECORD_SIZE) {
+                return false;
+            }
+            raf.seek(RECORD_SIZE + TYPE);
+            return raf.readByte() == 0;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * List the segments in a journal directory, oldest first
+     * @param dir the journal directory
+     * @return the segment files
+     */
+    static File[] listSegments(File dir) {
+        File[] files = dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File d, String name) {
+                return name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (files == null) {
+            return new File[0];
+        }
+        // the names are zero-padded sequence numbers, so they sort in order
+        Arrays.sort(files);
+        return files;
+    }
+
+    /**
+     * Get the first sequence number of a segment from its name
+     */
+    private static long sequenceOf(File segmentFile) {
+        String name = segmentFile.getName();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
@@ -0,0 +1,386 @@
+package edu.cmu.iot;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads the journal written by IoTJournal. Each segment is mapped read-only and the records are visited in place
+ * through a single reusable Record, so a scan allocates nothing per record and runs at memory speed. Segments that
+ * end before the start of the requested time range are skipped without being read. Only evaluations are visited;
+ * the rules records are used to tell each evaluation which rules were in force.
+ *
+ * The main method prints the records of a time range, with the text of the rules that fired, for example:
+ *   java edu.cmu.iot.IoTJournalReader journal/127.0.0.1 "Oct 18,2026 03:00:00" "Oct 18,2026 03:30:00"
+ *
+ * Project: LG Exec Ed Program
+ * Copyright: Copyright (c) 2015 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 October 2026 - initial version
+ */
+public class IoTJournalReader {
+
+    /** Receives the records of a scan */
+    public interface Visitor {
+        /**
+         * Visit a record. The record is only valid during the call.
+         * @param r the record
+         * @return true to continue the scan, false to stop it
+         */
+        boolean visit(Record r);
+    }
+
+    /** A view of one record in a mapped segment */
+    public static final class Record {
+        private MappedByteBuffer buf;
+        private int pos;
+        private long sequence;
+        private long rulesHash;
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * Get the rules that were in force
+         * @return the hash of the rules, to look up with getRules, or 0 if the journal does not say
+         */
+        public long getRulesHash() {
+            return rulesHash;
+        }
+
+        public long getTime() {
+            return buf.getLong(pos + IoTJournal.TIME);
+        }
+
+        /**
+         * Get the rules that fired
+         * @return one bit per rule index
+         */
+        public long getFiredRules() {
+            return buf.getLong(pos + IoTJournal.FIRED);
+        }
+
+        public int getRequestedFlags() {
+            return buf.getShort(pos + IoTJournal.REQUESTED_FLAGS);
+        }
+
+        public int getRequestedFields() {
+            return buf.getShort(pos + IoTJournal.REQUESTED_PRESENT);
+        }
+
+        public int getLastFlags() {
+            return buf.getShort(pos + IoTJournal.LAST_FLAGS);
+        }
+
+        public int getFlags() {
+            return buf.getShort(pos + IoTJournal.FLAGS);
+        }
+
+        public int getFields() {
+            return buf.getShort(pos + IoTJournal.PRESENT);
+        }
+
+        /**
+         * Get who asked for the change
+         * @return one of the IoTJournal SOURCE values
+         */
+        public byte getSource() {
+            return buf.get(pos + IoTJournal.SOURCE);
+        }
+
+        public int getTempReading() {
+            return buf.getInt(pos + IoTJournal.TEMP);
+        }
+
+        public int getHumidityReading() {
+            return buf.getInt(pos + IoTJournal.HUMIDITY);
+        }
+
+        public int getTargetTemp() {
+            return buf.getInt(pos + IoTJournal.TARGET);
+        }
+
+        /**
+         * Fill in a state with the result of the evaluation
+         * @param state the state to fill in
+         */
+        public void getState(HouseState state) {
+            state.clear();
+            int fields = getFields();
+            int flags = getFlags();
+            for (int f = 1; f <= HouseState.FLAGS; f <<= 1) {
+                if ((fields & f) != 0) {
+                    state.set(f, (flags & f) != 0);
+                }
+            }
+            if ((fields & HouseState.TEMP_READING) != 0) {
+                state.setTempReading(getTempReading());
+            }
+            if ((fields & HouseState.HUMIDITY_READING) != 0) {
+                state.setHumidityReading(getHumidityReading());
+            }
+            if ((fields & HouseState.TARGET_TEMP) != 0) {
+                state.setTargetTemp(getTargetTemp());
+            }
+        }
+    }
+
+    private final File directory;
+
+    /** the rules read so far, by hash; a null value marks a rule file that cannot be read */
+    private final Map<Long, IoTRuleSet> rules = new HashMap<Long, IoTRuleSet>();
+
+    /**
+     * Create a reader for a journal directory
+     * @param dir the journal directory
+     */
+    public IoTJournalReader(File dir) {
+        directory = dir;
+    }
+
+    /**
+     * Get the rules named by the rules records of the journal
+     * @param hash the hash of the rules
+     * @return the rules, or null if the journal does not have them
+     */
+    public IoTRuleSet getRules(long hash) {
+        Long key = hash;
+        if (rules.containsKey(key)) {
+            return rules.get(key);
+        }
+        IoTRuleSet ruleSet = null;
+        File f = IoTJournal.rulesFile(directory, hash);
+        if (hash != 0 && f.exists()) {
+            try {
+                FileReader fr = new FileReader(f);
+                try {
+                    ruleSet = new IoTRuleSet(f.getPath(), fr);
+                } finally {
+                    fr.close();
+                }
+            } catch (Exception e) {
+                System.out.println("Cannot read the rules " + f + ": " + e.getMessage());
+            }
+        }
+        rules.put(key, ruleSet);
+        return ruleSet;
+    }
+
+    /**
+     * Visit every record
+     * @param visitor receives the records
+     * @return the number of records visited
+     * @throws IOException if a segment cannot be read
+     */
+    public long scan(Visitor visitor) throws IOException {
+        return scan(Long.MIN_VALUE, Long.MAX_VALUE, visitor);
+    }
+
+    /**
+     * Visit the records in a time range, oldest first
+     * @param from the start of the range in milliseconds, inclusive
+     * @param to the end of the range in milliseconds, exclusive
+     * @param visitor receives the records
+     * @return the number of records visited
+     * @throws IOException if a segment cannot be read
+     */
+    public long scan(long from, long to, Visitor visitor) throws IOException {
+        File[] segments = IoTJournal.listSegments(directory);
+        Record r = new Record();
+        long visited = 0;
+
+        MappedByteBuffer next = segments.length > 0 ? map(segments[0]) : null;
+        for (int s = 0; s < segments.length; s++) {
+            MappedByteBuffer buf = next;
+            next = s + 1 < segments.length ? map(segments[s + 1]) : null;
+            if (buf == null) {
+                continue;
+            }
+            // the records of this segment all come before the first record of the next one
+            if (next != null && firstTime(next) < from) {
+                continue;
+            }
+
+            r.buf = buf;
+            r.sequence = buf.getLong(IoTJournal.FIRST_SEQUENCE);
+            r.rulesHash = 0; // every segment names its rules
+            int limit = buf.limit() - IoTJournal.RECORD_SIZE;
+            for (int pos = IoTJournal.RECORD_SIZE; pos <= limit; pos += IoTJournal.RECORD_SIZE) {
+                byte type = buf.get(pos + IoTJournal.TYPE);
+                if (type == 0) {
+                    break;
+                }
+                if (type != IoTJournal.TYPE_EVALUATION) {
+                    if (type == IoTJournal.TYPE_RULES) {
+                        r.rulesHash = buf.getLong(pos + IoTJournal.RULES_HASH);
+                    }
+                    r.sequence++;
+                    continue;
+                }
+                long time = buf.getLong(pos + IoTJournal.TIME);
+                if (time >= to) {
+                    return visited;
+                }
+                if (time >= from) {
+                    r.pos = pos;
+                    visited++;
+                    if (!visitor.visit(r)) {
+                        return visited;
+                    }
+                }
+                r.sequence++;
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Map a segment, or return null if it is not a valid segment
+     */
+    private static MappedByteBuffer map(File f) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            if (buf.limit() < IoTJournal.RECORD_SIZE || buf.getInt(IoTJournal.MAGIC) != IoTJournal.MAGIC_VALUE
+                    || buf.getShort(IoTJournal.HEADER_RECORD_SIZE) != IoTJournal.RECORD_SIZE) {
+                System.out.println("Skipping damaged journal segment " + f);
+                return null;
+            }
+            return buf;
+        } finally {
+            // the mapping stays valid after the file is closed
+            raf.close();
+        }
+    }
+
+    /**
+     * Get the time of the first record of a segment
+     */
+    private static long firstTime(MappedByteBuffer buf) {
+        if (buf.limit() < 2 * IoTJournal.RECORD_SIZE || buf.get(IoTJournal.RECORD_SIZE + IoTJournal.TYPE) == 0) {
+            return Long.MAX_VALUE;
+        }
+        return buf.getLong(IoTJournal.RECORD_SIZE + IoTJournal.TIME);
+    }
+
+    /**
+     * Describe a record on one line
+     * @param r the record
+     * @param rules the rules the controller was using, or null to show rule numbers only
+     * @param dateFormat formats the record time
+     * @return the description
+     */
+    public static String describe(Record r, IoTRuleSet rules, SimpleDateFormat dateFormat) {
+        StringBuilder sb = new StringBuilder();
+        sb.append('[').append(dateFormat.format(new Date(r.getTime()))).append("] #").append(r.getSequence());
+        switch (r.getSource()) {
+            case IoTJournal.SOURCE_HOUSE:
+                sb.append(" house");
+                break;
+            case IoTJournal.SOURCE_USER:
+                sb.append(" user");
+                break;
+            case IoTJournal.SOURCE_AWAY_TIMER:
+                sb.append(" away timer");
+                break;
+            default:
+                sb.append(" source ").append(r.getSource());
+        }
+
+        sb.append(" asked {");
+        appendFlags(sb, r.getRequestedFields(), r.getRequestedFlags());
+        sb.append("} was {");
+        appendFlags(sb, HouseState.FLAGS, r.getLastFlags());
+        sb.append("} now {");
+        appendFlags(sb, r.getFields(), r.getFlags());
+        if ((r.getFields() & HouseState.TEMP_READING) != 0) {
+            sb.append(" TEMP=").append(r.getTempReading());
+        }
+        if ((r.getFields() & HouseState.HUMIDITY_READING) != 0) {
+            sb.append(" HUMIDITY=").append(r.getHumidityReading());
+        }
+        if ((r.getFields() & HouseState.TARGET_TEMP) != 0) {
+            sb.append(" TARGET=").append(r.getTargetTemp());
+        }
+        sb.append('}');
+
+        long fired = r.getFiredRules();
+        while (fired != 0) {
+            int rule = Long.numberOfTrailingZeros(fired);
+            fired &= fired - 1;
+            sb.append("\n    rule ").append(rule);
+            if (rules != null && rule < rules.size()) {
+                sb.append(": ").append(rules.getRuleText(rule));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void appendFlags(StringBuilder sb, int fields, int flags) {
+        boolean first = true;
+        for (int i = 0; i < 9; i++) {
+            int f = 1 << i;
+            if ((fields & f) != 0) {
+                if (!first) {
+                    sb.append(' ');
+                }
+                first = false;
+                sb.append(IoTStateCodec.FIELD_KEYS[i]).append('=').append((flags & f) != 0 ? 1 : 0);
+            }
+        }
+    }
+
+    /**
+     * Print the records of a time range
+     * @param args the journal directory, and optionally the start and end of the range as
+     *             "MMM dd,yyyy HH:mm:ss" and the rule file to use for records that do not name their rules
+     */
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("usage: IoTJournalReader journal-dir [from [to [rule-file]]]");
+            return;
+        }
+        final SimpleDateFormat sdf = new SimpleDateFormat("MMM dd,yyyy HH:mm:ss");
+        try {
+            long from = args.length > 1 ? sdf.parse(args[1]).getTime() : Long.MIN_VALUE;
+            long to = args.length > 2 ? sdf.parse(args[2]).getTime() : Long.MAX_VALUE;
+            final IoTRuleSet fallback;
+            if (args.length > 3) {
+                FileReader fr = new FileReader(args[3]);
+                try {
+                    fallback = new IoTRuleSet(args[3], fr);
+                } finally {
+                    fr.close();
+                }
+            } else {
+                fallback = IoTRuleSet.getDefault();
+            }
+
+            final IoTJournalReader reader = new IoTJournalReader(new File(args[0]));
+            long count = reader.scan(from, to, new Visitor() {
+                @Override
+                public boolean visit(Record r) {
+                    IoTRuleSet rules = reader.getRules(r.getRulesHash());
+                    System.out.println(describe(r, rules != null ? rules : fallback, sdf));
+                    return true;
+                }
+            });
+            System.out.println(count + " records");
+        } catch (ParseException pe) {
+            System.out.println("Times are given as \"MMM dd,yyyy HH:mm:ss\": " + pe.getMessage());
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+    }
+}
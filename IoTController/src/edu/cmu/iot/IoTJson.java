@@ -0,0 +1,260 @@
+package edu.cmu.iot;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough JSON for the control API. Objects are read into maps that keep the order of their members, arrays
+ * into lists, numbers into Long or Double; strings are written with the escapes JSON requires. Documents nested
+ * deeper than MAX_DEPTH are rejected, so a request cannot overflow the stack of the thread serving it.
+ *
+ * Project: LG Exec Ed Program
+ * Copyright: Copyright (c) 2015 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 October 2026 - initial version
+ */
+final class IoTJson {
+
+    /** the deepest nesting of objects and arrays accepted; the parser recurses once per level */
+    static final int MAX_DEPTH = 32;
+
+    private final String text;
+    private int pos = 0;
+    private int depth = 0;
+
+    private IoTJson(String text) {
+        this.text = text;
+    }
+
+    /**
+     * Parse a JSON document
+     * @param text the document
+     * @return a Map, List, String, Long, Double, Boolean or null
+     * @throws IllegalArgumentException if the document is not valid JSON or is nested too deeply
+     */
+    static Object parse(String text) {
+        IoTJson parser = new IoTJson(text);
+        Object value = parser.readValue();
+        parser.skipSpace();
+        if (parser.pos != text.length()) {
+            throw parser.error("unexpected text after the document");
+        }
+        return value;
+    }
+
+    /**
+     * Append a string as a JSON string
+     * @param out where to append
+     * @param s the string
+     * @return out
+     */
+    static StringBuilder quote(StringBuilder out, String s) {
+        out.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        return out.append('"');
+    }
+
+    private Object readValue() {
+        skipSpace();
+        if (pos >= text.length()) {
+            throw error("unexpected end of document");
+        }
+        char c = text.charAt(pos);
+        if (c == '{' || c == '[') {
+            if (depth >= MAX_DEPTH) {
+                throw error("nested more than " + MAX_DEPTH + " levels deep");
+            }
+            depth++;
+            Object value = c == '{' ? readObject() : readArray();
+            depth--;
+            return value;
+        } else if (c == '"') {
+            return readString();
+        } else if (c == '-' || (c >= '0' && c <= '9')) {
+            return readNumber();
+        } else if (text.startsWith("true", pos)) {
+            pos += 4;
+            return Boolean.TRUE;
+        } else if (text.startsWith("false", pos)) {
+            pos += 5;
+            return Boolean.FALSE;
+        } else if (text.startsWith("null", pos)) {
+            pos += 4;
+            return null;
+        }
+        throw error("unexpected character '" + c + "'");
+    }
+
+    private Map<String, Object> readObject() {
+        Map<String, Object> members = new LinkedHashMap<String, Object>();
+        pos++;
+        skipSpace();
+        if (peek() == '}') {
+            pos++;
+            return members;
+        }
+        while (true) {
+            skipSpace();
+            if (peek() != '"') {
+                throw error("expected a member name");
+            }
+            String name = readString();
+            skipSpace();
+            expect(':');
+            members.put(name, readValue());
+            skipSpace();
+            if (peek() == ',') {
+                pos++;
+            } else {
+                expect('}');
+                return members;
+            }
+        }
+    }
+
+    private List<Object> readArray() {
+        List<Object> items = new ArrayList<Object>();
+        pos++;
+        skipSpace();
+        if (peek() == ']') {
+            pos++;
+            return items;
+        }
+        while (true) {
+            items.add(readValue());
+            skipSpace();
+            if (peek() == ',') {
+                pos++;
+            } else {
+                expect(']');
+                return items;
+            }
+        }
+    }
+
+    private String readString() {
+        StringBuilder sb = new StringBuilder();
+        pos++;
+        while (true) {
+            if (pos >= text.length()) {
+                throw error("unterminated string");
+            }
+            char c = text.charAt(pos++);
+            if (c == '"') {
+                return sb.toString();
+            }
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (pos >= text.length()) {
+                throw error("unterminated string");
+            }
+            char e = text.charAt(pos++);
+            switch (e) {
+                case 'b':
+                    sb.append('\b');
+                    break;
+                case 'f':
+                    sb.append('\f');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'u':
+                    if (pos + 4 > text.length()) {
+                        throw error("bad escape");
+                    }
+                    try {
+                        sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                    } catch (NumberFormatException nfe) {
+                        throw error("bad escape");
+                    }
+                    pos += 4;
+                    break;
+                default:
+                    sb.append(e);
+            }
+        }
+    }
+
+    private Object readNumber() {
+        int start = pos;
+        boolean integral = true;
+        while (pos < text.length()) {
+            char c = text.charAt(pos);
+            if (c == '.' || c == 'e' || c == 'E') {
+                integral = false;
+            } else if (!(c == '-' || c == '+' || (c >= '0' && c <= '9'))) {
+                break;
+            }
+            pos++;
+        }
+        String number = text.substring(start, pos);
+        try {
+            if (integral) {
+                return Long.parseLong(number);
+            }
+            return Double.parseDouble(number);
+        } catch (NumberFormatException nfe) {
+            throw error("bad number " + number);
+        }
+    }
+
+    private void skipSpace() {
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private char peek() {
+        if (pos >= text.length()) {
+            throw error("unexpected end of document");
+        }
+        return text.charAt(pos);
+    }
+
+    private void expect(char c) {
+        if (peek() != c) {
+            throw error("expected '" + c + "'");
+        }
+        pos++;
+    }
+
+    private IllegalArgumentException error(String msg) {
+        return new IllegalArgumentException(msg + " at offset " + pos);
+    }
+}
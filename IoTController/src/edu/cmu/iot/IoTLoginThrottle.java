@@ -0,0 +1,238 @@
+package edu.cmu.iot;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits failed logins per user name at each source, and per source (the console, or the address of an API
+ * client). Only failures are counted: a login is refused once its user or source has used up its limit, so any
+ * number of logins with the right password may be made at once. Each counter covers a sliding window: the count
+ * of the previous window is weighed by how much of it still overlaps, so counts fade away without anyone
+ * resetting them. Counters live in concurrent maps and each has its own lock, so logins for different users and
+ * sources never wait for each other.
+ *
+ * The user limit is kept separately for every source, so failed attempts from one API client never lock an
+ * operator out of the console or out of another client. The source limit is lower than the user limit and covers
+ * every user name a source tries, so a source guessing at many accounts is stopped after a few failures. Guesses
+ * checked at the same time are only counted once they fail, so a source can go past its limit by as many
+ * passwords as are checked at once; the control window checks one at a time and the control API as many as it
+ * has worker threads.
+ *
+ * Project: LG Exec Ed Program
+ * Copyright: Copyright (c) 2015 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 October 2026 - initial version
+ */
+public class IoTLoginThrottle {
+
+    /**
+     * the default failed attempts per user from one source and window; can be set with the iot.login.user.limit
+     * property
+     */
+    public static final int DEFAULT_USER_LIMIT = 5;
+
+    /** the default user window in seconds; can be set with the iot.login.user.window property */
+    public static final int DEFAULT_USER_WINDOW = 300;
+
+    /** the default failed attempts per source and window; can be set with the iot.login.source.limit property */
+    public static final int DEFAULT_SOURCE_LIMIT = 3;
+
+    /** the default source window in seconds; can be set with the iot.login.source.window property */
+    public static final int DEFAULT_SOURCE_WINDOW = 60;
+
+    /** idle counters are dropped after this many checks */
+    private static final int SWEEP_INTERVAL = 1024;
+
+    /** The failed attempts of one user or source in a sliding window */
+    private static final class Counter {
+        // guarded by this
+        private long windowStart = 0;
+        private int previous = 0;
+        private int current = 0;
+
+        /**
+         * Find out if the limit allows another attempt
+         * @return 0 if it does, otherwise the milliseconds until it would
+         */
+        synchronized long check(long now, long window, int limit) {
+            roll(now, window);
+            double overlap = 1.0 - (now - windowStart) / (double) window;
+            if (previous * overlap + current + 1 <= limit) {
+                return 0;
+            }
+            long wait;
+            if (current >= limit) {
+                // wait for the next window, then for enough of this one to slide out of it
+                wait = windowStart + window - now + (long) Math.ceil(window * (1.0 - (limit - 1) / (double) current));
+            } else {
+                wait = windowStart + (long) Math.ceil(window * (1.0 - (limit - 1 - current) / (double) previous)) - now;
+            }
+            return Math.max(1, wait);
+        }
+
+        /** Count a failed attempt */
+        synchronized void add(long now, long window) {
+            roll(now, window);
+            current++;
+        }
+
+        synchronized void clear() {
+            previous = 0;
+            current = 0;
+        }
+
+        synchronized boolean isIdle(long now, long window) {
+            roll(now, window);
+            return previous == 0 && current == 0;
+        }
+
+        private void roll(long now, long window) {
+            long start = now - now % window;
+            if (start != windowStart) {
+                previous = start - windowStart == window ? current : 0;
+                current = 0;
+                windowStart = start;
+            }
+        }
+    }
+
+    private final int userLimit;
+    private final long userWindow;
+    private final int sourceLimit;
+    private final long sourceWindow;
+
+    /** the counters per user and source, keyed by userKey */
+    private final ConcurrentMap<String, Counter> users = new ConcurrentHashMap<String, Counter>(64, 0.75f, 16);
+    private final ConcurrentMap<String, Counter> sources = new ConcurrentHashMap<String, Counter>(64, 0.75f, 16);
+    private final AtomicInteger untilSweep = new AtomicInteger(SWEEP_INTERVAL);
+
+    /**
+     * Create a throttle with the limits given by the iot.login properties
+     */
+    public IoTLoginThrottle() {
+        this(Integer.getInteger("iot.login.user.limit", DEFAULT_USER_LIMIT),
+                Integer.getInteger("iot.login.user.window", DEFAULT_USER_WINDOW) * 1000L,
+                Integer.getInteger("iot.login.source.limit", DEFAULT_SOURCE_LIMIT),
+                Integer.getInteger("iot.login.source.window", DEFAULT_SOURCE_WINDOW) * 1000L);
+    }
+
+    /**
+     * Create a throttle
+     * @param userLimit the failed attempts allowed per user from one source in a window
+     * @param userWindow the user window in milliseconds
+     * @param sourceLimit the failed attempts allowed per source in a window
+     * @param sourceWindow the source window in milliseconds
+     */
+    public IoTLoginThrottle(int userLimit, long userWindow, int sourceLimit, long sourceWindow) {
+        this.userLimit = userLimit;
+        this.userWindow = userWindow;
+        this.sourceLimit = sourceLimit;
+        this.sourceWindow = sourceWindow;
+    }
+
+    /**
+     * Find out if a login attempt may go ahead. Nothing is counted until the attempt is known to have failed.
+     * @param user the user name
+     * @param source where the attempt comes from
+     * @return 0 if the attempt may go ahead, otherwise the milliseconds until it would be allowed
+     */
+    public long check(String user, String source) {
+        long now = System.currentTimeMillis();
+        sweepNow(now);
+
+        Counter c = sources.get(source);
+        long wait = c == null ? 0 : c.check(now, sourceWindow, sourceLimit);
+        if (wait > 0) {
+            return wait;
+        }
+        c = users.get(userKey(user, source));
+        return c == null ? 0 : c.check(now, userWindow, userLimit);
+    }
+
+    /**
+     * Count a failed login against the user at the source and against the source
+     * @param user the user name
+     * @param source where the attempt came from
+     */
+    public void failed(String user, String source) {
+        long now = System.currentTimeMillis();
+        counter(sources, source).add(now, sourceWindow);
+        counter(users, userKey(user, source)).add(now, userWindow);
+    }
+
+    /**
+     * Forget the failed attempts against a user from a source after a successful login there. The failures of
+     * the source still count, so a source cannot wipe out its guesses at other users with one good password.
+     * @param user the user name
+     * @param source where the attempt came from
+     */
+    public void succeeded(String user, String source) {
+        Counter c = users.get(userKey(user, source));
+        if (c != null) {
+            c.clear();
+        }
+    }
+
+    /**
+     * Forget every attempt
+     */
+    public void clear() {
+        users.clear();
+        sources.clear();
+    }
+
+    /**
+     * Get the number of users and sources with recent failures
+     * @return the number of counters kept
+     */
+    public int size() {
+        return users.size() + sources.size();
+    }
+
+    /**
+     * Get the key of the counter of a user at a source. User names cannot contain line breaks, so the key is
+     * never the same for two pairs.
+     */
+    private static String userKey(String user, String source) {
+        return user + '\n' + source;
+    }
+
+    private static Counter counter(ConcurrentMap<String, Counter> map, String key) {
+        Counter c = map.get(key);
+        if (c == null) {
+            Counter created = new Counter();
+            c = map.putIfAbsent(key, created);
+            if (c == null) {
+                c = created;
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Drop the counters with nothing left in their windows, so names and addresses seen once do not pile up. An
+     * attempt racing with the sweep may be counted in a dropped counter; that only loses one attempt of a key that
+     * had none left.
+     */
+    private void sweepNow(long now) {
+        if (untilSweep.decrementAndGet() > 0) {
+            return;
+        }
+        untilSweep.set(SWEEP_INTERVAL);
+        sweep(users, now, userWindow);
+        sweep(sources, now, sourceWindow);
+    }
+
+    private static void sweep(ConcurrentMap<String, Counter> map, long now, long window) {
+        Iterator<Map.Entry<String, Counter>> it = map.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Counter> e = it.next();
+            if (e.getValue().isIdle(now, window)) {
+                map.remove(e.getKey(), e.getValue());
+            }
+        }
+    }
+}
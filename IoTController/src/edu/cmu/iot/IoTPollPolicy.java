@@ -0,0 +1,155 @@
+package edu.cmu.iot;
+
+/**
+ * Decides how often to poll a house. A house whose proximity, door or alarm values are changing, or whose away
+ * timer is armed, is polled quickly. A house that has been quiet is polled at the normal interval, and one that
+ * has been quiet for hours backs off to a long interval. Loss of contact is measured in wall time since the last
+ * successful poll, so it does not depend on the current interval. A house that pushes its state updates is only
+ * polled as a slow heartbeat.
+ *
+ * Project: LG Exec Ed Program
+ * Copyright: Copyright (c) 2015 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 October 2026 - initial version
+ */
+public class IoTPollPolicy {
+
+    /** the poll interval (in milliseconds) for an active house */
+    public static final long MIN_INTERVAL = 500;
+
+    /** the normal poll interval in milliseconds */
+    public static final long BASE_INTERVAL = 5000;
+
+    /** the poll interval (in milliseconds) for a house that has been quiet for hours */
+    public static final long MAX_INTERVAL = 60 * 1000;
+
+    /** the poll interval (in milliseconds) for a house that pushes its state updates */
+    public static final long HEARTBEAT_INTERVAL = 15 * 1000;
+
+    /** how long (in milliseconds) a house stays active after its last change */
+    public static final long ACTIVE_PERIOD = 30 * 1000;
+
+    /** how long (in milliseconds) a house must be quiet before the interval starts to back off */
+    public static final long QUIET_PERIOD = 60 * 60 * 1000;
+
+    /** the time (in milliseconds) without a successful poll after which contact is considered lost */
+    public static final long CONTACT_TIMEOUT = 30 * 1000;
+
+    /** the fields whose changes make a house active */
+    private static final int ACTIVITY_FIELDS = HouseState.PROXIMITY | HouseState.DOOR | HouseState.ALARM
+            | HouseState.ALARM_ACTIVE;
+
+    private final long minInterval, baseInterval, maxInterval, contactTimeout;
+
+    /** the time of the last change to an activity field */
+    private volatile long lastActivity;
+
+    /** the time of the last successful poll */
+    private volatile long lastContact;
+
+    /** true while an away timer is waiting to lock the house down */
+    private volatile boolean awayTimerArmed = false;
+
+    /** true if the house pushes its state updates */
+    private volatile boolean subscribed = false;
+
+    /**
+     * Create a policy with the default intervals
+     */
+    public IoTPollPolicy() {
+        this(MIN_INTERVAL, BASE_INTERVAL, MAX_INTERVAL, CONTACT_TIMEOUT);
+    }
+
+    /**
+     * Create a policy
+     * @param min the interval for an active house in milliseconds
+     * @param base the normal interval in milliseconds
+     * @param max the interval for a house quiet for hours in milliseconds
+     * @param timeout the time without a successful poll after which contact is lost, in milliseconds
+     */
+    public IoTPollPolicy(long min, long base, long max, long timeout) {
+        minInterval = min;
+        baseInterval = base;
+        maxInterval = max;
+        contactTimeout = timeout;
+        reset();
+    }
+
+    /**
+     * Start over, as if the house had just been connected
+     */
+    public void reset() {
+        long now = System.currentTimeMillis();
+        lastActivity = now;
+        lastContact = now;
+        awayTimerArmed = false;
+        subscribed = false;
+    }
+
+    /**
+     * Record whether the house pushes its state updates
+     * @param s true if the house accepted a subscription
+     */
+    public void setSubscribed(boolean s) {
+        subscribed = s;
+    }
+
+    /**
+     * Record a successful poll or a pushed state update
+     * @param changed the fields that changed since the previous poll
+     */
+    public void pollSucceeded(int changed) {
+        long now = System.currentTimeMillis();
+        lastContact = now;
+        if ((changed & ACTIVITY_FIELDS) != 0) {
+            lastActivity = now;
+        }
+    }
+
+    /**
+     * Record that an away timer was armed or has finished
+     * @param armed true while the away timer is pending
+     */
+    public void setAwayTimerArmed(boolean armed) {
+        awayTimerArmed = armed;
+        if (armed) {
+            lastActivity = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Has contact with the house been lost
+     * @return true if there has been no successful poll within the contact timeout
+     */
+    public boolean isContactLost() {
+        return System.currentTimeMillis() - lastContact > contactTimeout;
+    }
+
+    /**
+     * Get the time until the next poll
+     * @return the interval in milliseconds
+     */
+    public long nextInterval() {
+        long now = System.currentTimeMillis();
+
+        if (subscribed) {
+            // changes arrive as they happen; the poll only checks that the house is still there
+            return now - lastContact > baseInterval ? baseInterval : HEARTBEAT_INTERVAL;
+        }
+        if (awayTimerArmed || now - lastActivity < ACTIVE_PERIOD) {
+            return minInterval;
+        }
+        if (now - lastContact > baseInterval) {
+            // the last poll failed; keep checking at the normal rate so loss of contact is noticed in time
+            return baseInterval;
+        }
+
+        long quiet = now - lastActivity;
+        if (quiet < QUIET_PERIOD) {
+            return baseInterval;
+        }
+        // double the interval for every quiet period, up to the maximum
+        long periods = Math.min(quiet / QUIET_PERIOD, 30);
+        return Math.min(maxInterval, baseInterval << periods);
+    }
+}
@@ -0,0 +1,188 @@
+package edu.cmu.iot;
+
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Schedules house polls on a small shared pool of worker threads. Each house is polled at its own interval with
+ * a random jitter, and the first poll is delayed by a random fraction of the interval, so that many houses
+ * connected at once do not all poll on the same tick. A poll holds no thread while it waits for the house: it runs
+ * on a shared worker only long enough to send its request, so the workers are shared in every execution mode. In
+ * virtual execution mode only the one-off tasks given to execute get threads of their own.
+ *
+ * Project: LG Exec Ed Program
+ * Copyright: Copyright (c) 2015 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 October 2026 - initial version
+ */
+public class IoTPoller {
+
+    /** A poll of a single house that completes when the house answers, without waiting for it */
+    public interface AsyncPollTask {
+        /**
+         * Start polling the house. The poll must not block; when it is done, whatever thread it is done on, it
+         * calls pollCompleted on the handle exactly once.
+         * @param handle the handle of the polls
+         */
+        void poll(Handle handle);
+    }
+
+    /** The scheduled polls of a single house */
+    public class Handle implements Runnable {
+        private final AsyncPollTask task;
+        private volatile boolean cancelled = false;
+        private volatile ScheduledFuture<?> next = null;
+
+        private Handle(AsyncPollTask t) {
+            task = t;
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            try {
+                task.poll(this);
+            } catch (RuntimeException re) {
+                // keep polling the house; a poll that threw never completes, so retry it later
+                re.printStackTrace();
+                pollCompleted(DEFAULT_RETRY);
+            }
+        }
+
+        /**
+         * A poll has finished; schedule the next one
+         * @param interval the time (in milliseconds) until the next poll, or a negative value to stop polling
+         */
+        public void pollCompleted(long interval) {
+            if (interval < 0) {
+                cancelled = true;
+            } else if (!cancelled) {
+                next = executor.schedule(this, jitter(interval), TimeUnit.MILLISECONDS);
+            }
+        }
+
+        /**
+         * Stop polling the house. A poll that is already running is allowed to finish.
+         */
+        public void cancel() {
+            cancelled = true;
+            ScheduledFuture<?> f = next;
+            if (f != null) {
+                f.cancel(false);
+            }
+        }
+
+        /**
+         * Is polling stopped
+         * @return true if cancelled, false otherwise
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    /** the delay (in milliseconds) before retrying a poll that threw an exception */
+    private static final long DEFAULT_RETRY = 5000;
+
+    /** the fraction of the interval by which each poll is moved earlier or later */
+    private static final double JITTER = 0.1;
+
+    /** the poller shared by the controller */
+    private static IoTPoller sharedPoller = null;
+
+    private final ScheduledThreadPoolExecutor executor;
+    private final Random random = new Random();
+
+    /**
+     * Create a poller
+     * @param workers the number of worker threads
+     */
+    public IoTPoller(int workers) {
+        final AtomicInteger count = new AtomicInteger();
+        executor = new ScheduledThreadPoolExecutor(workers, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "IoT poller " + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Get the poller shared by the controller. The number of workers can be set with the iot.poller.workers
+     * system property.
+     * @return the shared poller
+     */
+    public static synchronized IoTPoller getPoller() {
+        if (sharedPoller == null) {
+            int defaultWorkers = Math.max(2, Runtime.getRuntime().availableProcessors());
+            sharedPoller = new IoTPoller(Integer.getInteger("iot.poller.workers", defaultWorkers));
+        }
+        return sharedPoller;
+    }
+
+    /**
+     * Start polling a house without holding a worker while each poll waits for the house
+     * @param task the poll
+     * @param interval the time (in milliseconds) between polls; the first poll happens at a random point within
+     *                 the first interval
+     * @return the handle used to stop polling
+     */
+    public Handle schedule(AsyncPollTask task, long interval) {
+        Handle handle = new Handle(task);
+        long initialDelay;
+        synchronized (random) {
+            initialDelay = (long) (random.nextDouble() * interval);
+        }
+        handle.next = executor.schedule(handle, initialDelay, TimeUnit.MILLISECONDS);
+        return handle;
+    }
+
+    /**
+     * Run a one-off task for a house on the poller workers. In virtual mode the task gets its own thread.
+     * @param task the work
+     */
+    public void execute(Runnable task) {
+        if (IoTExecution.isVirtual()) {
+            IoTExecution.execute(task);
+        } else {
+            executor.execute(task);
+        }
+    }
+
+    /**
+     * Move a delay earlier or later by a random amount
+     * @param interval the delay in milliseconds
+     * @return the jittered delay
+     */
+    private long jitter(long interval) {
+        double offset;
+        synchronized (random) {
+            offset = (random.nextDouble() * 2 - 1) * JITTER;
+        }
+        return Math.max(0, (long) (interval * (1 + offset)));
+    }
+
+    /**
+     * Get the number of polls waiting to run
+     * @return the number of scheduled polls
+     */
+    public int getScheduledCount() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Stop all polling
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,83 @@
+package edu.cmu.iot;
+
+import java.io.IOException;
+
+/**
+ * The temperature and humidity readings reported by one house, kept as time series of fixed size. Readings are
+ * added on the house event loop as the house reports them; when the house connects the store is filled in again
+ * from the journal, so the history survives a restart of the controller.
+ *
+ * Project: LG Exec Ed Program
+ * Copyright: Copyright (c) 2015 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 October 2026 - initial version
+ */
+public class IoTReadingStore {
+
+    private final IoTTimeSeries temperature = new IoTTimeSeries("temperature");
+    private final IoTTimeSeries humidity = new IoTTimeSeries("humidity");
+
+    /**
+     * Get the temperature readings
+     * @return the series
+     */
+    public IoTTimeSeries getTemperature() {
+        return temperature;
+    }
+
+    /**
+     * Get the humidity readings
+     * @return the series
+     */
+    public IoTTimeSeries getHumidity() {
+        return humidity;
+    }
+
+    /**
+     * Add the readings in a state reported by the house
+     * @param time the time of the report in milliseconds
+     * @param reported the reported state; only the readings it holds are added
+     */
+    public void record(long time, HouseState reported) {
+        if (reported.has(HouseState.TEMP_READING)) {
+            temperature.add(time, reported.getTempReading());
+        }
+        if (reported.has(HouseState.HUMIDITY_READING)) {
+            humidity.add(time, reported.getHumidityReading());
+        }
+    }
+
+    /**
+     * Drop every reading
+     */
+    public void clear() {
+        temperature.clear();
+        humidity.clear();
+    }
+
+    /**
+     * Replace the readings with the ones recorded in a journal
+     * @param reader the journal
+     * @return the number of journal records read
+     * @throws IOException if the journal cannot be read
+     */
+    public long load(IoTJournalReader reader) throws IOException {
+        clear();
+        return reader.scan(new IoTJournalReader.Visitor() {
+            @Override
+            public boolean visit(IoTJournalReader.Record r) {
+                if (r.getSource() == IoTJournal.SOURCE_HOUSE) {
+                    // the reading asked for is the reading evaluated, so the result holds the reported value
+                    int fields = r.getRequestedFields();
+                    if ((fields & HouseState.TEMP_READING) != 0) {
+                        temperature.add(r.getTime(), r.getTempReading());
+                    }
+                    if ((fields & HouseState.HUMIDITY_READING) != 0) {
+                        humidity.add(r.getTime(), r.getHumidityReading());
+                    }
+                }
+                return true;
+            }
+        });
+    }
+}
@@ -0,0 +1,458 @@
+package edu.cmu.iot;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays captured state update streams through the controller with the network stubbed out. Each capture file
+ * holds the SU frames pushed by one house, one per line, each preceded by the time it was received in
+ * milliseconds, for example:
+ *
+ *   1760752320000 SU:DS=1;PS=1;TR=70;HR=40.
+ *
+ * Blank lines and lines starting with # are ignored. Every capture gets its own controller, connected to a stub
+ * connection that accepts every request, and its frames are pushed through the same path as a subscribed house:
+ * the frame is decoded, the policy evaluated on the house event loop and the resulting state sent to the stub.
+ * Frames are pushed from one thread, as the selector thread would, either at the recorded pace (optionally sped
+ * up) or as fast as the controllers keep up. Away timers run in real time, so they rarely fire in a fast replay.
+ *
+ * The report gives the number of decisions per second, the latency from pushing a frame to the end of its
+ * evaluation, and how often each rule fired, so two runs with different rules can be compared.
+ *
+ * usage: IoTReplay [-speed factor | -fast] [-rules file] [-settings dir] [-verbose] capture...
+ *
+ * Project: LG Exec Ed Program
+ * Copyright: Copyright (c) 2015 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 October 2026 - initial version
+ */
+public class IoTReplay {
+
+    /** the most frames pushed to one house and not yet evaluated */
+    private static final int MAX_IN_FLIGHT = 32;
+
+    /** how long the replay waits for the controllers after the last frame while nothing progresses */
+    private static final long DRAIN_TIMEOUT = 30000;
+
+    /**
+     * A connection that never touches the network. Every request is answered with OK, and the frames of the
+     * capture are delivered as if the house pushed them.
+     */
+    static class ReplayConnection extends IoTConnection {
+
+        /** the number of set state requests the controller sent */
+        final AtomicLong stateRequests = new AtomicLong();
+
+        ReplayConnection(String addr) {
+            super(addr);
+        }
+
+        @Override
+        public Boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public IoTRequest sendMessageAsync(CharSequence msg) {
+            if (msg.length() > IoTValues.SET_STATE.length()
+                    && msg.toString().startsWith(IoTValues.SET_STATE + IoTValues.MSG_DELIM)) {
+                stateRequests.incrementAndGet();
+            }
+            return IoTRequest.completed(IoTValues.OK);
+        }
+
+        @Override
+        public void disconnect() {
+            // nothing to close
+        }
+
+        /**
+         * Deliver a frame as if the house pushed it
+         * @param frame the SU frame
+         */
+        void push(String frame) {
+            updateReceived(frame);
+        }
+    }
+
+    /**
+     * One captured house and its controller
+     */
+    private static class House implements IoTControlManager.EvaluationListener {
+        final String name;
+        final long[] times;
+        final String[] frames;
+        final int rejected;
+
+        ReplayConnection connection;
+        IoTControlManager manager;
+
+        /** the index of the next frame to push; only used by the replay thread */
+        int next = 0;
+
+        /** when each frame was pushed, in nanoseconds */
+        final long[] pushedAt;
+
+        /** the latency of each evaluated frame, in nanoseconds; written on the house event loop */
+        final long[] latencies;
+
+        // counts written on the house event loop
+        int evaluated = 0;
+        long timerEvaluations = 0;
+        final long[] ruleCounts = new long[IoTRuleSet.MAX_RULES];
+
+        /** the number of frames evaluated, published by the event loop */
+        final AtomicLong completed = new AtomicLong();
+
+        House(String n, long[] t, String[] f, int r) {
+            name = n;
+            times = t;
+            frames = f;
+            rejected = r;
+            pushedAt = new long[f.length];
+            latencies = new long[f.length];
+        }
+
+        @Override
+        public void stateEvaluated(byte source, HouseState requested, HouseState result, long firedRules) {
+            while (firedRules != 0) {
+                ruleCounts[Long.numberOfTrailingZeros(firedRules)]++;
+                firedRules &= firedRules - 1;
+            }
+            if (source == IoTJournal.SOURCE_HOUSE) {
+                // frames are evaluated in the order they were pushed
+                latencies[evaluated] = System.nanoTime() - pushedAt[evaluated];
+                evaluated++;
+                completed.incrementAndGet();
+            } else {
+                timerEvaluations++;
+            }
+        }
+    }
+
+    /** A view that shows nothing; the replay only counts decisions */
+    private static final IoTControlView NO_VIEW = new IoTControlView() {
+        @Override
+        public void updateState(HouseState newState) {
+        }
+
+        @Override
+        public void updateLog(String logEntry) {
+        }
+
+        @Override
+        public void updateLog(List<String> log) {
+        }
+
+        @Override
+        public void enableControls() {
+        }
+
+        @Override
+        public void disableControls() {
+        }
+    };
+
+    private final List<House> houses = new ArrayList<House>();
+    private final String settingsPath;
+    private final IoTRuleSet rules;
+    private final double speed;
+
+    /**
+     * Set up a replay
+     * @param settings the settings directory; the controllers read settings.txt and rules.txt from it and write
+     *                 their journals under it
+     * @param ruleSet the rules to use instead of the ones in the settings directory, or null
+     * @param speedFactor the replay pace relative to the recorded pace, or 0 to replay as fast as possible
+     */
+    public IoTReplay(String settings, IoTRuleSet ruleSet, double speedFactor) {
+        settingsPath = settings;
+        rules = ruleSet;
+        speed = speedFactor;
+    }
+
+    /**
+     * Load a capture file. The house is named after the file.
+     * @param capture the capture file
+     * @throws IOException if the file cannot be read
+     */
+    public void addCapture(File capture) throws IOException {
+        List<String> frames = new ArrayList<String>();
+        long[] times = new long[1024];
+        int rejected = 0;
+        IoTStateCodec codec = new IoTStateCodec();
+        HouseState scratch = new HouseState();
+
+        BufferedReader br = new BufferedReader(new FileReader(capture));
+        try {
+            String line;
+            while ((line = br.readLine()) != null) {
+                line = line.trim();
+                if (line.length() == 0 || line.startsWith("#")) {
+                    continue;
+                }
+                int space = line.indexOf(' ');
+                long time;
+                String frame;
+                try {
+                    time = Long.parseLong(line.substring(0, Math.max(space, 0)));
+                    frame = line.substring(space + 1).trim();
+                } catch (NumberFormatException nfe) {
+                    rejected++;
+                    continue;
+                }
+                // frames the controller would drop are left out, so every frame pushed gets one evaluation
+                scratch.clear();
+                if (!codec.decode(frame, scratch) || scratch.isEmpty()) {
+                    rejected++;
+                    continue;
+                }
+                if (frames.size() == times.length) {
+                    times = Arrays.copyOf(times, times.length * 2);
+                }
+                times[frames.size()] = time;
+                frames.add(frame);
+            }
+        } finally {
+            br.close();
+        }
+
+        String name = capture.getName();
+        if (name.indexOf('.') > 0) {
+            name = name.substring(0, name.lastIndexOf('.'));
+        }
+        houses.add(new House(name, Arrays.copyOf(times, frames.size()), frames.toArray(new String[frames.size()]),
+                rejected));
+    }
+
+    /**
+     * Run the replay and print the report
+     * @param out where the report goes
+     */
+    public void run(PrintStream out) {
+        for (House h : houses) {
+            h.connection = new ReplayConnection(h.name);
+            h.manager = new IoTControlManager(NO_VIEW, settingsPath);
+            if (new File(settingsPath, IoTValues.SETTINGS_FILE).exists()) {
+                h.manager.loadSettings();
+            } else {
+                Hashtable<String, Object> settings = new Hashtable<String, Object>();
+                settings.put(IoTValues.ALARM_DELAY, 5);
+                h.manager.updateSettings(settings);
+            }
+            h.manager.setEvaluationListener(h);
+            h.manager.connectToHouse(h.connection, false);
+            if (rules != null) {
+                h.manager.setRuleSet(rules);
+            }
+        }
+
+        long total = 0;
+        long firstTime = Long.MAX_VALUE;
+        for (House h : houses) {
+            total += h.frames.length;
+            if (h.times.length > 0) {
+                firstTime = Math.min(firstTime, h.times[0]);
+            }
+        }
+
+        long start = System.nanoTime();
+        long pushed = 0;
+        while (pushed < total) {
+            // push the earliest frame of any house, as the houses would have
+            House h = null;
+            for (House candidate : houses) {
+                if (candidate.next < candidate.frames.length
+                        && (h == null || candidate.times[candidate.next] < h.times[h.next])) {
+                    h = candidate;
+                }
+            }
+
+            if (speed > 0) {
+                long due = start + (long) ((h.times[h.next] - firstTime) * 1000000L / speed);
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                    continue;
+                }
+            }
+            while (h.next - h.completed.get() >= MAX_IN_FLIGHT) {
+                LockSupport.parkNanos(10000);
+            }
+
+            h.pushedAt[h.next] = System.nanoTime();
+            h.connection.push(h.frames[h.next]);
+            h.next++;
+            pushed++;
+        }
+
+        // wait for the controllers to evaluate the last frames
+        long evaluated = 0;
+        long lastProgress = System.currentTimeMillis();
+        while (true) {
+            long done = 0;
+            for (House h : houses) {
+                done += h.completed.get();
+            }
+            if (done == total) {
+                evaluated = done;
+                break;
+            }
+            if (done != evaluated) {
+                evaluated = done;
+                lastProgress = System.currentTimeMillis();
+            } else if (System.currentTimeMillis() - lastProgress > DRAIN_TIMEOUT) {
+                break;
+            }
+            LockSupport.parkNanos(1000000);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        for (House h : houses) {
+            h.manager.disconnectFromHouse();
+        }
+
+        report(out, total, evaluated, elapsed);
+    }
+
+    /**
+     * Print the results
+     */
+    private void report(PrintStream out, long total, long evaluated, long elapsed) {
+        long rejected = 0;
+        long stateRequests = 0;
+        long timerEvaluations = 0;
+        long[] ruleCounts = new long[IoTRuleSet.MAX_RULES];
+        long[] latencies = new long[(int) evaluated];
+        int n = 0;
+        for (House h : houses) {
+            rejected += h.rejected;
+            stateRequests += h.connection.stateRequests.get();
+            timerEvaluations += h.timerEvaluations;
+            for (int i = 0; i < ruleCounts.length; i++) {
+                ruleCounts[i] += h.ruleCounts[i];
+            }
+            int count = (int) h.completed.get();
+            System.arraycopy(h.latencies, 0, latencies, n, count);
+            n += count;
+        }
+        Arrays.sort(latencies, 0, n);
+
+        double seconds = elapsed / 1e9;
+        out.println("Replayed " + total + " frames from " + houses.size() + " houses in "
+                + String.format("%.3f", seconds) + " s" + (rejected > 0 ? " (" + rejected + " lines skipped)" : ""));
+        out.println("Decisions: " + evaluated + " (" + String.format("%.0f", evaluated / seconds) + "/s), "
+                + timerEvaluations + " away timer lockdowns, " + stateRequests + " state changes sent");
+        if (evaluated < total) {
+            out.println("Warning: " + (total - evaluated) + " frames were not evaluated");
+        }
+        if (n > 0) {
+            out.println("Latency (us): p50 " + micros(latencies, n, 0.50) + "  p90 " + micros(latencies, n, 0.90)
+                    + "  p99 " + micros(latencies, n, 0.99) + "  p99.9 " + micros(latencies, n, 0.999)
+                    + "  max " + micros(latencies, n, 1.0));
+        }
+
+        IoTRuleSet shown = rules != null ? rules : IoTRuleSet.forHouse(settingsPath, "");
+        out.println("Rules fired (" + shown.getSource() + "):");
+        for (int i = 0; i < ruleCounts.length; i++) {
+            if (ruleCounts[i] > 0) {
+                out.println(String.format("%10d  %2d  ", ruleCounts[i], i)
+                        + (i < shown.size() ? shown.getRuleText(i) : ""));
+            }
+        }
+    }
+
+    private static String micros(long[] sorted, int n, double percentile) {
+        int index = (int) Math.min(n - 1, Math.ceil(percentile * n) - 1);
+        return String.format("%.1f", sorted[Math.max(index, 0)] / 1000.0);
+    }
+
+    /**
+     * Run a replay from the command line
+     * @param args the options and capture files
+     */
+    public static void main(String[] args) {
+        double speed = 1.0;
+        String rulesFile = null;
+        String settings = null;
+        boolean verbose = false;
+        List<File> captures = new ArrayList<File>();
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-fast")) {
+                speed = 0;
+            } else if (args[i].equals("-speed") && i + 1 < args.length) {
+                speed = Double.parseDouble(args[++i]);
+            } else if (args[i].equals("-rules") && i + 1 < args.length) {
+                rulesFile = args[++i];
+            } else if (args[i].equals("-settings") && i + 1 < args.length) {
+                settings = args[++i];
+            } else if (args[i].equals("-verbose")) {
+                verbose = true;
+            } else {
+                captures.add(new File(args[i]));
+            }
+        }
+        if (captures.isEmpty()) {
+            System.out.println("usage: IoTReplay [-speed factor | -fast] [-rules file] [-settings dir] [-verbose] "
+                    + "capture...");
+            return;
+        }
+
+        PrintStream console = System.out;
+        try {
+            if (settings == null) {
+                // the journals of the replay go to a directory of their own
+                settings = java.nio.file.Files.createTempDirectory("iot-replay").toString();
+                console.println("Journals are written under " + settings);
+            }
+            IoTRuleSet ruleSet = null;
+            if (rulesFile != null) {
+                FileReader fr = new FileReader(rulesFile);
+                try {
+                    ruleSet = new IoTRuleSet(rulesFile, fr);
+                } finally {
+                    fr.close();
+                }
+            }
+
+            IoTReplay replay = new IoTReplay(settings, ruleSet, speed);
+            for (File f : captures) {
+                replay.addCapture(f);
+            }
+
+            if (!verbose) {
+                // the controller traces every request; at replay rates the console would be the bottleneck
+                System.setOut(new PrintStream(new OutputStream() {
+                    @Override
+                    public void write(int b) {
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) {
+                    }
+                }));
+            }
+            try {
+                replay.run(console);
+            } finally {
+                System.setOut(console);
+            }
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        } catch (IllegalArgumentException iae) {
+            console.println("Invalid rules: " + iae.getMessage());
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,217 @@
+package edu.cmu.iot;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A single request to the house and its response. The response is filled in by the selector thread when the
+ * house answers, or left empty if the request fails or its deadline passes. Several requests may be outstanding
+ * on one connection; the house answers them in order.
+ *
+ * Project: LG Exec Ed Program
+ * Copyright: Copyright (c) 2015 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 October 2026 - initial version
+ */
+public class IoTRequest implements Future<String> {
+
+    /** Notified when a request completes */
+    public interface Callback {
+        /**
+         * The request completed. Called on the thread that completed the request, usually the selector thread,
+         * so implementations must not block.
+         * @param response the response, or null if the request failed
+         */
+        void requestCompleted(String response);
+    }
+
+    /** the time (in milliseconds) by which the house must respond */
+    private final long deadline;
+
+    /** the response from the house, null if the request failed */
+    private volatile String response = null;
+
+    /** released when the request completes */
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    /** the connection that tracks the health of the house, may be null */
+    private final IoTConnection connection;
+
+    /** true if the house answers this request with a state update */
+    private final boolean stateRequest;
+
+    /** notified on completion; guarded by this */
+    private Callback callback = null;
+
+    /**
+     * Create a new request
+     * @param timeout the time (in milliseconds) to wait for a response
+     * @param conn the connection to notify when the request completes, may be null
+     */
+    IoTRequest(long timeout, IoTConnection conn) {
+        this(timeout, conn, false);
+    }
+
+    /**
+     * Create a new request
+     * @param timeout the time (in milliseconds) to wait for a response
+     * @param conn the connection to notify when the request completes, may be null
+     * @param stateReq true if the house answers the request with a state update
+     */
+    IoTRequest(long timeout, IoTConnection conn, boolean stateReq) {
+        deadline = System.currentTimeMillis() + timeout;
+        connection = conn;
+        stateRequest = stateReq;
+    }
+
+    /**
+     * Does the house answer this request with a state update
+     * @return true for get state requests
+     */
+    boolean isStateRequest() {
+        return stateRequest;
+    }
+
+    /**
+     * Get the response deadline
+     * @return the deadline in milliseconds
+     */
+    long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Complete the request
+     * @param resp the response, or null if the request failed
+     */
+    void complete(String resp) {
+        complete(resp, true);
+    }
+
+    /**
+     * Fail the request without recording a failure on the connection, for a caller that records a single
+     * failure for many requests
+     * @return the connection that tracks the health of the house, may be null
+     */
+    IoTConnection abandon() {
+        complete(null, false);
+        return connection;
+    }
+
+    /**
+     * Complete the request
+     * @param resp the response, or null if the request failed
+     * @param record true to record the outcome on the connection
+     */
+    private void complete(String resp, boolean record) {
+        Callback cb;
+        synchronized (this) {
+            if (done.getCount() == 0) {
+                return;
+            }
+            response = resp;
+            done.countDown();
+            cb = callback;
+        }
+        if (record && connection != null) {
+            connection.requestCompleted(resp != null);
+        }
+        if (cb != null) {
+            cb.requestCompleted(resp);
+        }
+    }
+
+    /**
+     * Create a request that has already completed, for requests that need not go to the house
+     * @param resp the response
+     * @return the completed request
+     */
+    static IoTRequest completed(String resp) {
+        IoTRequest req = new IoTRequest(0, null);
+        req.complete(resp);
+        return req;
+    }
+
+    /**
+     * Set the callback to notify when the request completes. If the request has already completed, the
+     * callback is notified immediately.
+     * @param cb the callback
+     */
+    public void setCallback(Callback cb) {
+        synchronized (this) {
+            if (done.getCount() > 0) {
+                callback = cb;
+                return;
+            }
+        }
+        cb.requestCompleted(response);
+    }
+
+    /**
+     * Is the request complete
+     * @return true if a response arrived or the request failed
+     */
+    @Override
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    /**
+     * Requests cannot be cancelled once queued; the house will still answer them
+     * @param mayInterruptIfRunning ignored
+     * @return false
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    /**
+     * Wait for the response
+     * @return the response, or null if the request failed
+     */
+    @Override
+    public String get() {
+        return awaitResponse();
+    }
+
+    /**
+     * Wait for the response
+     * @param timeout the maximum time to wait
+     * @param unit the unit of the timeout
+     * @return the response, or null if the request failed
+     * @throws InterruptedException if interrupted while waiting
+     * @throws TimeoutException if the request did not complete in time
+     */
+    @Override
+    public String get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+        if (!done.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return response;
+    }
+
+    /**
+     * Wait for the response. The selector thread fails requests at their deadline, so this only waits past
+     * the deadline if the selector thread has stalled.
+     * @return the response, or null if the request failed or timed out
+     */
+    public String awaitResponse() {
+        try {
+            long wait = deadline - System.currentTimeMillis() + 1000;
+            if (wait > 0) {
+                done.await(wait, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        return response;
+    }
+}
@@ -0,0 +1,567 @@
+package edu.cmu.iot;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A house policy compiled from a rule file. Each rule is a set of conditions on the house state and a list of
+ * actions, for example:
+ *
+ * <pre>
+ * [light]
+ * changed:LS LS !PS -&gt; clear LS, log "Cannot turn on light because user not home"
+ * changed:LS LS -&gt; log "Turning on light"
+ * </pre>
+ *
+ * A condition names an on/off field by its protocol key. A bare key tests the current value, and the prefixes
+ * has:, last:, lasthas:, changed: and diff: test whether the field is known, its value and whether it was known
+ * in the last evaluated state, whether it changed before any rule ran, and whether it differs now. TEMP_KNOWN,
+ * BELOW_TARGET, ABOVE_TARGET, PASSCODE_GIVEN and PASSCODE_OK test the readings and the alarm passcode. A leading
+ * ! negates a condition. The actions are set, clear, log (with {temp}, {target} and {humidity} placeholders),
+ * away-timer and cancel-away-timer. Rules are grouped under [name] headers; the groups run in order, the first
+ * matching rule in a group fires, and later groups see the changes made by earlier ones.
+ *
+ * Every condition is compiled into a bit of a single long, so a rule matches when (context &amp; care) == want.
+ * A table indexed by the changed-field mask gives the rules that can match for that set of changes, so an
+ * evaluation is a few table lookups and does not allocate unless a rule logs a message.
+ *
+ * Project: LG Exec Ed Program
+ * Copyright: Copyright (c) 2015 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 October 2026 - initial version
+ */
+public class IoTRuleSet {
+
+    /** Carries out the actions that need the controller */
+    public interface Actions {
+        /**
+         * Log a message
+         * @param msg the message
+         */
+        void log(String msg);
+
+        /**
+         * Start the away timer
+         */
+        void startAwayTimer();
+
+        /**
+         * Cancel the away timer, if it is running
+         */
+        void cancelAwayTimer();
+    }
+
+    /** the rule file bundled with the controller */
+    private static final String DEFAULT_RULES = "default.rules";
+
+    /** the most rules a rule set can hold */
+    public static final int MAX_RULES = 64;
+
+    /** the number of on/off fields, which is the width of each group of context bits */
+    private static final int FIELD_COUNT = 9;
+    private static final long FIELD_MASK = HouseState.FLAGS;
+
+    // the position of each group of bits in the context
+    private static final int CUR = 0;
+    private static final int HAS = FIELD_COUNT;
+    private static final int LAST = 2 * FIELD_COUNT;
+    private static final int LAST_HAS = 3 * FIELD_COUNT;
+    private static final int CHANGED = 4 * FIELD_COUNT;
+    private static final int DIFF = 5 * FIELD_COUNT;
+
+    // derived conditions
+    private static final long TEMP_KNOWN = 1L << (6 * FIELD_COUNT);
+    private static final long BELOW_TARGET = TEMP_KNOWN << 1;
+    private static final long ABOVE_TARGET = TEMP_KNOWN << 2;
+    private static final long PASSCODE_GIVEN = TEMP_KNOWN << 3;
+    private static final long PASSCODE_OK = TEMP_KNOWN << 4;
+
+    /** the context bits that do not change while the rules run */
+    private static final long FIXED = (FIELD_MASK << CHANGED) | TEMP_KNOWN | BELOW_TARGET | ABOVE_TARGET
+            | PASSCODE_GIVEN | PASSCODE_OK;
+
+    private static final String[] DERIVED_NAMES = {
+            "TEMP_KNOWN", "BELOW_TARGET", "ABOVE_TARGET", "PASSCODE_GIVEN", "PASSCODE_OK"
+    };
+
+    private static final String[] PREFIXES = { "has", "last", "lasthas", "changed", "diff" };
+    private static final int[] PREFIX_SHIFTS = { HAS, LAST, LAST_HAS, CHANGED, DIFF };
+
+    private static final String[] PLACEHOLDERS = { "{temp}", "{target}", "{humidity}" };
+
+    /** the default rule set */
+    private static IoTRuleSet defaultRules = null;
+
+    /** where the rules came from */
+    private final String source;
+
+    // the compiled rules, in file order
+    private final int ruleCount;
+    private final long[] care;
+    private final long[] want;
+    private final long[] groupBit;
+    private final int[] setFields;
+    private final int[] clearFields;
+    private final boolean[] awayTimer;
+    private final boolean[] cancelAwayTimer;
+    private final String[][] logs;
+    private final String[] texts;
+
+    /** the rules that can match, indexed by the changed-field mask */
+    private final long[] dispatch = new long[1 << FIELD_COUNT];
+
+    /** identifies the rules, whatever file they came from */
+    private final long hash;
+
+    /**
+     * Compile a rule file
+     * @param src where the rules came from, used in error messages
+     * @param in the rules
+     * @throws IOException if the rules cannot be read
+     * @throws IllegalArgumentException if a rule is not valid
+     */
+    public IoTRuleSet(String src, Reader in) throws IOException {
+        source = src;
+
+        List<Rule> rules = new ArrayList<Rule>();
+        BufferedReader br = new BufferedReader(in);
+        String line;
+        int lineNumber = 0;
+        int group = -1;
+        while ((line = br.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.length() == 0 || line.startsWith("#")) {
+                continue;
+            }
+            if (line.startsWith("[")) {
+                if (!line.endsWith("]")) {
+                    throw error(lineNumber, "unterminated group name");
+                }
+                group++;
+                if (group >= 64) {
+                    throw error(lineNumber, "too many groups");
+                }
+                continue;
+            }
+            if (group < 0) {
+                throw error(lineNumber, "rule outside a group");
+            }
+            if (rules.size() >= MAX_RULES) {
+                throw error(lineNumber, "more than " + MAX_RULES + " rules");
+            }
+            Rule rule = parseRule(line, lineNumber, group);
+            rule.text = line;
+            rules.add(rule);
+        }
+
+        ruleCount = rules.size();
+        care = new long[ruleCount];
+        want = new long[ruleCount];
+        groupBit = new long[ruleCount];
+        setFields = new int[ruleCount];
+        clearFields = new int[ruleCount];
+        awayTimer = new boolean[ruleCount];
+        cancelAwayTimer = new boolean[ruleCount];
+        logs = new String[ruleCount][];
+        texts = new String[ruleCount];
+
+        for (int i = 0; i < ruleCount; i++) {
+            Rule r = rules.get(i);
+            care[i] = r.care;
+            want[i] = r.want;
+            groupBit[i] = 1L << r.group;
+            setFields[i] = r.set;
+            clearFields[i] = r.clear;
+            awayTimer[i] = r.awayTimer;
+            cancelAwayTimer[i] = r.cancelAwayTimer;
+            logs[i] = r.logs.toArray(new String[r.logs.size()]);
+            texts[i] = r.text;
+
+            // the rule can only match for changed masks that agree with its changed: conditions
+            int required = (int) ((r.want >>> CHANGED) & FIELD_MASK);
+            int excluded = (int) ((r.care >>> CHANGED) & FIELD_MASK) & ~required;
+            for (int changed = 0; changed < dispatch.length; changed++) {
+                if ((changed & required) == required && (changed & excluded) == 0) {
+                    dispatch[changed] |= 1L << i;
+                }
+            }
+        }
+        hash = computeHash();
+    }
+
+    /**
+     * Hash the rules and the way they are grouped, FNV-1a over the rule texts
+     * @return the hash
+     */
+    private long computeHash() {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < ruleCount; i++) {
+            if (i > 0 && groupBit[i] != groupBit[i - 1]) {
+                h = (h ^ '[') * 0x100000001b3L;
+            }
+            String text = texts[i];
+            for (int j = 0; j < text.length(); j++) {
+                h = (h ^ text.charAt(j)) * 0x100000001b3L;
+            }
+            h = (h ^ '\n') * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /**
+     * Get the rule set bundled with the controller
+     * @return the default rules
+     */
+    public static synchronized IoTRuleSet getDefault() {
+        if (defaultRules == null) {
+            InputStream is = IoTRuleSet.class.getResourceAsStream(DEFAULT_RULES);
+            if (is == null) {
+                throw new IllegalStateException("Missing resource " + DEFAULT_RULES);
+            }
+            try {
+                defaultRules = new IoTRuleSet(DEFAULT_RULES, new InputStreamReader(is, "US-ASCII"));
+            } catch (IOException ioe) {
+                throw new IllegalStateException("Cannot read " + DEFAULT_RULES, ioe);
+            } finally {
+                try {
+                    is.close();
+                } catch (IOException ioe) {
+                    // ignore
+                }
+            }
+        }
+        return defaultRules;
+    }
+
+    /**
+     * Load the rules for a house. A file named rules-[address].txt in the settings directory applies to that
+     * house only; otherwise rules.txt in the settings directory applies to every house. If neither exists or the
+     * file is not valid, the default rules are used.
+     * @param settingsPath the settings directory
+     * @param houseAddress the house address
+     * @return the rules
+     */
+    public static IoTRuleSet forHouse(String settingsPath, String houseAddress) {
+        try {
+            return load(settingsPath, houseAddress);
+        } catch (Exception e) {
+            System.out.println("Cannot load rules, using the default rules: " + e.getMessage());
+            return getDefault();
+        }
+    }
+
+    /**
+     * Load the rules for a house like forHouse, but fail if the file is not valid, so rules already in use can
+     * be kept. The file is read while it may be changing, so rule files should be replaced whole: written under
+     * another name and then renamed over the old one.
+     * @param settingsPath the settings directory
+     * @param houseAddress the house address
+     * @return the rules; the default rules if there is no rules file
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if a rule is not valid
+     */
+    public static IoTRuleSet load(String settingsPath, String houseAddress) throws IOException {
+        File houseFile = new File(settingsPath + File.separator + "rules-" + houseAddress + ".txt");
+        File file = houseFile.exists() ? houseFile : new File(settingsPath + File.separator + IoTValues.RULES_FILE);
+        if (!file.exists()) {
+            return getDefault();
+        }
+        FileReader fr = new FileReader(file);
+        try {
+            return new IoTRuleSet(file.getPath(), fr);
+        } finally {
+            fr.close();
+        }
+    }
+
+    /**
+     * Get where the rules came from
+     * @return the file or resource name
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Get the number of rules
+     * @return the rule count
+     */
+    public int size() {
+        return ruleCount;
+    }
+
+    /**
+     * Get a hash of the rules, which identifies them whatever file they came from
+     * @return the hash
+     */
+    public long getHash() {
+        return hash;
+    }
+
+    /**
+     * Write the rules out as a rule file. Group names are not kept, so the groups are numbered; the file compiles
+     * to the same rules, with the same indexes.
+     * @return the rule file
+     */
+    public String toRuleFile() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# ").append(source).append('\n');
+        for (int i = 0; i < ruleCount; i++) {
+            if (i == 0 || groupBit[i] != groupBit[i - 1]) {
+                sb.append("[group ").append(Long.numberOfTrailingZeros(groupBit[i])).append("]\n");
+            }
+            sb.append(texts[i]).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Get the text of a rule as it appears in the rule file
+     * @param rule the rule index
+     * @return the rule text
+     */
+    public String getRuleText(int rule) {
+        return texts[rule];
+    }
+
+    /**
+     * Apply the rules to a state
+     * @param current the state to evaluate; rules change it in place
+     * @param last the last evaluated state
+     * @param givenPassCode the passcode given with the state, null if none
+     * @param alarmPassCode the alarm passcode
+     * @param actions carries out the log and timer actions
+     * @return the rules that fired, one bit per rule index
+     */
+    public long evaluate(HouseState current, HouseState last, String givenPassCode, String alarmPassCode,
+                        Actions actions) {
+        long ctx = stateBits(current, last);
+        ctx |= ((ctx >>> DIFF) & FIELD_MASK) << CHANGED;
+
+        if (current.has(HouseState.TEMP_READING) && current.has(HouseState.TARGET_TEMP)) {
+            ctx |= TEMP_KNOWN;
+            if (current.getTempReading() < current.getTargetTemp()) {
+                ctx |= BELOW_TARGET;
+            } else if (current.getTempReading() > current.getTargetTemp()) {
+                ctx |= ABOVE_TARGET;
+            }
+        }
+        if (givenPassCode != null) {
+            ctx |= PASSCODE_GIVEN;
+            // kept from the original controller: any passcode that does not sort before the real one is accepted
+            if (alarmPassCode != null && givenPassCode.compareTo(alarmPassCode) >= 0) {
+                ctx |= PASSCODE_OK;
+            }
+        }
+
+        long fired = 0;
+        long firedGroups = 0;
+        long candidates = dispatch[(int) ((ctx >>> CHANGED) & FIELD_MASK)];
+        while (candidates != 0) {
+            int i = Long.numberOfTrailingZeros(candidates);
+            candidates &= candidates - 1;
+
+            if ((firedGroups & groupBit[i]) != 0 || (ctx & care[i]) != want[i]) {
+                continue;
+            }
+            firedGroups |= groupBit[i];
+            fired |= 1L << i;
+
+            apply(i, current, actions);
+            ctx = (ctx & FIXED) | stateBits(current, last);
+        }
+        return fired;
+    }
+
+    /**
+     * Carry out the actions of a rule
+     */
+    private void apply(int rule, HouseState current, Actions actions) {
+        for (String msg : logs[rule]) {
+            actions.log(msg.indexOf('{') < 0 ? msg : format(msg, current));
+        }
+        int fields = setFields[rule];
+        while (fields != 0) {
+            int field = Integer.lowestOneBit(fields);
+            current.set(field, true);
+            fields &= ~field;
+        }
+        fields = clearFields[rule];
+        while (fields != 0) {
+            int field = Integer.lowestOneBit(fields);
+            current.set(field, false);
+            fields &= ~field;
+        }
+        if (cancelAwayTimer[rule]) {
+            actions.cancelAwayTimer();
+        }
+        if (awayTimer[rule]) {
+            actions.startAwayTimer();
+        }
+    }
+
+    /**
+     * Fill in the placeholders of a log message
+     */
+    private static String format(String template, HouseState state) {
+        return template.replace(PLACEHOLDERS[0], String.valueOf(state.getTempReading()))
+                .replace(PLACEHOLDERS[1], String.valueOf(state.getTargetTemp()))
+                .replace(PLACEHOLDERS[2], String.valueOf(state.getHumidityReading()));
+    }
+
+    /**
+     * Compute the context bits that rules can change
+     */
+    private static long stateBits(HouseState current, HouseState last) {
+        long has = current.getPresent() & FIELD_MASK;
+        long cur = current.getFlags() & has;
+        long lastHas = last.getPresent() & FIELD_MASK;
+        long lastCur = last.getFlags() & lastHas;
+        long diff = ((cur ^ lastCur) & has) | (has & ~lastHas);
+        return (cur << CUR) | (has << HAS) | (lastCur << LAST) | (lastHas << LAST_HAS) | (diff << DIFF);
+    }
+
+    /**
+     * Parse one rule: conditions, an arrow and comma separated actions
+     */
+    private static Rule parseRule(String line, int lineNumber, int group) {
+        int arrow = line.indexOf("->");
+        if (arrow < 0) {
+            throw error(lineNumber, "missing ->");
+        }
+        Rule rule = new Rule(group);
+
+        for (String cond : line.substring(0, arrow).trim().split("\\s+")) {
+            if (cond.length() == 0) {
+                continue;
+            }
+            boolean negated = cond.startsWith("!");
+            long bit = conditionBit(negated ? cond.substring(1) : cond, lineNumber);
+            if ((rule.care & bit) != 0 && ((rule.want & bit) != 0) == negated) {
+                throw error(lineNumber, "contradictory condition " + cond);
+            }
+            rule.care |= bit;
+            if (!negated) {
+                rule.want |= bit;
+            }
+        }
+
+        for (String action : splitActions(line.substring(arrow + 2), lineNumber)) {
+            if (action.startsWith("log ")) {
+                String msg = action.substring(4).trim();
+                if (msg.length() < 2 || !msg.startsWith("\"") || !msg.endsWith("\"")) {
+                    throw error(lineNumber, "log message must be quoted");
+                }
+                rule.logs.add(msg.substring(1, msg.length() - 1));
+            } else if (action.startsWith("set ")) {
+                rule.set |= field(action.substring(4).trim(), lineNumber);
+            } else if (action.startsWith("clear ")) {
+                rule.clear |= field(action.substring(6).trim(), lineNumber);
+            } else if (action.equals("away-timer")) {
+                rule.awayTimer = true;
+            } else if (action.equals("cancel-away-timer")) {
+                rule.cancelAwayTimer = true;
+            } else {
+                throw error(lineNumber, "unknown action " + action);
+            }
+        }
+        return rule;
+    }
+
+    /**
+     * Split the actions at commas that are not inside a quoted message
+     */
+    private static List<String> splitActions(String text, int lineNumber) {
+        List<String> actions = new ArrayList<String>();
+        StringBuilder action = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            }
+            if (c == ',' && !quoted) {
+                actions.add(action.toString().trim());
+                action.setLength(0);
+            } else {
+                action.append(c);
+            }
+        }
+        if (quoted) {
+            throw error(lineNumber, "unterminated log message");
+        }
+        actions.add(action.toString().trim());
+
+        for (String a : actions) {
+            if (a.length() == 0) {
+                throw error(lineNumber, "empty action");
+            }
+        }
+        return actions;
+    }
+
+    /**
+     * Find the context bit for a condition
+     */
+    private static long conditionBit(String cond, int lineNumber) {
+        for (int i = 0; i < DERIVED_NAMES.length; i++) {
+            if (DERIVED_NAMES[i].equals(cond)) {
+                return TEMP_KNOWN << i;
+            }
+        }
+        int colon = cond.indexOf(':');
+        if (colon < 0) {
+            return (long) field(cond, lineNumber) << CUR;
+        }
+        String prefix = cond.substring(0, colon);
+        for (int i = 0; i < PREFIXES.length; i++) {
+            if (PREFIXES[i].equals(prefix)) {
+                return (long) field(cond.substring(colon + 1), lineNumber) << PREFIX_SHIFTS[i];
+            }
+        }
+        throw error(lineNumber, "unknown condition " + cond);
+    }
+
+    /**
+     * Find the on/off field for a protocol key
+     */
+    private static int field(String key, int lineNumber) {
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            if (IoTStateCodec.FIELD_KEYS[i].equals(key)) {
+                return 1 << i;
+            }
+        }
+        throw error(lineNumber, "unknown field " + key);
+    }
+
+    private static IllegalArgumentException error(int lineNumber, String msg) {
+        return new IllegalArgumentException("line " + lineNumber + ": " + msg);
+    }
+
+    /**
+     * A rule while it is being parsed
+     */
+    private static class Rule {
+        final int group;
+        String text;
+        long care = 0;
+        long want = 0;
+        int set = 0;
+        int clear = 0;
+        boolean awayTimer = false;
+        boolean cancelAwayTimer = false;
+        final List<String> logs = new ArrayList<String>();
+
+        Rule(int g) {
+            group = g;
+        }
+    }
+}
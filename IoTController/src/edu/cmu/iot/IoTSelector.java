@@ -0,0 +1,166 @@
+package edu.cmu.iot;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The network thread for house connections. A single selector thread multiplexes every open house channel: it
+ * completes connections, writes queued requests, reads responses and fails requests whose deadline has passed.
+ *
+ * Project: LG Exec Ed Program
+ * Copyright: Copyright (c) 2015 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 October 2026 - initial version
+ */
+class IoTSelector implements Runnable {
+
+    /** how often (in milliseconds) request deadlines are checked */
+    private static final long SWEEP_INTERVAL = 100;
+
+    /** the size of the shared read buffer */
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    /** the selector shared by all house connections */
+    private static IoTSelector sharedSelector = null;
+
+    private final Selector selector;
+
+    /** channels waiting to be registered with the selector */
+    private final ConcurrentLinkedQueue<IoTChannel> registrations = new ConcurrentLinkedQueue<IoTChannel>();
+
+    /** channels with data waiting to be written */
+    private final ConcurrentLinkedQueue<IoTChannel> writes = new ConcurrentLinkedQueue<IoTChannel>();
+
+    /** read buffer shared by all channels; only used on the selector thread */
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+    private IoTSelector() throws IOException {
+        selector = Selector.open();
+    }
+
+    /**
+     * Get the shared selector, starting the selector thread if needed
+     * @return the selector
+     * @throws IOException if the selector cannot be opened
+     */
+    static synchronized IoTSelector getSelector() throws IOException {
+        if (sharedSelector == null) {
+            sharedSelector = new IoTSelector();
+            Thread t = new Thread(sharedSelector, "IoT selector");
+            t.setDaemon(true);
+            t.start();
+        }
+        return sharedSelector;
+    }
+
+    /**
+     * Open a channel to a house
+     *
+     * @param addr the house address
+     * @param port the house port
+     * @param timeout the time (in milliseconds) to wait for the connection
+     * @return the connected channel, or null if the connection could not be made in time
+     * @throws IOException if the connection fails
+     */
+    IoTChannel connect(String addr, int port, long timeout) throws IOException {
+        IoTChannel channel = open(addr, port);
+        if (!channel.awaitConnected(timeout)) {
+            channel.close();
+            return null;
+        }
+        return channel;
+    }
+
+    /**
+     * Start opening a channel to a house without waiting for the house to accept. Requests sent on the channel
+     * are written once it connects; if the connection fails, the channel closes and fails them.
+     *
+     * @param addr the house address
+     * @param port the house port
+     * @return the connecting channel
+     * @throws IOException if the connection cannot be started
+     */
+    IoTChannel open(String addr, int port) throws IOException {
+        InetSocketAddress houseAddress = new InetSocketAddress(addr, port);
+        if (houseAddress.isUnresolved()) {
+            throw new UnknownHostException(addr);
+        }
+
+        SocketChannel socket = SocketChannel.open();
+        socket.configureBlocking(false);
+        socket.socket().setTcpNoDelay(true);
+        socket.connect(houseAddress);
+
+        IoTChannel channel = new IoTChannel(addr, socket, this);
+        registrations.add(channel);
+        selector.wakeup();
+        return channel;
+    }
+
+    /**
+     * Ask the selector thread to write the data queued on a channel
+     * @param channel the channel
+     */
+    void requestWrite(IoTChannel channel) {
+        writes.add(channel);
+        selector.wakeup();
+    }
+
+    /**
+     * The selector loop
+     */
+    @Override
+    public void run() {
+        long lastSweep = System.currentTimeMillis();
+        while (true) {
+            try {
+                selector.select(SWEEP_INTERVAL);
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    IoTChannel channel = (IoTChannel) key.attachment();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isConnectable()) {
+                        channel.finishConnect();
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        channel.read(readBuffer);
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        channel.write();
+                    }
+                }
+
+                IoTChannel channel;
+                while ((channel = registrations.poll()) != null) {
+                    channel.register(selector);
+                }
+                while ((channel = writes.poll()) != null) {
+                    channel.write();
+                }
+
+                long now = System.currentTimeMillis();
+                if (now - lastSweep >= SWEEP_INTERVAL) {
+                    for (SelectionKey key : selector.keys()) {
+                        ((IoTChannel) key.attachment()).expireRequests(now);
+                    }
+                    lastSweep = now;
+                }
+            } catch (Exception e) {
+                // a single misbehaving channel must not stop the selector thread
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package edu.cmu.iot;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * A snapshot of the user settings. Snapshots are never changed; a change makes a new snapshot, so any thread may
+ * read one without a lock.
+ *
+ * Project: LG Exec Ed Program
+ * Copyright: Copyright (c) 2015 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 October 2026 - initial version
+ */
+public final class IoTSettings {
+
+    /** the alarm delay in seconds when none is set */
+    public static final int DEFAULT_ALARM_DELAY = 5;
+
+    /** the alarm passcode when none is set */
+    public static final String DEFAULT_ALARM_PASSCODE = "passcode";
+
+    /** the settings before any are loaded */
+    static final IoTSettings DEFAULTS = new IoTSettings(new HashMap<String, String>(), DEFAULT_ALARM_DELAY, 0);
+
+    private final Map<String, String> values;
+    private final int alarmDelay;
+    private final long version;
+
+    private IoTSettings(Map<String, String> values, int alarmDelay, long version) {
+        this.values = Collections.unmodifiableMap(values);
+        this.alarmDelay = alarmDelay;
+        this.version = version;
+    }
+
+    /**
+     * Make the settings read from a settings file
+     * @param props the file contents
+     * @param previous the settings they replace; a value that cannot be used is kept from these
+     * @return the settings
+     */
+    static IoTSettings fromProperties(Properties props, IoTSettings previous) {
+        Map<String, String> values = new HashMap<String, String>();
+        for (String name : props.stringPropertyNames()) {
+            values.put(name, props.getProperty(name).trim());
+        }
+        return make(values, previous);
+    }
+
+    /**
+     * Make the settings with some values changed
+     * @param changes the new values
+     * @return the settings
+     */
+    IoTSettings with(Map<String, String> changes) {
+        Map<String, String> merged = new HashMap<String, String>(values);
+        merged.putAll(changes);
+        return make(merged, this);
+    }
+
+    private static IoTSettings make(Map<String, String> values, IoTSettings previous) {
+        int delay = DEFAULT_ALARM_DELAY;
+        String text = values.get(IoTValues.ALARM_DELAY);
+        if (text != null) {
+            try {
+                delay = Integer.parseInt(text);
+                if (delay < 0) {
+                    throw new NumberFormatException("negative");
+                }
+            } catch (NumberFormatException nfe) {
+                System.out.println("Invalid " + IoTValues.ALARM_DELAY + " " + text + ", keeping "
+                        + previous.alarmDelay);
+                delay = previous.alarmDelay;
+                values.put(IoTValues.ALARM_DELAY, String.valueOf(delay));
+            }
+        }
+        return new IoTSettings(values, delay, previous.version + 1);
+    }
+
+    /**
+     * Get the time the house waits after the occupant leaves before locking down
+     * @return the delay in seconds
+     */
+    public int getAlarmDelay() {
+        return alarmDelay;
+    }
+
+    /**
+     * Get the passcode that disables the alarm
+     * @return the passcode
+     */
+    public String getAlarmPassCode() {
+        String code = values.get(IoTValues.ALARM_PASSCODE);
+        return code == null ? DEFAULT_ALARM_PASSCODE : code;
+    }
+
+    /**
+     * Get a setting
+     * @param name the setting name
+     * @return the value, or null if it is not set
+     */
+    public String get(String name) {
+        return values.get(name);
+    }
+
+    /**
+     * Get every setting
+     * @return the settings by name; the map cannot be changed
+     */
+    public Map<String, String> getValues() {
+        return values;
+    }
+
+    /**
+     * Get the version of the settings, which goes up by one with every change
+     * @return the version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Find out if two snapshots hold the same settings, whatever their versions
+     * @param other the other settings
+     * @return true if the values are the same
+     */
+    public boolean sameValues(IoTSettings other) {
+        return values.equals(other.values);
+    }
+
+    @Override
+    public String toString() {
+        // the passcode is left out, so settings can be logged
+        Map<String, String> shown = new HashMap<String, String>(values);
+        if (shown.containsKey(IoTValues.ALARM_PASSCODE)) {
+            shown.put(IoTValues.ALARM_PASSCODE, "****");
+        }
+        return "v" + version + " " + shown;
+    }
+}
@@ -0,0 +1,297 @@
+package edu.cmu.iot;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The settings of every house controlled from one settings directory. The settings file is read into an
+ * immutable snapshot that is published atomically, so the controllers read the current settings without a lock.
+ * Once started, the store watches the directory: when the settings file changes only it is read again, and when a
+ * rules file changes the listeners are told its name, so each controller reloads just the rules it uses. Edits
+ * reach every running controller within milliseconds, without a restart.
+ *
+ * The settings file is the source of truth: changes made through update last until the file is next changed.
+ * The watcher may see a file while it is being written, so the settings and rules files should be replaced
+ * whole, written under another name and then renamed over the old one. A settings file that has lost settings
+ * the last one had is taken to be cut short and is not published; removing a setting needs a restart.
+ *
+ * Project: LG Exec Ed Program
+ * Copyright: Copyright (c) 2015 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 October 2026 - initial version
+ */
+public class IoTSettingsStore {
+
+    /** Notified of changes; called on the thread that made the change, usually the watcher, so must not block */
+    public interface Listener {
+        /**
+         * New settings were published
+         * @param settings the new settings
+         */
+        void settingsChanged(IoTSettings settings);
+
+        /**
+         * A rules file in the settings directory changed
+         * @param fileName the name of the file, or null if any rules file may have changed
+         */
+        void rulesChanged(String fileName);
+    }
+
+    /** milliseconds to wait for more events after a change, so a file is read once its writer is done */
+    private static final long SETTLE = 20;
+
+    /** the stores by settings directory; guarded by the class */
+    private static final Map<String, IoTSettingsStore> stores = new HashMap<String, IoTSettingsStore>();
+
+    private final File dir;
+    private final AtomicReference<IoTSettings> current = new AtomicReference<IoTSettings>(IoTSettings.DEFAULTS);
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+    /** the setting names in the settings file when it was last published */
+    private volatile Set<String> fileNames = Collections.emptySet();
+
+    /** the directory watcher, null until started; guarded by this */
+    private WatchService watcher = null;
+    private boolean started = false;
+
+    private IoTSettingsStore(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Get the store for a settings directory. Every controller using the directory shares the store.
+     * @param settingsPath the settings directory
+     * @return the store
+     */
+    public static synchronized IoTSettingsStore forDirectory(String settingsPath) {
+        File dir = new File(settingsPath).getAbsoluteFile();
+        String key;
+        try {
+            key = dir.getCanonicalPath();
+        } catch (IOException ioe) {
+            key = dir.getPath();
+        }
+        IoTSettingsStore store = stores.get(key);
+        if (store == null) {
+            store = new IoTSettingsStore(dir);
+            stores.put(key, store);
+        }
+        return store;
+    }
+
+    /**
+     * Get the current settings
+     * @return the settings; never null
+     */
+    public IoTSettings get() {
+        return current.get();
+    }
+
+    /**
+     * Listen for changes
+     * @param listener the listener
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Stop listening for changes
+     * @param listener the listener
+     */
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Read the settings file and start watching the directory. Only the first call does anything.
+     */
+    public synchronized void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        reload();
+
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+            dir.toPath().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException ioe) {
+            System.out.println("Cannot watch " + dir + ", settings changes need a restart: " + ioe.getMessage());
+            return;
+        }
+        final WatchService ws = watcher;
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watch(ws);
+            }
+        }, "settings watcher");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Stop watching the directory
+     */
+    public synchronized void stop() {
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
+            watcher = null;
+        }
+    }
+
+    /**
+     * Change some settings and publish the result
+     * @param changes the new values by setting name
+     */
+    public void update(Map<String, String> changes) {
+        IoTSettings previous;
+        IoTSettings next;
+        do {
+            previous = current.get();
+            next = previous.with(changes);
+        } while (!current.compareAndSet(previous, next));
+        publish(next);
+    }
+
+    /**
+     * Read the settings file again and publish it if anything changed. A missing or unreadable file, or one
+     * without every setting the last one had, leaves the settings as they are, except on the first load, when the
+     * defaults stand.
+     */
+    void reload() {
+        File f = new File(dir, IoTValues.SETTINGS_FILE);
+        Properties props = new Properties();
+        InputStream is = null;
+        try {
+            is = new FileInputStream(f);
+            props.load(is);
+        } catch (IOException ioe) {
+            System.out.println("Cannot read " + f + ": " + ioe.getMessage());
+            return;
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException ioe) {
+                    ioe.printStackTrace();
+                }
+            }
+        }
+
+        // an empty or half written file would drop the fleet back to the default passcode and delay
+        Set<String> names = props.stringPropertyNames();
+        Set<String> missing = new TreeSet<String>(fileNames);
+        missing.removeAll(names);
+        if (!missing.isEmpty()) {
+            System.out.println("Ignoring " + f + ", it is missing " + missing + "; keeping the current settings");
+            return;
+        }
+        fileNames = names;
+
+        IoTSettings previous;
+        IoTSettings next;
+        do {
+            previous = current.get();
+            next = IoTSettings.fromProperties(props, previous);
+            if (next.sameValues(previous)) {
+                return;
+            }
+        } while (!current.compareAndSet(previous, next));
+        publish(next);
+    }
+
+    private void publish(IoTSettings settings) {
+        for (Listener l : listeners) {
+            l.settingsChanged(settings);
+        }
+    }
+
+    /**
+     * Handle directory events until the watcher is closed. Runs on the watcher thread.
+     * @param ws the watcher
+     */
+    private void watch(WatchService ws) {
+        try {
+            while (true) {
+                Set<String> changed = new LinkedHashSet<String>();
+                WatchKey key = ws.take();
+                boolean valid = collect(key, changed);
+
+                // editors often write a file in several steps; read it once they are done
+                while ((key = ws.poll(SETTLE, TimeUnit.MILLISECONDS)) != null) {
+                    valid &= collect(key, changed);
+                }
+
+                boolean all = changed.contains(null);
+                if (all || changed.contains(IoTValues.SETTINGS_FILE)) {
+                    reload();
+                }
+                if (all) {
+                    for (Listener l : listeners) {
+                        l.rulesChanged(null);
+                    }
+                } else {
+                    for (String name : changed) {
+                        if (name.equals(IoTValues.RULES_FILE) || (name.startsWith("rules-") && name.endsWith(".txt"))) {
+                            for (Listener l : listeners) {
+                                l.rulesChanged(name);
+                            }
+                        }
+                    }
+                }
+                if (!valid) {
+                    System.out.println("The settings directory " + dir + " is gone, no longer watching it");
+                    return;
+                }
+            }
+        } catch (InterruptedException ie) {
+            // stopping
+        } catch (ClosedWatchServiceException cwse) {
+            // stopping
+        }
+    }
+
+    /**
+     * Add the names of the files in a set of events
+     * @param key the events
+     * @param changed the names; null stands for every file, when events were lost
+     * @return false if the directory can no longer be watched
+     */
+    private static boolean collect(WatchKey key, Set<String> changed) {
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                changed.add(null);
+            } else {
+                changed.add(((Path) event.context()).getFileName().toString());
+            }
+        }
+        return key.reset();
+    }
+}
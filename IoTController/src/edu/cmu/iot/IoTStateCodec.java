@@ -0,0 +1,172 @@
+package edu.cmu.iot;
+
+/**
+ * Encodes and decodes the house state messages without allocating. State updates (SU:k=v;k=v.) are parsed in place
+ * into a HouseState, and set state requests (SS:k=v;k=v;.) are written into a reusable buffer. A codec keeps
+ * scratch space, so each thread needs its own codec or must lock it. The channel hands each received line over as
+ * a string, since it is used after the shared read buffer has been refilled.
+ *
+ * Project: LG Exec Ed Program
+ * Copyright: Copyright (c) 2015 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 October 2026 - initial version
+ */
+public class IoTStateCodec {
+
+    /** the protocol key for each HouseState field, indexed by bit position */
+    static final String[] FIELD_KEYS = {
+            IoTValues.LIGHT_STATE,
+            IoTValues.DOOR_STATE,
+            IoTValues.PROXIMITY_STATE,
+            IoTValues.ALARM_STATE,
+            IoTValues.ALARM_ACTIVE,
+            IoTValues.HUMIDIFIER_STATE,
+            IoTValues.HEATER_STATE,
+            IoTValues.CHILLER_STATE,
+            IoTValues.HVAC_MODE,
+            IoTValues.TEMP_READING,
+            IoTValues.HUMIDITY_READING,
+            IoTValues.TARGET_TEMP
+    };
+
+    private static final char PARAM_DELIM = IoTValues.PARAM_DELIM.charAt(0);
+    private static final char MSG_DELIM = IoTValues.MSG_DELIM.charAt(0);
+    private static final char PARAM_EQ = IoTValues.PARAM_EQ.charAt(0);
+    private static final char MSG_END = IoTValues.MSG_END.charAt(0);
+
+    /** the outgoing message, reused for each encode */
+    private final StringBuilder out = new StringBuilder(64);
+
+    /** the values decoded so far, indexed by bit position; copied to the state once the whole message is valid */
+    private final int[] decoded = new int[FIELD_KEYS.length];
+
+    /**
+     * Decode a state update message
+     * @param msg the message, for example SU:DS=1;TR=70;LS=0.
+     * @param state the state to fill in; fields not in the message are left unchanged, and nothing is changed if
+     *              the message is not valid
+     * @return true if the message was a valid state update, false otherwise
+     */
+    public boolean decode(CharSequence msg, HouseState state) {
+        if (msg == null) {
+            return false;
+        }
+        return decode(msg, 0, msg.length(), state);
+    }
+
+    /**
+     * Parse the message between start and end
+     */
+    private boolean decode(CharSequence msg, int start, int end, HouseState state) {
+        // trim line endings and the message terminator
+        while (end > start && (msg.charAt(end - 1) == '\n' || msg.charAt(end - 1) == '\r')) {
+            end--;
+        }
+        if (end > start && msg.charAt(end - 1) == MSG_END) {
+            end--;
+        }
+
+        // only state updates come from the house
+        String cmd = IoTValues.STATE_UPDATE;
+        if (end - start < cmd.length() + 1 || msg.charAt(start + cmd.length()) != MSG_DELIM) {
+            return false;
+        }
+        for (int i = 0; i < cmd.length(); i++) {
+            if (msg.charAt(start + i) != cmd.charAt(i)) {
+                return false;
+            }
+        }
+
+        int fields = 0;
+        int pos = start + cmd.length() + 1;
+        while (pos < end) {
+            int keyStart = pos;
+            while (pos < end && msg.charAt(pos) != PARAM_EQ) {
+                pos++;
+            }
+            int keyEnd = pos;
+            if (pos >= end) {
+                return false; // parameter without a value
+            }
+            pos++;
+
+            boolean negative = false;
+            if (pos < end && msg.charAt(pos) == '-') {
+                negative = true;
+                pos++;
+            }
+            int valueStart = pos;
+            int value = 0;
+            while (pos < end && msg.charAt(pos) != PARAM_DELIM) {
+                char c = msg.charAt(pos);
+                if (c < '0' || c > '9') {
+                    return false;
+                }
+                value = value * 10 + (c - '0');
+                pos++;
+            }
+            if (pos == valueStart) {
+                return false;
+            }
+            pos++; // skip the delimiter
+
+            int index = indexFor(msg, keyStart, keyEnd);
+            if (index >= 0) {
+                decoded[index] = negative ? -value : value;
+                fields |= 1 << index;
+            }
+        }
+
+        // the whole message is valid; only now is the state changed
+        for (int i = 0; i < FIELD_KEYS.length; i++) {
+            int field = 1 << i;
+            if ((fields & field) != 0) {
+                state.setValue(field, decoded[i]);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find the field for a protocol key
+     * @return the bit position of the field, or -1 if the key is not known
+     */
+    private static int indexFor(CharSequence msg, int start, int end) {
+        int len = end - start;
+        for (int i = 0; i < FIELD_KEYS.length; i++) {
+            String key = FIELD_KEYS[i];
+            if (key.length() != len) {
+                continue;
+            }
+            int j = 0;
+            while (j < len && key.charAt(j) == msg.charAt(start + j)) {
+                j++;
+            }
+            if (j == len) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Build a set state request. Each parameter is terminated by the parameter delimiter, which is what the
+     * house firmware expects.
+     * @param state the state to send
+     * @param fields the fields to include; fields that are not known are skipped
+     * @return the message, valid until the next call to encode
+     */
+    public CharSequence encode(HouseState state, int fields) {
+        out.setLength(0);
+        out.append(IoTValues.SET_STATE).append(MSG_DELIM);
+        fields &= state.getPresent();
+        for (int i = 0; i < FIELD_KEYS.length; i++) {
+            int field = 1 << i;
+            if ((fields & field) != 0) {
+                out.append(FIELD_KEYS[i]).append(PARAM_EQ).append(state.getValue(field)).append(PARAM_DELIM);
+            }
+        }
+        out.append(MSG_END);
+        return out;
+    }
+}
@@ -0,0 +1,478 @@
+package edu.cmu.iot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A fixed-size time series of integer readings. Raw samples are kept in a ring of chunks; each chunk holds the
+ * timestamps and the values in two separate bit-packed columns. Timestamps are stored as the change in the
+ * interval between samples (delta-of-delta), which is usually a few bits for a regularly polled house, and values
+ * as the change from the previous value, which is usually zero. When the ring is full the oldest chunk is reused.
+ * Alongside the raw samples the series keeps count, sum, minimum and maximum rollups per minute, hour and day,
+ * each in a ring of fixed size, so a long range query reads one bucket per row instead of decoding samples.
+ * Nothing is allocated after the series is created, apart from query results.
+ *
+ * Samples are added by one thread at a time; queries may come from any thread.
+ *
+ * Project: LG Exec Ed Program
+ * Copyright: Copyright (c) 2015 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 October 2026 - initial version
+ */
+public class IoTTimeSeries {
+
+    /** the rollup widths in milliseconds */
+    public static final long MINUTE = 60 * 1000L;
+    public static final long HOUR = 60 * MINUTE;
+    public static final long DAY = 24 * HOUR;
+
+    /** the number of buckets kept for each rollup: two days of minutes, 90 days of hours and five years of days */
+    private static final int MINUTE_BUCKETS = 2 * 24 * 60;
+    private static final int HOUR_BUCKETS = 90 * 24;
+    private static final int DAY_BUCKETS = 5 * 365;
+
+    /** the default number of raw chunks; can be set with the iot.series.chunks system property */
+    public static final int DEFAULT_CHUNKS = 8;
+
+    /** the size of each column of a chunk in bytes */
+    static final int COLUMN_BYTES = 4096;
+
+    /** the most bits a single sample can take in each column */
+    private static final int MAX_TIME_BITS = 4 + 64;
+    private static final int MAX_VALUE_BITS = 3 + 32;
+
+    /** Receives the raw samples of a query */
+    public interface SampleVisitor {
+        /**
+         * Visit a sample
+         * @param time the time of the sample in milliseconds
+         * @param value the reading
+         */
+        void sample(long time, int value);
+    }
+
+    /** The rolled-up samples of one bucket */
+    public static class Aggregate {
+        private final long start;
+        private final int count;
+        private final long sum;
+        private final int min;
+        private final int max;
+
+        Aggregate(long s, int c, long total, int lo, int hi) {
+            start = s;
+            count = c;
+            sum = total;
+            min = lo;
+            max = hi;
+        }
+
+        /**
+         * Get the start of the bucket
+         * @return the time in milliseconds
+         */
+        public long getStart() {
+            return start;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public int getMin() {
+            return min;
+        }
+
+        public int getMax() {
+            return max;
+        }
+
+        public double getAverage() {
+            return (double) sum / count;
+        }
+
+        @Override
+        public String toString() {
+            return start + ": avg=" + getAverage() + " min=" + min + " max=" + max + " n=" + count;
+        }
+    }
+
+    private final String name;
+
+    // the raw chunks; guarded by this
+    private final Chunk[] chunks;
+    private int head = 0;
+
+    private final Rollup minutes = new Rollup(MINUTE, MINUTE_BUCKETS);
+    private final Rollup hours = new Rollup(HOUR, HOUR_BUCKETS);
+    private final Rollup days = new Rollup(DAY, DAY_BUCKETS);
+
+    /**
+     * Create a series with the default number of chunks
+     * @param n the name of the series
+     */
+    public IoTTimeSeries(String n) {
+        this(n, Integer.getInteger("iot.series.chunks", DEFAULT_CHUNKS));
+    }
+
+    /**
+     * Create a series
+     * @param n the name of the series
+     * @param chunkCount the number of raw chunks kept
+     */
+    public IoTTimeSeries(String n, int chunkCount) {
+        name = n;
+        chunks = new Chunk[Math.max(2, chunkCount)];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = new Chunk();
+        }
+    }
+
+    /**
+     * Get the name of the series
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Add a sample. Samples older than the newest raw sample are only added to the rollups.
+     * @param time the time of the sample in milliseconds
+     * @param value the reading
+     */
+    public synchronized void add(long time, int value) {
+        minutes.add(time, value);
+        hours.add(time, value);
+        days.add(time, value);
+
+        Chunk c = chunks[head];
+        if (c.count > 0 && time < c.lastTime) {
+            return;
+        }
+        if (!c.fits()) {
+            head = (head + 1) % chunks.length;
+            c = chunks[head];
+            c.reset();
+        }
+        c.append(time, value);
+    }
+
+    /**
+     * Drop every sample
+     */
+    public synchronized void clear() {
+        for (Chunk c : chunks) {
+            c.reset();
+        }
+        head = 0;
+        minutes.clear();
+        hours.clear();
+        days.clear();
+    }
+
+    /**
+     * Visit the raw samples in a time range, oldest first. Only the most recent samples are kept raw; use
+     * getRollup for longer ranges.
+     * @param from the start of the range in milliseconds, inclusive
+     * @param to the end of the range in milliseconds, exclusive
+     * @param visitor receives the samples
+     * @return the number of samples visited
+     */
+    public synchronized int getSamples(long from, long to, SampleVisitor visitor) {
+        int visited = 0;
+        for (int i = 1; i <= chunks.length; i++) {
+            Chunk c = chunks[(head + i) % chunks.length];
+            if (c.count == 0 || c.lastTime < from || c.firstTime >= to) {
+                continue;
+            }
+            visited += c.scan(from, to, visitor);
+        }
+        return visited;
+    }
+
+    /**
+     * Get the time of the oldest raw sample
+     * @return the time in milliseconds, or Long.MAX_VALUE if there are none
+     */
+    public synchronized long getOldestSampleTime() {
+        for (int i = 1; i <= chunks.length; i++) {
+            Chunk c = chunks[(head + i) % chunks.length];
+            if (c.count > 0) {
+                return c.firstTime;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Get the rolled-up samples in a time range, oldest first. Buckets without samples are left out.
+     * @param width the bucket width: MINUTE, HOUR or DAY
+     * @param from the start of the range in milliseconds, inclusive
+     * @param to the end of the range in milliseconds, exclusive
+     * @return the buckets that overlap the range
+     * @throws IllegalArgumentException if the width is not one of the rollup widths
+     */
+    public synchronized List<Aggregate> getRollup(long width, long from, long to) {
+        Rollup r;
+        if (width == MINUTE) {
+            r = minutes;
+        } else if (width == HOUR) {
+            r = hours;
+        } else if (width == DAY) {
+            r = days;
+        } else {
+            throw new IllegalArgumentException("No rollup of width " + width);
+        }
+        return r.query(from, to);
+    }
+
+    /**
+     * A chunk of raw samples in two bit-packed columns
+     */
+    private static final class Chunk {
+        final byte[] times = new byte[COLUMN_BYTES];
+        final byte[] values = new byte[COLUMN_BYTES];
+        int timeBits = 0;
+        int valueBits = 0;
+
+        int count = 0;
+        long firstTime = 0;
+        long lastTime = 0;
+        long lastDelta = 0;
+        int lastValue = 0;
+
+        void reset() {
+            // the columns are only read up to the bits written, but must start clear for the bit writer
+            Arrays.fill(times, 0, (timeBits + 7) / 8, (byte) 0);
+            Arrays.fill(values, 0, (valueBits + 7) / 8, (byte) 0);
+            timeBits = 0;
+            valueBits = 0;
+            count = 0;
+        }
+
+        boolean fits() {
+            return timeBits + MAX_TIME_BITS <= COLUMN_BYTES * 8 && valueBits + MAX_VALUE_BITS <= COLUMN_BYTES * 8;
+        }
+
+        void append(long time, int value) {
+            if (count == 0) {
+                timeBits = write(times, timeBits, time, 64);
+                valueBits = write(values, valueBits, value, 32);
+                firstTime = time;
+                lastDelta = 0;
+            } else {
+                long delta = time - lastTime;
+                long dod = delta - lastDelta;
+                if (dod == 0) {
+                    timeBits = write(times, timeBits, 0, 1);
+                } else if (dod >= -64 && dod <= 63) {
+                    timeBits = write(times, timeBits, 0x2, 2);
+                    timeBits = write(times, timeBits, dod, 7);
+                } else if (dod >= -256 && dod <= 255) {
+                    timeBits = write(times, timeBits, 0x6, 3);
+                    timeBits = write(times, timeBits, dod, 9);
+                } else if (dod >= -2048 && dod <= 2047) {
+                    timeBits = write(times, timeBits, 0xE, 4);
+                    timeBits = write(times, timeBits, dod, 12);
+                } else {
+                    timeBits = write(times, timeBits, 0xF, 4);
+                    timeBits = write(times, timeBits, dod, 64);
+                }
+                lastDelta = delta;
+
+                int diff = value - lastValue;
+                int zz = (diff << 1) ^ (diff >> 31);
+                if (zz == 0) {
+                    valueBits = write(values, valueBits, 0, 1);
+                } else if ((zz & ~0xF) == 0) {
+                    valueBits = write(values, valueBits, 0x2, 2);
+                    valueBits = write(values, valueBits, zz, 4);
+                } else if ((zz & ~0xFF) == 0) {
+                    valueBits = write(values, valueBits, 0x6, 3);
+                    valueBits = write(values, valueBits, zz, 8);
+                } else {
+                    valueBits = write(values, valueBits, 0x7, 3);
+                    valueBits = write(values, valueBits, zz, 32);
+                }
+            }
+            lastTime = time;
+            lastValue = value;
+            count++;
+        }
+
+        int scan(long from, long to, SampleVisitor visitor) {
+            int tp = 0;
+            int vp = 0;
+            long time = 0;
+            long delta = 0;
+            int value = 0;
+            int visited = 0;
+            for (int i = 0; i < count; i++) {
+                if (i == 0) {
+                    time = read(times, tp, 64);
+                    tp += 64;
+                    value = (int) read(values, vp, 32);
+                    vp += 32;
+                } else {
+                    long dod;
+                    if (read(times, tp, 1) == 0) {
+                        tp += 1;
+                        dod = 0;
+                    } else if (read(times, tp + 1, 1) == 0) {
+                        dod = signed(read(times, tp + 2, 7), 7);
+                        tp += 9;
+                    } else if (read(times, tp + 2, 1) == 0) {
+                        dod = signed(read(times, tp + 3, 9), 9);
+                        tp += 12;
+                    } else if (read(times, tp + 3, 1) == 0) {
+                        dod = signed(read(times, tp + 4, 12), 12);
+                        tp += 16;
+                    } else {
+                        dod = read(times, tp + 4, 64);
+                        tp += 68;
+                    }
+                    delta += dod;
+                    time += delta;
+
+                    int zz;
+                    if (read(values, vp, 1) == 0) {
+                        vp += 1;
+                        zz = 0;
+                    } else if (read(values, vp + 1, 1) == 0) {
+                        zz = (int) read(values, vp + 2, 4);
+                        vp += 6;
+                    } else if (read(values, vp + 2, 1) == 0) {
+                        zz = (int) read(values, vp + 3, 8);
+                        vp += 11;
+                    } else {
+                        zz = (int) read(values, vp + 3, 32);
+                        vp += 35;
+                    }
+                    value += (zz >>> 1) ^ -(zz & 1);
+                }
+                if (time >= to) {
+                    break;
+                }
+                if (time >= from) {
+                    visitor.sample(time, value);
+                    visited++;
+                }
+            }
+            return visited;
+        }
+
+        /**
+         * Write the low bits of a value, most significant first
+         * @return the new bit position
+         */
+        private static int write(byte[] buf, int pos, long v, int bits) {
+            for (int i = bits - 1; i >= 0; i--) {
+                if (((v >>> i) & 1) != 0) {
+                    buf[pos >>> 3] |= (byte) (0x80 >>> (pos & 7));
+                }
+                pos++;
+            }
+            return pos;
+        }
+
+        /**
+         * Read bits, most significant first
+         */
+        private static long read(byte[] buf, int pos, int bits) {
+            long v = 0;
+            for (int i = 0; i < bits; i++, pos++) {
+                v = (v << 1) | ((buf[pos >>> 3] >>> (7 - (pos & 7))) & 1);
+            }
+            return v;
+        }
+
+        /**
+         * Sign-extend a value of the given width
+         */
+        private static long signed(long v, int bits) {
+            return (v << (64 - bits)) >> (64 - bits);
+        }
+    }
+
+    /**
+     * Rolled-up samples in a ring of fixed-width buckets
+     */
+    private static final class Rollup {
+        final long width;
+        final long[] bucket;
+        final int[] count;
+        final long[] sum;
+        final int[] min;
+        final int[] max;
+
+        /** the newest bucket added */
+        long newest;
+
+        Rollup(long w, int size) {
+            width = w;
+            bucket = new long[size];
+            count = new int[size];
+            sum = new long[size];
+            min = new int[size];
+            max = new int[size];
+            clear();
+        }
+
+        void clear() {
+            Arrays.fill(bucket, Long.MIN_VALUE);
+            newest = Long.MIN_VALUE;
+        }
+
+        void add(long time, int value) {
+            long b = floorDiv(time, width);
+            int slot = (int) floorMod(b, bucket.length);
+            if (bucket[slot] != b) {
+                if (bucket[slot] > b) {
+                    return; // older than the ring holds
+                }
+                bucket[slot] = b;
+                newest = Math.max(newest, b);
+                count[slot] = 0;
+                sum[slot] = 0;
+                min[slot] = value;
+                max[slot] = value;
+            }
+            count[slot]++;
+            sum[slot] += value;
+            min[slot] = Math.min(min[slot], value);
+            max[slot] = Math.max(max[slot], value);
+        }
+
+        List<Aggregate> query(long from, long to) {
+            List<Aggregate> result = new ArrayList<Aggregate>();
+            if (newest == Long.MIN_VALUE) {
+                return result;
+            }
+            long last = Math.min(floorDiv(to - 1, width), newest);
+            // only the last turn of the ring can hold anything
+            long first = Math.max(floorDiv(from, width), last - bucket.length + 1);
+            for (long b = first; b <= last; b++) {
+                int slot = (int) floorMod(b, bucket.length);
+                if (bucket[slot] == b) {
+                    result.add(new Aggregate(b * width, count[slot], sum[slot], min[slot], max[slot]));
+                }
+            }
+            return result;
+        }
+
+        private static long floorDiv(long x, long y) {
+            long q = x / y;
+            return (x % y != 0 && (x < 0) != (y < 0)) ? q - 1 : q;
+        }
+
+        private static long floorMod(long x, long y) {
+            return x - floorDiv(x, y) * y;
+        }
+    }
+}
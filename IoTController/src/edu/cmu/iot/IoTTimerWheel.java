@@ -0,0 +1,241 @@
+package edu.cmu.iot;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A hashed timer wheel shared by every house. Timeouts are kept in a ring of slots, one slot per tick, with a
+ * round count for delays longer than one turn of the wheel, so scheduling and cancelling a timeout take constant
+ * time however many are pending. A single daemon thread advances the wheel and runs the expired tasks, which must
+ * be short; the controller only posts an event to the house event loop.
+ *
+ * Project: LG Exec Ed Program
+ * Copyright: Copyright (c) 2015 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 October 2026 - initial version
+ */
+public class IoTTimerWheel implements Runnable {
+
+    /** the resolution of the wheel in milliseconds */
+    public static final long TICK = 100;
+
+    /** the number of slots; a power of two */
+    private static final int WHEEL_SIZE = 512;
+
+    /** A scheduled task */
+    public final class Timeout {
+        private final String owner;
+        private final Runnable task;
+
+        // position in the wheel; guarded by the wheel
+        private int slot;
+        private long rounds;
+        private Timeout prev = null;
+        private Timeout next = null;
+        private boolean pending = true;
+
+        private Timeout(String o, Runnable t) {
+            owner = o;
+            task = t;
+        }
+
+        /**
+         * Get the owner of the timeout
+         * @return the owner, usually a house address
+         */
+        public String getOwner() {
+            return owner;
+        }
+
+        /**
+         * Is the timeout waiting to expire
+         * @return true if neither expired nor cancelled
+         */
+        public boolean isPending() {
+            synchronized (IoTTimerWheel.this) {
+                return pending;
+            }
+        }
+
+        /**
+         * Cancel the timeout
+         * @return true if the timeout was pending, false if it had already expired or been cancelled
+         */
+        public boolean cancel() {
+            synchronized (IoTTimerWheel.this) {
+                if (!pending) {
+                    return false;
+                }
+                remove(this);
+                return true;
+            }
+        }
+    }
+
+    /** the wheel shared by the controller */
+    private static IoTTimerWheel sharedWheel = null;
+
+    /** the first timeout in each slot; guarded by this */
+    private final Timeout[] wheel = new Timeout[WHEEL_SIZE];
+
+    /** the number of ticks processed; guarded by this */
+    private long tick = 0;
+
+    /** the number of pending timeouts for each owner; guarded by this */
+    private final Map<String, Integer> pendingByOwner = new HashMap<String, Integer>();
+
+    private int pendingCount = 0;
+
+    /** the expired timeouts of the current tick; only used on the wheel thread */
+    private final List<Timeout> expired = new ArrayList<Timeout>();
+
+    /**
+     * Create a wheel and start its thread
+     */
+    public IoTTimerWheel() {
+        Thread t = new Thread(this, "IoT timer wheel");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Get the wheel shared by the controller
+     * @return the shared wheel
+     */
+    public static synchronized IoTTimerWheel getWheel() {
+        if (sharedWheel == null) {
+            sharedWheel = new IoTTimerWheel();
+        }
+        return sharedWheel;
+    }
+
+    /**
+     * Schedule a task
+     * @param owner the owner of the timeout, usually a house address, for the pending count
+     * @param delay the delay in milliseconds, rounded up to a whole tick
+     * @param task the task, run on the wheel thread; it must not block
+     * @return the timeout, used to cancel the task
+     */
+    public synchronized Timeout schedule(String owner, long delay, Runnable task) {
+        long ticks = Math.max(1, (delay + TICK - 1) / TICK);
+        Timeout t = new Timeout(owner, task);
+        t.slot = (int) ((tick + ticks) & (WHEEL_SIZE - 1));
+        t.rounds = (ticks - 1) / WHEEL_SIZE;
+
+        // add at the head of the slot
+        t.next = wheel[t.slot];
+        if (t.next != null) {
+            t.next.prev = t;
+        }
+        wheel[t.slot] = t;
+
+        Integer count = pendingByOwner.get(owner);
+        pendingByOwner.put(owner, count == null ? 1 : count + 1);
+        pendingCount++;
+        return t;
+    }
+
+    /**
+     * Get the number of pending timeouts for an owner
+     * @param owner the owner
+     * @return the pending count
+     */
+    public synchronized int getPendingCount(String owner) {
+        Integer count = pendingByOwner.get(owner);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * Get the number of pending timeouts for every owner that has any
+     * @return a copy of the pending counts
+     */
+    public synchronized Map<String, Integer> getPendingCounts() {
+        return new HashMap<String, Integer>(pendingByOwner);
+    }
+
+    /**
+     * Get the total number of pending timeouts
+     * @return the pending count
+     */
+    public synchronized int size() {
+        return pendingCount;
+    }
+
+    /**
+     * Take a timeout out of its slot. Called with the wheel locked.
+     * @param t the timeout
+     */
+    private void remove(Timeout t) {
+        if (t.prev != null) {
+            t.prev.next = t.next;
+        } else {
+            wheel[t.slot] = t.next;
+        }
+        if (t.next != null) {
+            t.next.prev = t.prev;
+        }
+        t.prev = null;
+        t.next = null;
+        t.pending = false;
+
+        int count = pendingByOwner.get(t.owner) - 1;
+        if (count == 0) {
+            pendingByOwner.remove(t.owner);
+        } else {
+            pendingByOwner.put(t.owner, count);
+        }
+        pendingCount--;
+    }
+
+    /**
+     * Move to the next tick and collect the timeouts that expire
+     */
+    private synchronized void advance() {
+        tick++;
+        Timeout t = wheel[(int) (tick & (WHEEL_SIZE - 1))];
+        while (t != null) {
+            Timeout next = t.next;
+            if (t.rounds == 0) {
+                remove(t);
+                expired.add(t);
+            } else {
+                t.rounds--;
+            }
+            t = next;
+        }
+    }
+
+    /**
+     * The wheel thread. Ticks missed while the thread was delayed are caught up at once.
+     */
+    @Override
+    public void run() {
+        long start = System.nanoTime();
+        long ticks = 0;
+        while (true) {
+            long wait = start + TimeUnit.MILLISECONDS.toNanos((ticks + 1) * TICK) - System.nanoTime();
+            if (wait > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                continue;
+            }
+            ticks++;
+            advance();
+
+            for (Timeout t : expired) {
+                try {
+                    t.task.run();
+                } catch (RuntimeException re) {
+                    re.printStackTrace();
+                }
+            }
+            expired.clear();
+        }
+    }
+}
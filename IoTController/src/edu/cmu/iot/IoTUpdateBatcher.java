@@ -0,0 +1,137 @@
+package edu.cmu.iot;
+
+import javax.swing.Timer;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.List;
+
+/**
+ * Collects the updates for the control window from the controller threads and applies them on the Swing thread
+ * once per frame. State updates that arrive within a frame are merged, log entries go straight into the event
+ * log and the viewer is refreshed once, and only the last enable or disable request counts, so a house that
+ * floods the controller with events costs one repaint per frame at most.
+ *
+ * Project: LG Exec Ed Program
+ * Copyright: Copyright (c) 2015 Jeffrey S. Gennari
+ * Versions:
+ * 1.0 October 2026 - initial version
+ */
+class IoTUpdateBatcher implements ActionListener {
+
+    /** the time (in milliseconds) updates are collected before they are applied */
+    static final int FRAME_INTERVAL = 16;
+
+    private final IoTControlWindow window;
+
+    /** the log shown by the window */
+    private final IoTEventLog eventLog;
+
+    /** fires once on the Swing thread a frame after the first update of a batch */
+    private final Timer frameTimer;
+
+    // the batch being collected; guarded by this
+    private HouseState pendingState = new HouseState();
+    private boolean logChanged = false;
+    private Boolean pendingEnabled = null;
+    private boolean scheduled = false;
+
+    // the batch being applied; only used on the Swing thread
+    private HouseState applyingState = new HouseState();
+
+    /**
+     * Create a batcher for a window
+     * @param win the window to update
+     * @param log the log shown by the window
+     */
+    IoTUpdateBatcher(IoTControlWindow win, IoTEventLog log) {
+        window = win;
+        eventLog = log;
+        frameTimer = new Timer(FRAME_INTERVAL, this);
+        frameTimer.setRepeats(false);
+    }
+
+    /**
+     * Queue a state update
+     * @param state the new state; it is merged into the batch, so the caller may reuse it
+     */
+    synchronized void updateState(HouseState state) {
+        pendingState.merge(state, HouseState.ALL);
+        schedule();
+    }
+
+    /**
+     * Queue a log entry
+     * @param text the entry
+     */
+    synchronized void log(String text) {
+        eventLog.add(text);
+        logChanged = true;
+        schedule();
+    }
+
+    /**
+     * Queue several log entries
+     * @param entries the entries
+     */
+    synchronized void log(List<String> entries) {
+        long now = System.currentTimeMillis();
+        for (String text : entries) {
+            eventLog.add(now, text);
+        }
+        logChanged = true;
+        schedule();
+    }
+
+    /**
+     * Queue enabling or disabling the controls
+     * @param enabled true to enable the controls
+     */
+    synchronized void setControlsEnabled(boolean enabled) {
+        pendingEnabled = enabled;
+        schedule();
+    }
+
+    /**
+     * Start the frame timer for a new batch. Called with the batcher locked.
+     */
+    private void schedule() {
+        if (!scheduled) {
+            scheduled = true;
+            frameTimer.start();
+        }
+    }
+
+    /**
+     * Apply the batch. Runs on the Swing thread.
+     * @param e the timer event
+     */
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        Boolean enabled;
+        boolean refreshLog;
+        synchronized (this) {
+            // swap the batches so new updates are collected while this one is applied
+            HouseState state = pendingState;
+            pendingState = applyingState;
+            applyingState = state;
+
+            refreshLog = logChanged;
+            logChanged = false;
+
+            enabled = pendingEnabled;
+            pendingEnabled = null;
+            scheduled = false;
+        }
+
+        if (enabled != null) {
+            window.applyControlsEnabled(enabled);
+        }
+        if (!applyingState.isEmpty()) {
+            window.applyState(applyingState);
+            applyingState.clear();
+        }
+        if (refreshLog) {
+            window.refreshLog();
+        }
+    }
+}
@@ -59,8 +59,12 @@ public abstract class IoTValues {
     public static final String GET_STATE = "GS";
     public static final String SET_STATE = "SS";
     public static final String STATE_UPDATE = "SU";
+    public static final String SUBSCRIBE = "SB";
 
     public static final String SETTINGS_FILE = "settings.txt";
+    public static final String RULES_FILE = "rules.txt";
+    public static final String JOURNAL_DIR = "journal";
     public static final String USERS_DB = "users.txt";
+    public static final String HOUSES = "HOUSES";
 
 }
@@ -5,4 +5,27 @@ package edu.cmu.iot;
  *
  * Created by jsg on 11/3/15.
  */
-public class LoginAttemptsExceededException extends Exception { /* nothing to do here */ }
+public class LoginAttemptsExceededException extends Exception {
+
+    /** the milliseconds until another attempt is allowed */
+    private final long retryAfter;
+
+    public LoginAttemptsExceededException() {
+        this(0);
+    }
+
+    /**
+     * @param retryAfter the milliseconds until another attempt is allowed
+     */
+    public LoginAttemptsExceededException(long retryAfter) {
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Get the time until another attempt is allowed
+     * @return the time in milliseconds, 0 if unknown
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+}
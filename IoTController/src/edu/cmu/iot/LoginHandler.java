@@ -1,7 +1,5 @@
 package edu.cmu.iot;
 
-import java.util.Vector;
-
 /**
  * Validate username and password
  *
@@ -12,91 +10,67 @@ import java.util.Vector;
  */
 public class LoginHandler {
 
-    /** the number of unsuccessful login attempts */
-    private int times;
+    /** the source of logins made at the control window */
+    public static final String CONSOLE = "console";
+
+    /** limits the login attempts per user and per source */
+    private final IoTLoginThrottle throttle;
 
-    /** the list of valid users */
-    Vector<UserLoginInfo> validUsers;
+    /** the valid users */
+    private final IoTCredentialStore validUsers;
 
     /**
      * The constructor for the login handler
-     * @param vu list of valid users
+     * @param vu the valid users
      */
-    public LoginHandler(Vector<UserLoginInfo> vu) {
-        times = 0;
+    public LoginHandler(IoTCredentialStore vu) {
+        this(vu, new IoTLoginThrottle());
+    }
+
+    /**
+     * The constructor for the login handler
+     * @param vu the valid users
+     * @param throttle limits the login attempts
+     */
+    public LoginHandler(IoTCredentialStore vu, IoTLoginThrottle throttle) {
         validUsers = vu;
+        this.throttle = throttle;
     }
 
     public void resetHandler() {
-        times = 0;
+        throttle.clear();
     }
 
     /**
-     * Authenticate the username and password
+     * Authenticate the username and password given at the control window
      * @param username the user name
      * @param password the password
      * @return true if authenticated, false otherwise
      * @throws LoginAttemptsExceededException
      */
     public Boolean authenticate(String username, String password) throws LoginAttemptsExceededException {
-
-        if (times > 3) throw new LoginAttemptsExceededException();
-
-        for (UserLoginInfo uli : validUsers) {
-            String un = uli.getUserName();
-            String pw = uli.getPassword();
-            if (username.equals(un) && password.equals(pw)) {
-                return true;
-            }
-        }
-        // increment the invalid login count
-        times++;
-        return false;
-    }
-}
-
-/**
- * Represents user login information
- */
-class UserLoginInfo {
-
-    /** the user credentials */
-    private String userName, password;
-
-    public UserLoginInfo(String userName, String password) {
-        this.userName = userName;
-        this.password = password;
-    }
-
-    /**
-     *  Get the username
-     * @return the user name
-     */
-    public String getUserName() {
-        return userName;
+        return authenticate(username, password, CONSOLE);
     }
 
     /**
-     * Set the username
-     * @param userName
+     * Authenticate the username and password. May be called from any thread.
+     * @param username the user name
+     * @param password the password
+     * @param source where the attempt comes from, such as the address of an API client
+     * @return true if authenticated, false otherwise
+     * @throws LoginAttemptsExceededException if the user or the source has made too many attempts
      */
-    public void setUserName(String userName) {
-        this.userName = userName;
-    }
+    public Boolean authenticate(String username, String password, String source)
+            throws LoginAttemptsExceededException {
 
-    /**
-     * Get password
-     * @return
-     */
-    public String getPassword() {
-        return password;
-    }
+        long wait = throttle.check(username, source);
+        if (wait > 0) throw new LoginAttemptsExceededException(wait);
 
-    /**
-     * Set password
-     * @param password
-     */
-    public void setPassword(String password) {
-        this.password = password;
+        if (validUsers.authenticate(username, password)) {
+            throttle.succeeded(username, source);
+            return true;
+        }
+        throttle.failed(username, source);
+        return false;
     }
 }
@@ -2,7 +2,6 @@ package edu.cmu.iot;
 
 import java.awt.*;
 import java.awt.event.*;
-import java.util.Vector;
 import javax.swing.*;
 import javax.swing.border.*;
 
@@ -25,7 +24,7 @@ public class LoginWindow extends JDialog  {
     private boolean succeeded;
     private static LoginHandler login;
 
-    public LoginWindow(Frame parent,Vector<UserLoginInfo>validUsers) {
+    public LoginWindow(Frame parent, IoTCredentialStore validUsers) {
         super(parent, "Login", true);
 
         login = new LoginHandler(validUsers);
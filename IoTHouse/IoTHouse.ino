@@ -6,6 +6,7 @@
 * 1.0 May 2013 - initial version
 * 1.5 April 2014 - added #define for port id
 * 2.0 November 2015 - modified for LGE Testing Program
+* 2.1 October 2026 - added subscribe (SB) for pushed state updates
 *
 * Description:
 *
@@ -57,6 +58,13 @@ int QtiPin = 6;            // The pin with QTI/proximity sensor
 boolean alarmState = false;
 boolean lightState = false;
 
+#define PUSH_CHECK_MS 100      // How often the sensors are checked for changes when subscribed
+
+boolean subscribed = false;    // Set when the client asks for pushed state updates
+int lastDoorState = -1;        // The door state last sent to the client
+int lastProximity = -1;        // The proximity state last sent to the client
+unsigned long lastPushCheck = 0;
+
  void setup() {
    // Initialize a serial terminal for debug messages.
    Serial.begin(9600);
@@ -110,7 +118,12 @@ boolean lightState = false;
            req += c;
          }
        }
+       else if (subscribed) {
+         // nothing to read: push a state update if the door or proximity sensor changed
+         PushStateUpdate(client);
+       }
      }
+     subscribed = false;
      client.stop();
      Serial.println("Done!");
      Serial.println(".....................");
@@ -143,6 +156,13 @@ String  ProcessRequest(String request) {
   else if (hdr == "GS") {
     response = HandleGetState();
   }
+  else if (hdr == "SB") {
+    // from now on, send state updates when the sensors change
+    subscribed = true;
+    lastDoorState = DoorState();
+    lastProximity = (ProximityVal(QtiPin) == 0) ? 1 : 0;
+    response = "OK";
+  }
   
   return response;
 }
@@ -291,6 +311,33 @@ String HandleGetState() {
   return response;
 }
 
+/*********************************************************************
+* void PushStateUpdate()
+* Parameters: the connected client
+*
+* Description:
+* This method checks the door and proximity sensors and sends an
+* unsolicited state update to a subscribed client when either changed.
+* Updates are only sent between requests, so they never split a
+* response.
+***********************************************************************/
+void PushStateUpdate(WiFiClient client) {
+
+  if (millis() - lastPushCheck < PUSH_CHECK_MS) {
+    return;
+  }
+  lastPushCheck = millis();
+
+  int ds = DoorState();
+  int ps = (ProximityVal(QtiPin) == 0) ? 1 : 0;
+  if (ds != lastDoorState || ps != lastProximity) {
+    lastDoorState = ds;
+    lastProximity = ps;
+    client.println(HandleGetState());
+    client.flush();
+  }
+}
+
 /*********************************************************************
 * void CloseDoor()
 * Parameters: None           